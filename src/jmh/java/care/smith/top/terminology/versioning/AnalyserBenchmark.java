@@ -0,0 +1,118 @@
+package care.smith.top.terminology.versioning;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the construction of an analyser (file detection, reading both label files and
+ * building the transitions) and the classification of its change sets.
+ * @author Ralph Schäfermeier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyserBenchmark {
+  
+  @Param({"10000", "100000"})
+  public int codes;
+  
+  /**
+   * A new analyser for every invocation, built outside of the measurement.
+   */
+  @State(Scope.Thread)
+  public static class FreshAnalyser {
+    
+    private OPSVersionTransitionAnalyser analyser;
+    
+    @Setup(Level.Invocation)
+    public void setUp(AnalyserBenchmark benchmark) throws Exception {
+      analyser = new OPSVersionTransitionAnalyser(benchmark.release.getProperties());
+    }
+  }
+  
+  private Path directory;
+  private SyntheticRelease release;
+  private OPSVersionTransitionAnalyser analyser;
+  
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("analyser-benchmark");
+    release = new SyntheticRelease(directory, codes, 42);
+    analyser = new OPSVersionTransitionAnalyser(release.getProperties());
+  }
+  
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+  
+  @Benchmark
+  public OPSVersionTransitionAnalyser construct() throws Exception {
+    return new OPSVersionTransitionAnalyser(release.getProperties());
+  }
+  
+  @Benchmark
+  public long readLabels() throws Exception {
+    var properties = release.getProperties();
+    var files = ReleaseFiles.detect(release.getDirectory());
+    var codes = properties.getContext().getCodes();
+    long[] checksum = {0};
+    DelimitedFileReader.forLabels(properties).read(files.fileNew(), cells -> checksum[0] += codes.getId(cells[0]) + cells[1].length());
+    return checksum[0];
+  }
+  
+  @Benchmark
+  public long readTransitions() throws Exception {
+    var properties = release.getProperties();
+    var files = ReleaseFiles.detect(release.getDirectory());
+    var codes = properties.getContext().getCodes();
+    long[] checksum = {0};
+    DelimitedFileReader.forTransitions(properties).read(files.fileTransitions(), cells -> checksum[0] += codes.getId(cells[0]) ^ codes.getId(cells[1]));
+    return checksum[0];
+  }
+  
+  /**
+   * Classifies all change sets like the first call of one of the eight getters does and
+   * then reads all eight results.
+   */
+  @Benchmark
+  public void classify(Blackhole blackhole) {
+    var summary = ChangeSummary.of(analyser.getChangeSets());
+    for (var type : CodeChanges.SemanticChange.values()) {
+      blackhole.consume(summary.get(type));
+    }
+    for (var type : CodeChanges.LexicalChange.values()) {
+      blackhole.consume(summary.get(type));
+    }
+  }
+  
+  /**
+   * The first call of the eight getters, which classifies the change sets once and then
+   * reads the results. The analyser keeps its summary, so every invocation gets a new one.
+   */
+  @Benchmark
+  public int getters(FreshAnalyser fresh) {
+    var analyser = fresh.analyser;
+    return analyser.getAdditions().size()
+            + analyser.getDeletions().size()
+            + analyser.getReplacements().size()
+            + analyser.getSplits().size()
+            + analyser.getMerges().size()
+            + analyser.getLabelAdditions().size()
+            + analyser.getLabelDeletions().size()
+            + analyser.getRelabelings().size();
+  }
+}
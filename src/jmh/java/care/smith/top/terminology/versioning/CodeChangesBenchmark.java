@@ -0,0 +1,103 @@
+package care.smith.top.terminology.versioning;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the semantic and lexical classification of single change sets on a mix of
+ * shapes. With the default share, 85 percent of the change sets are unchanged codes (1:1
+ * onto themselves), the rest are replacements, splits, merges, additions and deletions.
+ * @author Ralph Schäfermeier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodeChangesBenchmark {
+  
+  private static final int CHANGE_SETS = 1 << 16;
+  
+  @Param({"0.85", "0.5"})
+  public double unchangedShare;
+  
+  private CodeChanges[] changeSets;
+  
+  @Setup(Level.Trial)
+  public void setUp() {
+    var random = new Random(42);
+    var codes = new CodeDictionary();
+    changeSets = new CodeChanges[CHANGE_SETS];
+    int next = 0;
+    for (int i = 0; i < CHANGE_SETS; i++) {
+      double shape = random.nextDouble();
+      double rest = (shape - unchangedShare) / (1 - unchangedShare);
+      CodeChanges changes;
+      if (shape < unchangedShare) {
+        int code = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, code);
+        changes.addOldCode(code);
+        changes.addNewCode(code);
+        changes.addOldLabel("label " + code);
+        changes.addNewLabel(random.nextDouble() < 0.1 ? "new label " + code : "label " + code);
+      } else if (rest < 0.3) {
+        int oldCode = codes.getId("c" + next++);
+        int newCode = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, newCode);
+        changes.addOldCode(oldCode);
+        changes.addNewCode(newCode);
+        changes.addOldLabel("label " + oldCode);
+        changes.addNewLabel("label " + oldCode);
+      } else if (rest < 0.5) {
+        int oldCode = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, oldCode);
+        changes.addOldCode(oldCode);
+        changes.addOldLabel("label " + oldCode);
+        for (int n = 2 + random.nextInt(2); n > 0; n--) {
+          int newCode = codes.getId("c" + next++);
+          changes.addNewCode(newCode);
+          changes.addNewLabel("label " + newCode);
+        }
+      } else if (rest < 0.7) {
+        int newCode = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, newCode);
+        changes.addNewCode(newCode);
+        changes.addNewLabel("label " + newCode);
+        for (int n = 2 + random.nextInt(2); n > 0; n--) {
+          int oldCode = codes.getId("c" + next++);
+          changes.addOldCode(oldCode);
+          changes.addOldLabel("label " + oldCode);
+        }
+      } else if (rest < 0.85) {
+        int code = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, code);
+        changes.addNewCode(code);
+      } else {
+        int code = codes.getId("c" + next++);
+        changes = new CodeChanges(codes, code);
+        changes.addOldCode(code);
+      }
+      changeSets[i] = changes;
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(CHANGE_SETS)
+  public void semanticChange(Blackhole blackhole) {
+    for (CodeChanges changes : changeSets) {
+      blackhole.consume(changes.getSemanticChange());
+    }
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(CHANGE_SETS)
+  public void lexicalChange(Blackhole blackhole) {
+    for (CodeChanges changes : changeSets) {
+      blackhole.consume(changes.getLexicalChange());
+    }
+  }
+}
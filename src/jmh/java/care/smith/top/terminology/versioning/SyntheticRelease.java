@@ -0,0 +1,51 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single release written by the {@link ReleaseGenerator}, as the real releases cannot be
+ * redistributed. The content only depends on the code count and the seed, so every
+ * benchmark run works on the same data.
+ *
+ * The shapes roughly follow the real OPS releases: most codes are kept, some of them get
+ * a new label, and a few percent are replaced, split, merged, deleted or added.
+ * @author Ralph Schäfermeier
+ */
+public class SyntheticRelease {
+  
+  private final Path directory;
+  
+  public SyntheticRelease(Path directory, int codeCount, long seed) throws IOException {
+    var options = new ReleaseGeneratorOptions();
+    options.setOutputDirectory(directory.toFile());
+    options.setCodes(codeCount);
+    options.setReleases(1);
+    options.setFirstYear(2023);
+    options.setEncodings(List.of(StandardCharsets.UTF_8.name()));
+    options.setDeletionRatio(0.02);
+    options.setReplacementRatio(0.04);
+    options.setSplitRatio(0.03);
+    options.setMergeRatio(0.03);
+    options.setAdditionRatio(1.0 / 30);
+    options.setRelabelingRatio(0.1);
+    options.setSeed(seed);
+    new ReleaseGenerator(options).generate();
+    this.directory = directory.resolve("ops2024").resolve("Klassifikationsdateien");
+  }
+  
+  /**
+   * @return properties for the release with a fresh context, so nothing is shared with
+   * earlier analyses of the same release
+   */
+  public Properties getProperties() {
+    return new Properties(directory.toFile(), ';', StandardCharsets.UTF_8, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2));
+  }
+  
+  public Path getDirectory() {
+    return directory;
+  }
+}
@@ -1,6 +1,14 @@
 package care.smith.top.terminology.versioning;
 
+import java.nio.file.Files;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Runs the transition analysis on one release of a terminology.
@@ -10,24 +18,174 @@ public abstract class AbstractTerminologyVersionTransitionAnalyser {
   
   private Properties properties;
   
+  private ChangeSummary summary;
+  
+  // the lists of the getters below for a summary that only has the counts, by change type
+  private final Map<Enum<?>, List<CodeChanges>> lists = new HashMap<>();
+  
+  private final ReleaseMetrics metrics;
+  
   public AbstractTerminologyVersionTransitionAnalyser(Properties properties) throws IllegalArgumentException {
     var inputDirectory = properties.getDirectory();
-    if (inputDirectory == null || !inputDirectory.exists() || !inputDirectory.isDirectory()) {
+    if (inputDirectory == null || !Files.isDirectory(inputDirectory)) {
       throw new IllegalArgumentException("Input directory does not exist or is not a directory");
     }
     this.properties = properties;
+    this.metrics = new ReleaseMetrics(ReleaseArchives.describe(inputDirectory));
   }
   
   protected Properties getProperties() {
     return properties;
   }
   
-  public abstract List<CodeChanges> getAdditions();
-  public abstract List<CodeChanges> getDeletions();
-  public abstract List<CodeChanges> getMerges();
-  public abstract List<CodeChanges> getSplits();
-  public abstract List<CodeChanges> getReplacements();
-  public abstract List<CodeChanges> getLabelAdditions();
-  public abstract List<CodeChanges> getLabelDeletions();
-  public abstract List<CodeChanges> getRelabelings();
+  /**
+   * @return the timings and counters of the phases this analyser has run so far
+   */
+  public ReleaseMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * @return every change set of this release exactly once
+   */
+  protected abstract Iterable<CodeChanges> getChangeSets();
+  
+  /**
+   * @return the change sets for {@link #changes(ChangeFilter)}. Analysers whose change sets
+   *         can be split for parallel streams override this.
+   */
+  protected Spliterator<CodeChanges> getChangeSetSpliterator() {
+    return getChangeSets().spliterator();
+  }
+  
+  /**
+   * Streams the change sets that match the filter without collecting them. They are
+   * classified as the stream is consumed, so a count, the first few matches or a single
+   * aggregation do not classify the whole release, and the stream can be made parallel.
+   * The change sets come in the same order as in the lists of the getters below.
+   */
+  public Stream<CodeChanges> changes(ChangeFilter filter) {
+    return StreamSupport.stream(getChangeSetSpliterator(), false).filter(filter);
+  }
+  
+  /**
+   * @return the labels of the old version
+   */
+  public abstract LabelMap getOldLabels();
+  
+  /**
+   * @return the labels of the new version
+   */
+  public abstract LabelMap getNewLabels();
+  
+  /**
+   * Classifies all change sets of this release. This is done once, the result is reused
+   * by all the getters below.
+   */
+  public synchronized ChangeSummary getSummary() {
+    return summary != null ? summary : getSummary(changes -> {});
+  }
+  
+  /**
+   * Classifies all change sets like {@link #getSummary()} and passes each of them to the
+   * consumer in the same pass, so the change sets of a release that is analysed part by
+   * part are only built once for everything that needs them. If the release has been
+   * classified already, the change sets are iterated once more.
+   */
+  public synchronized ChangeSummary getSummary(Consumer<? super CodeChanges> consumer) {
+    if (summary != null) {
+      getChangeSets().forEach(consumer);
+      return summary;
+    }
+    try (var phase = metrics.start("classification")) {
+      summary = summarise(properties.getContext().getMinorRelabelingThreshold(), consumer);
+      phase.setRows(summary.size());
+      phase.addAnomalies(ReleaseMetrics.Anomaly.mappedToUndefined, summary.countMappedToUndefined());
+    }
+    return summary;
+  }
+  
+  /**
+   * Classifies the change sets and passes each of them to the consumer. Analysers that do
+   * not keep all change sets at once can classify them part by part and add up the counts.
+   */
+  protected ChangeSummary summarise(double minorRelabelingThreshold, Consumer<? super CodeChanges> consumer) {
+    var changeSets = getChangeSets();
+    changeSets.forEach(consumer);
+    return ChangeSummary.of(changeSets, minorRelabelingThreshold);
+  }
+  
+  /**
+   * A summary that only has the counts, see {@link ChangeSummary#sum(List)}, is backed by
+   * the stream of change sets. Each list is collected once, on its first call, and kept.
+   */
+  private List<CodeChanges> get(CodeChanges.SemanticChange type) {
+    var summary = getSummary();
+    return summary.hasChangeSets() ? summary.get(type) : collect(type, () -> changes(new ChangeFilter(type)).toList());
+  }
+  
+  private List<CodeChanges> get(CodeChanges.LexicalChange type) {
+    var summary = getSummary();
+    return summary.hasChangeSets() ? summary.get(type) : collect(type, () -> changes(new ChangeFilter(type)).toList());
+  }
+  
+  private List<CodeChanges> get(CodeChanges.RelabelingSeverity severity) {
+    var summary = getSummary();
+    if (summary.hasChangeSets()) {
+      return summary.get(severity);
+    }
+    double threshold = properties.getContext().getMinorRelabelingThreshold();
+    return collect(severity, () -> changes(new ChangeFilter(CodeChanges.LexicalChange.labelReplacement))
+            .filter(changes -> (changes.getLabelSimilarity() >= threshold) == (severity == CodeChanges.RelabelingSeverity.minor))
+            .toList());
+  }
+  
+  private synchronized List<CodeChanges> collect(Enum<?> type, Supplier<List<CodeChanges>> changeSets) {
+    var list = lists.get(type);
+    if (list == null) {
+      list = changeSets.get();
+      lists.put(type, list);
+    }
+    return list;
+  }
+  
+  public List<CodeChanges> getAdditions() {
+    return get(CodeChanges.SemanticChange.addition);
+  }
+  
+  public List<CodeChanges> getDeletions() {
+    return get(CodeChanges.SemanticChange.deletion);
+  }
+  
+  public List<CodeChanges> getMerges() {
+    return get(CodeChanges.SemanticChange.merge);
+  }
+  
+  public List<CodeChanges> getSplits() {
+    return get(CodeChanges.SemanticChange.split);
+  }
+  
+  public List<CodeChanges> getReplacements() {
+    return get(CodeChanges.SemanticChange.replacement);
+  }
+  
+  public List<CodeChanges> getLabelAdditions() {
+    return get(CodeChanges.LexicalChange.labelAddition);
+  }
+  
+  public List<CodeChanges> getLabelDeletions() {
+    return get(CodeChanges.LexicalChange.labelDeletion);
+  }
+  
+  public List<CodeChanges> getRelabelings() {
+    return get(CodeChanges.LexicalChange.labelReplacement);
+  }
+  
+  public List<CodeChanges> getMinorRelabelings() {
+    return get(CodeChanges.RelabelingSeverity.minor);
+  }
+  
+  public List<CodeChanges> getMajorRelabelings() {
+    return get(CodeChanges.RelabelingSeverity.major);
+  }
 }
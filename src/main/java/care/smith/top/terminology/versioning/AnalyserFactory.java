@@ -0,0 +1,23 @@
+package care.smith.top.terminology.versioning;
+
+/**
+ * Creates the analysers of one terminology. The factories are found through
+ * {@link java.util.ServiceLoader}, see {@link AnalyserRegistry}, so analysers are created
+ * without reflection.
+ * @author Ralph Schäfermeier
+ */
+public interface AnalyserFactory {
+  
+  /**
+   * @return the name of the terminology, which is the name of its root directory in upper
+   *         case, e.g. OPS
+   */
+  String getTerminology();
+  
+  /**
+   * @return the class of the analysers, which identifies them in stored results
+   */
+  Class<? extends AbstractTerminologyVersionTransitionAnalyser> getAnalyserClass();
+  
+  AbstractTerminologyVersionTransitionAnalyser create(Properties properties) throws Exception;
+}
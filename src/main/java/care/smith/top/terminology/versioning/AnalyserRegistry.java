@@ -0,0 +1,41 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.BatchRunnerException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * The analyser factories on the class path, listed in
+ * META-INF/services/care.smith.top.terminology.versioning.AnalyserFactory and keyed by
+ * terminology. They are loaded once, when the registry is first used.
+ * @author Ralph Schäfermeier
+ */
+public final class AnalyserRegistry {
+  
+  private static final Map<String, AnalyserFactory> factories = load();
+  
+  private AnalyserRegistry() {
+  }
+  
+  /**
+   * @param terminology the name of the terminology in any case, e.g. ops
+   */
+  public static AnalyserFactory get(String terminology) throws BatchRunnerException {
+    var factory = factories.get(terminology.toUpperCase(Locale.ROOT));
+    if (factory == null) {
+      throw new BatchRunnerException(String.format("There is no analyser for the terminology %s. Known terminologies: %s", terminology, String.join(", ", factories.keySet())), null);
+    }
+    return factory;
+  }
+  
+  private static Map<String, AnalyserFactory> load() {
+    var factories = new TreeMap<String, AnalyserFactory>();
+    for (var factory : ServiceLoader.load(AnalyserFactory.class, AnalyserRegistry.class.getClassLoader())) {
+      factories.put(factory.getTerminology().toUpperCase(Locale.ROOT), factory);
+    }
+    return factories;
+  }
+}
@@ -1,15 +1,19 @@
 package care.smith.top.terminology.versioning;
 
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReaderHeaderAware;
+import care.smith.top.terminology.versioning.util.BatchRunnerException;
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Entry point for a batch run on a set of terminology releases.
@@ -17,58 +21,312 @@ import java.util.*;
  * change information) and a property file specifying the subfolders and the column
  * mappings for the csv files containing the change information (because folder
  * structure and file structure change from year to year).
+ *
+ * The releases do not depend on each other, so they can be analysed concurrently.
+ * The results are written in the order of the rows in the property file regardless.
+ * The releases of several root directories can be analysed in one run. They share the
+ * worker pool, and a {@link ReleaseScheduler} only starts as many releases at a time as
+ * the heap allows by their estimated size.
+ *
+ * The timings and counters of the phases of each release are written to a metrics file
+ * next to the results. Optionally, the transitions of all releases are composed into a
+ * {@link CodeMappingIndex}, the codes of all versions into a {@link CodeLifetimeIndex},
+ * the labels of all versions into a {@link LabelSearchIndex},
+ * and the classified change sets are exported with their codes
+ * and labels by a {@link ChangeSetWriter}.
+ *
+ * With a {@link ResultStore}, releases whose properties row and input files have not
+ * changed since the last run are not analysed again. Their stored results are merged into
+ * the output instead.
  * @author Ralph Schäfermeier
  */
 public class AnalysisBatchRunner {
   
-  private final File sourceDirectory;
+  private record Result(int year, String line, ReleaseMetrics metrics) {}
+  
+  // the columns of the result file after the year
+  private static final List<Enum<?>> COLUMNS = List.of(
+          CodeChanges.SemanticChange.addition,
+          CodeChanges.SemanticChange.deletion,
+          CodeChanges.SemanticChange.replacement,
+          CodeChanges.SemanticChange.split,
+          CodeChanges.SemanticChange.merge,
+          CodeChanges.LexicalChange.labelAddition,
+          CodeChanges.LexicalChange.labelDeletion,
+          CodeChanges.LexicalChange.labelReplacement,
+          CodeChanges.RelabelingSeverity.minor,
+          CodeChanges.RelabelingSeverity.major,
+          CodeChanges.SemanticChange.complex);
   
-  @SuppressWarnings("unchecked")
   public AnalysisBatchRunner(File sourceDirectory) throws Exception {
-    this.sourceDirectory = sourceDirectory;
+    this(sourceDirectory, new BatchOptions());
+  }
+  
+  public AnalysisBatchRunner(File sourceDirectory, BatchOptions options) throws Exception {
+    this(List.of(sourceDirectory), options);
+  }
+  
+  /**
+   * Analyses the releases of several root directories, e.g. ops and icd10gm, on one worker
+   * pool. Each root gets its own result and metrics files.
+   */
+  public AnalysisBatchRunner(List<File> sourceDirectories, BatchOptions options) throws Exception {
+    if (sourceDirectories.size() > 1 && (options.getMappingIndexFile() != null || options.getLifetimeIndexFile() != null || options.getLabelIndexFile() != null || options.getExportDirectory() != null || options.getResultStoreFile() != null)) {
+      throw new BatchRunnerException("Indexes, exports and result stores can only be written for one source directory at a time", null);
+    }
+    List<Root> roots = new ArrayList<>();
+    try {
+      for (var sourceDirectory : sourceDirectories) {
+        roots.add(new Root(sourceDirectory, options));
+      }
+      
+      try (ExecutorService executor = ReleaseLoader.createExecutor(options.getParallelism())) {
+        var scheduler = ReleaseScheduler.forHeap(executor);
+        for (var root : roots) {
+          root.submit(scheduler);
+        }
+        try {
+          for (var root : roots) {
+            root.writeResults();
+          }
+        } catch (ExecutionException e) {
+          scheduler.cancel();
+          executor.shutdownNow();
+          throw (Exception) e.getCause();
+        }
+      }
+      
+      for (var root : roots) {
+        root.writeIndexes(options);
+      }
+    } finally {
+      // the open zip file systems, also if a release has failed
+      closeArchives(roots);
+    }
+  }
+  
+  private static void closeArchives(List<Root> roots) throws IOException {
+    IOException failure = null;
+    for (var root : roots) {
+      try {
+        root.loader.getContext().getArchives().close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+  
+  private static void writeMetrics(FileWriter out, int year, ReleaseMetrics metrics) throws IOException {
+    for (var phase : metrics.getPhases()) {
+      out.write(String.format(Locale.ROOT, "%d, %s, %.3f, %d, %d, %d, %d, %d, %d, %d%n",
+              year, phase.phase(), phase.durationNanos() / 1e6, phase.rows(), phase.bytes(), phase.allocatedBytes(), phase.heapUsedBytes(), phase.peakHeapBytes(),
+              phase.anomalies(ReleaseMetrics.Anomaly.weirdMapping), phase.anomalies(ReleaseMetrics.Anomaly.mappedToUndefined)));
+    }
+  }
+  
+  /**
+   * The releases of one root directory.
+   */
+  private static class Root {
+    
+    private final ReleaseLoader loader;
+    private final File resultFile;
+    private final File metricsFile;
+    private final List<Future<Result>> results = new ArrayList<>();
+    private final SortedMap<Integer, IntObjectMap<int[]>> transitionsByYear = new ConcurrentSkipListMap<>();
+    private final boolean collectTransitions;
+    private final SortedMap<Integer, int[]> codesByVersion;
+    private final LabelSearchIndexWriter labelIndexWriter;
+    private final File exportDirectory;
+    private final ChangeSetWriter.Format exportFormat;
+    private final ResultStore resultStore;
+    
+    Root(File sourceDirectory, BatchOptions options) throws Exception {
+      loader = new ReleaseLoader(sourceDirectory, options);
+      
+      collectTransitions = options.getMappingIndexFile() != null;
+      codesByVersion = options.getLifetimeIndexFile() == null ? null : new ConcurrentSkipListMap<>();
+      labelIndexWriter = options.getLabelIndexFile() == null ? null : new LabelSearchIndexWriter();
+      exportDirectory = options.getExportDirectory();
+      exportFormat = options.getExportFormat();
+      resultStore = options.getResultStoreFile() == null ? null : ResultStore.open(options.getResultStoreFile().toPath());
+      
+      resultFile = new File(sourceDirectory, String.format("eval_%s.csv", sourceDirectory.getName()));
+      metricsFile = new File(sourceDirectory, String.format("metrics_%s.csv", sourceDirectory.getName()));
+    }
+    
+    /**
+     * Submits the releases in the order of the rows in the property file.
+     */
+    void submit(ReleaseScheduler scheduler) {
+      for (var row : loader.getRows()) {
+        results.add(scheduler.submit(estimateHeap(row), () -> analyse(row)));
+      }
+    }
     
-    File resultFile = new File(sourceDirectory, String.format("eval_%s.csv", sourceDirectory.getName()));
-    FileWriter out = new FileWriter(resultFile);
+    /**
+     * Waits for the releases and writes their results in the order they were submitted.
+     */
+    void writeResults() throws IOException, InterruptedException, ExecutionException {
+      try (FileWriter out = new FileWriter(resultFile);
+           FileWriter metricsOut = new FileWriter(metricsFile)) {
+        out.write("year, additions, deletions, replacements, splits, merges, label additions, label deletions, relabelings, minor relabelings, major relabelings, complex changes\n");
+        metricsOut.write("year, phase, duration ms, rows, bytes, allocated bytes, heap used bytes, peak heap bytes, weird mappings, mapped to undefined\n");
+        for (var future : results) {
+          Result result = future.get();
+          out.write(result.line());
+          writeMetrics(metricsOut, result.year(), result.metrics());
+        }
+      }
+    }
     
-    var terminologyName = sourceDirectory.getName().toUpperCase(Locale.ROOT);
+    void writeIndexes(BatchOptions options) throws IOException {
+      var labelArena = loader.getContext().getLabelArena();
+      System.out.printf("Kept %d distinct labels in %d bytes outside the heap%n", labelArena.size(), labelArena.getBytes());
+      
+      if (resultStore != null) {
+        resultStore.write();
+      }
+      
+      if (collectTransitions) {
+        var index = new CodeMappingIndex(loader.getContext().getCodes(), transitionsByYear);
+        index.write(options.getMappingIndexFile().toPath());
+        System.out.printf("Wrote mapping index of %d changed codes to version %d to %s%n", index.size(), index.getTargetYear(), options.getMappingIndexFile());
+      }
+      
+      if (codesByVersion != null) {
+        var index = new CodeLifetimeIndex(loader.getContext().getCodes(), codesByVersion);
+        index.write(options.getLifetimeIndexFile().toPath());
+        System.out.printf("Wrote lifetime index of %d codes in the versions %d to %d to %s%n", index.size(), index.getFirstYear(), index.getLastYear(), options.getLifetimeIndexFile());
+      }
+      
+      if (labelIndexWriter != null) {
+        int words = labelIndexWriter.write(options.getLabelIndexFile().toPath(), loader.getContext().getCodes());
+        System.out.printf("Wrote label search index of %d words to %s%n", words, options.getLabelIndexFile());
+      }
+    }
     
-    Class<AbstractTerminologyVersionTransitionAnalyser> analyserClass = (Class<AbstractTerminologyVersionTransitionAnalyser>) Class.forName(String.format("%s.%sVersionTransitionAnalyser", AnalysisBatchRunner.class.getPackageName(), terminologyName));
+    /**
+     * A release whose files cannot be found is estimated as small, the error is reported
+     * when it is analysed.
+     */
+    private long estimateHeap(Map<String, String> row) {
+      try {
+        return loader.estimateHeap(row);
+      } catch (VersionInfoFileNotFoundException | IOException | RuntimeException e) {
+        return 0;
+      }
+    }
     
-    var csvReader = new CSVReaderHeaderAware(new FileReader(new File(sourceDirectory, "properties.csv")));
-    int year = 2004;
-    out.write("year, additions, deletions, replacements, splits, merges, label additions, label deletions, relabelings\n");
+    /**
+     * Classifies the change sets and passes them to the indexes and the export in the same
+     * pass, so a release that has been split into runs builds each run once. The export
+     * phase thus includes the classification.
+     */
+    private ChangeSummary summarise(int year, AbstractTerminologyVersionTransitionAnalyser analyser) throws BatchRunnerException, IOException {
+      var transitions = collectTransitions ? new IntObjectMap<int[]>() : null;
+      var oldCodes = codesByVersion != null ? new CodeLifetimeIndex.Collector(CodeChanges::getOldCodeIds) : null;
+      var newCodes = codesByVersion != null ? new CodeLifetimeIndex.Collector(CodeChanges::getNewCodeIds) : null;
+      var phase = exportDirectory != null ? analyser.getMetrics().start("export") : null;
+      var writer = exportDirectory != null ? ChangeSetWriter.open(exportDirectory.toPath(), year, exportFormat, loader.getContext().getCodes(), analyser.getOldLabels(), analyser.getNewLabels()) : null;
+      ChangeSummary summary;
+      try (phase) {
+        try (writer) {
+          summary = analyser.getSummary(changes -> {
+            if (transitions != null) {
+              CodeMappingIndex.addTransitions(transitions, changes);
+            }
+            if (oldCodes != null) {
+              oldCodes.add(changes);
+              newCodes.add(changes);
+            }
+            if (writer != null) {
+              export(writer, changes);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        if (writer != null) {
+          phase.setRows(writer.getCount());
+          phase.addBytes(Files.size(writer.getFile()));
+        }
+      }
+      
+      if (transitions != null && transitionsByYear.putIfAbsent(year, transitions) != null) {
+        throw new BatchRunnerException(String.format("There is more than one release for %d. The releases cannot be composed into a mapping index.", year), null);
+      }
+      if (codesByVersion != null) {
+        codesByVersion.merge(year - 1, oldCodes.toArray(), CodeLifetimeIndex::union);
+        codesByVersion.merge(year, newCodes.toArray(), CodeLifetimeIndex::union);
+      }
+      return summary;
+    }
     
-    Map<String, String> row;
-    while ((row = csvReader.readMap()) != null) {
+    private static void export(ChangeSetWriter writer, CodeChanges changes) {
+      var lexicalChange = changes.getLexicalChange();
+      double labelSimilarity = lexicalChange == CodeChanges.LexicalChange.labelReplacement ? changes.getLabelSimilarity() : Double.NaN;
       try {
-        AbstractTerminologyVersionTransitionAnalyser analyser = analyserClass.getDeclaredConstructor(Properties.class).newInstance(buildProperties(row));
-        out.write(year++ + ", ");
-        out.write(analyser.getAdditions().size() + ", ");
-        out.write(analyser.getDeletions().size() + ", ");
-        out.write(analyser.getReplacements().size() + ", ");
-        out.write(analyser.getSplits().size() + ", ");
-        out.write(analyser.getMerges().size() + ", ");
-        out.write(analyser.getLabelAdditions().size() + ", ");
-        out.write(analyser.getLabelDeletions().size() + ", ");
-        out.write(analyser.getRelabelings().size() + "\n");
-      } catch (InvocationTargetException e) {
-        throw (Exception)e.getCause();
+        writer.write(changes, changes.getSemanticChange(), lexicalChange, labelSimilarity);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
     }
-    out.close();
-  }
-  
-  private Properties buildProperties(Map<String, String> row) throws IOException {
-    String path = row.get("path");
-    char separator = row.get("separator").charAt(0);
-    String encoding = row.get("encoding");
-    String columnsCsvRaw = row.get("columns"); // this is the value of a CSV cell, but it's CSV itself
     
-    List<String> columnList = Arrays.stream(new CSVParserBuilder().withSeparator(separator).build().parseLine(columnsCsvRaw)).toList();
-    HashMap<Column, Integer> columns = new HashMap<>();
-    columns.put(Column.CODE_OLD, columnList.indexOf(Column.CODE_OLD.getCode()));
-    columns.put(Column.CODE_NEW, columnList.indexOf(Column.CODE_NEW.getCode()));
+    private Result analyse(Map<String, String> row) throws Exception {
+      int year = loader.getYear(row);
+      String parameters = null;
+      List<FileFingerprint> inputs = null;
+      if (resultStore != null) {
+        var metrics = new ReleaseMetrics(ReleaseArchives.describe(loader.getDirectory(row)));
+        ResultStore.Entry entry;
+        try (var phase = metrics.start("result lookup")) {
+          var files = loader.getFiles(row);
+          parameters = loader.getParameters(row);
+          inputs = List.of(FileFingerprint.of(files.fileOld()), FileFingerprint.of(files.fileNew()), FileFingerprint.of(files.fileTransitions()));
+          phase.addBytes(Files.size(files.fileOld()) + Files.size(files.fileNew()) + Files.size(files.fileTransitions()));
+          entry = resultStore.get(row.get("path"), parameters, inputs);
+        }
+        if (entry != null && isReusable(entry, year)) {
+          System.out.printf("Reusing the stored result of %s%n", row.get("path"));
+          return new Result(year, line(year, entry), metrics);
+        }
+      }
     
-    return new Properties(new File(sourceDirectory, path), separator, Charset.forName(encoding), columns);
+      AbstractTerminologyVersionTransitionAnalyser analyser = loader.createAnalyser(row);
+      ChangeSummary summary = summarise(year, analyser);
+      if (labelIndexWriter != null) {
+        labelIndexWriter.addVersion(year - 1, analyser.getOldLabels());
+        labelIndexWriter.addVersion(year, analyser.getNewLabels());
+      }
+      var entry = ResultStore.Entry.of(parameters, inputs, year, summary);
+      if (resultStore != null) {
+        resultStore.put(row.get("path"), entry);
+      }
+      return new Result(year, line(year, entry), analyser.getMetrics());
+    }
+    
+    /**
+     * A stored result only has counts, so the release has to be analysed again if its change
+     * sets or labels are needed for an index or an export that does not exist yet.
+     */
+    private boolean isReusable(ResultStore.Entry entry, int year) {
+      return entry.year() == year && !collectTransitions && codesByVersion == null && labelIndexWriter == null && (exportDirectory == null || Files.isRegularFile(ChangeSetWriter.getFile(exportDirectory.toPath(), year, exportFormat)));
+    }
+  }
+  
+  private static String line(int year, ResultStore.Entry entry) {
+    var line = new StringBuilder().append(year);
+    for (var type : COLUMNS) {
+      line.append(", ").append(entry.count(type));
+    }
+    return line.append('\n').toString();
   }
 }
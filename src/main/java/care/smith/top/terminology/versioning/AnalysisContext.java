@@ -0,0 +1,98 @@
+package care.smith.top.terminology.versioning;
+
+/**
+ * State that is shared by the analysers of all releases of one terminology in a batch.
+ * @author Ralph Schäfermeier
+ */
+public class AnalysisContext {
+  public static final double DEFAULT_MINOR_RELABELING_THRESHOLD = 0.8;
+  
+  private final CodeDictionary codes = new CodeDictionary();
+  private final LabelArena labelArena = new LabelArena();
+  private final ReleaseArchives archives = new ReleaseArchives();
+  private ReleaseSnapshotCache snapshotCache;
+  private LabelMapCache labelMapCache;
+  private TransitionEngine engine = TransitionEngine.legacy;
+  private double minorRelabelingThreshold = DEFAULT_MINOR_RELABELING_THRESHOLD;
+  private boolean pipelinedReading;
+  private long heapBudget;
+  
+  public CodeDictionary getCodes() {
+    return codes;
+  }
+  
+  /**
+   * @return the store of the label texts of all releases, which keeps each distinct text once
+   */
+  public LabelArena getLabelArena() {
+    return labelArena;
+  }
+  
+  /**
+   * @return the archives that the releases are read from, if their paths lead into any
+   */
+  public ReleaseArchives getArchives() {
+    return archives;
+  }
+  
+  /**
+   * @return the cache for parsed releases or null if releases are always parsed
+   */
+  public ReleaseSnapshotCache getSnapshotCache() {
+    return snapshotCache;
+  }
+  
+  public void setSnapshotCache(ReleaseSnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+  
+  /**
+   * @return the cache that shares label maps between releases or null if every release reads its own
+   */
+  public LabelMapCache getLabelMapCache() {
+    return labelMapCache;
+  }
+  
+  public void setLabelMapCache(LabelMapCache labelMapCache) {
+    this.labelMapCache = labelMapCache;
+  }
+  
+  public TransitionEngine getEngine() {
+    return engine;
+  }
+  
+  public void setEngine(TransitionEngine engine) {
+    this.engine = engine;
+  }
+  
+  public double getMinorRelabelingThreshold() {
+    return minorRelabelingThreshold;
+  }
+  
+  public void setMinorRelabelingThreshold(double minorRelabelingThreshold) {
+    this.minorRelabelingThreshold = minorRelabelingThreshold;
+  }
+  
+  /**
+   * @return whether the label files and the transition file of a release are read at the same time
+   */
+  public boolean isPipelinedReading() {
+    return pipelinedReading;
+  }
+  
+  public void setPipelinedReading(boolean pipelinedReading) {
+    this.pipelinedReading = pipelinedReading;
+  }
+  
+  /**
+   * @return the number of bytes the change sets of a release may take on the heap, 0 or
+   *         less if they are not limited
+   */
+  public long getHeapBudget() {
+    return heapBudget;
+  }
+  
+  public void setHeapBudget(long heapBudget) {
+    this.heapBudget = heapBudget;
+  }
+}
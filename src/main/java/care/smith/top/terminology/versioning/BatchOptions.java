@@ -0,0 +1,178 @@
+package care.smith.top.terminology.versioning;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.FileConverter;
+
+import java.io.File;
+
+/**
+ * Options of a batch run.
+ * @author Ralph Schäfermeier
+ */
+public class BatchOptions {
+  
+  @Parameter(
+          names = {"-p", "--parallelism"},
+          description = "The number of releases that are analysed concurrently. 0 or less analyses all releases at once, using one virtual thread per release.")
+  private int parallelism = 1;
+  
+  @Parameter(
+          names = {"--cache"},
+          description = "A directory for snapshots of the parsed releases. Releases whose input files have not changed since the last run are loaded from there instead of being parsed again.",
+          converter = FileConverter.class)
+  private File cacheDirectory;
+  
+  @Parameter(
+          names = {"--mapping-index"},
+          description = "A file to write a code mapping index to, which maps the codes of every version to the codes of the latest version.",
+          converter = FileConverter.class)
+  private File mappingIndexFile;
+  
+  @Parameter(
+          names = {"--lifetime-index"},
+          description = "A file to write a code lifetime index to, which tells in which years each code was valid and when it was introduced and retired.",
+          converter = FileConverter.class)
+  private File lifetimeIndexFile;
+  
+  @Parameter(
+          names = {"--label-index"},
+          description = "A file to write a label search index to, which finds the codes whose labels contain a word in any version.",
+          converter = FileConverter.class)
+  private File labelIndexFile;
+  
+  @Parameter(
+          names = {"--pipelined-read"},
+          description = "Reads the two label files and the transition file of a release at the same time, which shortens the analysis of a single release. The transition rows are parsed while the labels are still being read.")
+  private boolean pipelinedReading;
+  
+  @Parameter(
+          names = {"--heap-budget"},
+          description = "The heap (in MB) the change sets of a release may take. The transitions of a release that would need more are split into runs on disk, which are analysed one at a time. Results stay the same, the counts are added up.")
+  private long heapBudget;
+  
+  @Parameter(
+          names = {"--engine"},
+          description = "How change sets are built from the transition files: legacy processes the rows in file order, components builds the connected components of the old and new codes, which does not depend on the order of the rows and also classifies N:M mappings (as complex).")
+  private TransitionEngine engine = TransitionEngine.legacy;
+  
+  @Parameter(
+          names = {"--minor-relabeling-threshold"},
+          description = "The label similarity (0 to 1, based on the edit distance) from which on a relabeling counts as minor, e.g. a spelling correction.")
+  private double minorRelabelingThreshold = AnalysisContext.DEFAULT_MINOR_RELABELING_THRESHOLD;
+  
+  @Parameter(
+          names = {"--results"},
+          description = "A file to keep the results of the releases in. Releases whose properties row and input files have not changed since the last run are not analysed again.",
+          converter = FileConverter.class)
+  private File resultStoreFile;
+  
+  @Parameter(
+          names = {"--export"},
+          description = "A directory to export the classified change sets of every release to, with their codes and labels, one file per release.",
+          converter = FileConverter.class)
+  private File exportDirectory;
+  
+  @Parameter(
+          names = {"--export-format"},
+          description = "The format of the export: binary (compact, columnar, see ChangeSetReader) or csv.")
+  private ChangeSetWriter.Format exportFormat = ChangeSetWriter.Format.binary;
+  
+  public int getParallelism() {
+    return parallelism;
+  }
+  
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+  
+  public File getCacheDirectory() {
+    return cacheDirectory;
+  }
+  
+  public void setCacheDirectory(File cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+  
+  public File getMappingIndexFile() {
+    return mappingIndexFile;
+  }
+  
+  public void setMappingIndexFile(File mappingIndexFile) {
+    this.mappingIndexFile = mappingIndexFile;
+  }
+  
+  public boolean isPipelinedReading() {
+    return pipelinedReading;
+  }
+  
+  public void setPipelinedReading(boolean pipelinedReading) {
+    this.pipelinedReading = pipelinedReading;
+  }
+  
+  /**
+   * @return the heap budget per release in MB, 0 if there is none
+   */
+  public long getHeapBudget() {
+    return heapBudget;
+  }
+  
+  public void setHeapBudget(long heapBudget) {
+    this.heapBudget = heapBudget;
+  }
+  
+  public TransitionEngine getEngine() {
+    return engine;
+  }
+  
+  public void setEngine(TransitionEngine engine) {
+    this.engine = engine;
+  }
+  
+  public File getExportDirectory() {
+    return exportDirectory;
+  }
+  
+  public void setExportDirectory(File exportDirectory) {
+    this.exportDirectory = exportDirectory;
+  }
+  
+  public ChangeSetWriter.Format getExportFormat() {
+    return exportFormat;
+  }
+  
+  public void setExportFormat(ChangeSetWriter.Format exportFormat) {
+    this.exportFormat = exportFormat;
+  }
+  
+  public File getResultStoreFile() {
+    return resultStoreFile;
+  }
+  
+  public void setResultStoreFile(File resultStoreFile) {
+    this.resultStoreFile = resultStoreFile;
+  }
+  
+  public double getMinorRelabelingThreshold() {
+    return minorRelabelingThreshold;
+  }
+  
+  public void setMinorRelabelingThreshold(double minorRelabelingThreshold) {
+    this.minorRelabelingThreshold = minorRelabelingThreshold;
+  }
+  
+  public File getLifetimeIndexFile() {
+    return lifetimeIndexFile;
+  }
+  
+  public void setLifetimeIndexFile(File lifetimeIndexFile) {
+    this.lifetimeIndexFile = lifetimeIndexFile;
+  }
+  
+  public File getLabelIndexFile() {
+    return labelIndexFile;
+  }
+  
+  public void setLabelIndexFile(File labelIndexFile) {
+    this.labelIndexFile = labelIndexFile;
+  }
+}
@@ -0,0 +1,95 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntSet;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Selects change sets by their semantic and lexical change and by their codes, for
+ * {@link AbstractTerminologyVersionTransitionAnalyser#changes(ChangeFilter)}. Without any
+ * types or prefix, every change set matches.
+ *
+ * The cheap criteria are tested first: the code prefix, then the semantic change, then the
+ * lexical change, which compares the labels.
+ * @author Ralph Schäfermeier
+ */
+public class ChangeFilter implements Predicate<CodeChanges> {
+  
+  private final Set<CodeChanges.SemanticChange> semanticChanges = EnumSet.noneOf(CodeChanges.SemanticChange.class);
+  private final Set<CodeChanges.LexicalChange> lexicalChanges = EnumSet.noneOf(CodeChanges.LexicalChange.class);
+  private String codePrefix;
+  
+  public ChangeFilter() {
+  }
+  
+  public ChangeFilter(CodeChanges.SemanticChange... semanticChanges) {
+    this.semanticChanges.addAll(Set.of(semanticChanges));
+  }
+  
+  public ChangeFilter(CodeChanges.LexicalChange... lexicalChanges) {
+    this.lexicalChanges.addAll(Set.of(lexicalChanges));
+  }
+  
+  /**
+   * @param semanticChanges the semantic changes of which one has to match, none for any
+   */
+  public void setSemanticChanges(Collection<CodeChanges.SemanticChange> semanticChanges) {
+    this.semanticChanges.clear();
+    this.semanticChanges.addAll(semanticChanges);
+  }
+  
+  /**
+   * @param lexicalChanges the lexical changes of which one has to match, none for any
+   */
+  public void setLexicalChanges(Collection<CodeChanges.LexicalChange> lexicalChanges) {
+    this.lexicalChanges.clear();
+    this.lexicalChanges.addAll(lexicalChanges);
+  }
+  
+  /**
+   * @param codePrefix the prefix of which one of the old or new codes of a change set has to
+   *                   start with, e.g. 5-01 for the operations on the skull, or null for any
+   */
+  public void setCodePrefix(String codePrefix) {
+    this.codePrefix = codePrefix;
+  }
+  
+  public Set<CodeChanges.SemanticChange> getSemanticChanges() {
+    return semanticChanges;
+  }
+  
+  public Set<CodeChanges.LexicalChange> getLexicalChanges() {
+    return lexicalChanges;
+  }
+  
+  public String getCodePrefix() {
+    return codePrefix;
+  }
+  
+  @Override
+  public boolean test(CodeChanges changes) {
+    if (codePrefix != null && !hasCodePrefix(changes)) {
+      return false;
+    }
+    if (!semanticChanges.isEmpty() && !semanticChanges.contains(changes.getSemanticChange())) {
+      return false;
+    }
+    return lexicalChanges.isEmpty() || lexicalChanges.contains(changes.getLexicalChange());
+  }
+  
+  private boolean hasCodePrefix(CodeChanges changes) {
+    return hasCodePrefix(changes.getOldCodeIds(), changes.getDictionary()) || hasCodePrefix(changes.getNewCodeIds(), changes.getDictionary());
+  }
+  
+  private boolean hasCodePrefix(IntSet codes, CodeDictionary dictionary) {
+    for (int i = 0; i < codes.size(); i++) {
+      if (dictionary.getCode(codes.get(i)).startsWith(codePrefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,472 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.BatchRunnerException;
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import care.smith.top.terminology.versioning.util.IntSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Answers queries about the changes of a terminology over HTTP, so other services do not
+ * have to run a batch and parse its results.
+ *
+ * All releases are analysed once at startup and kept in memory, together with an index
+ * from every code to the changes it takes part in. Requests are only reads, so each one
+ * runs on its own virtual thread without any locking. All responses are JSON:
+ *
+ * <pre>
+ * GET /releases                     summaries of all releases
+ * GET /releases/{year}              summary of one release
+ * GET /releases/{year}/changes      changes of one release, filtered by the parameters
+ *                                   semantic, lexical, code (a prefix), offset and limit
+ * GET /codes/{code}?from=A&amp;to=B     what happened to a code in the releases after A up to B,
+ *                                   following it through splits and merges
+ * GET /labels?q=words               codes whose labels contained all the words, the last one
+ *                                   as a prefix, with the years, if there is a label index.
+ *                                   word=W and prefix=P look up a single word or prefix.
+ * GET /health
+ * </pre>
+ * @author Ralph Schäfermeier
+ */
+public class ChangeQueryServer {
+  
+  private static final int MAX_LIMIT = 10000;
+  
+  /**
+   * A change set that is not just an unchanged code, with its classification.
+   */
+  private record Change(int year, CodeChanges.SemanticChange semantic, CodeChanges.LexicalChange lexical, CodeChanges changes, String json) {}
+  
+  private record Release(int year, List<Change> changes, IntObjectMap<Change[]> changesByCode, String summaryJson) {}
+  
+  private static class BadRequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    private final int status;
+    
+    private BadRequestException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+  
+  private final TreeMap<Integer, Release> releases = new TreeMap<>();
+  private final CodeDictionary codes;
+  private final String releasesJson;
+  private final LabelSearchIndex labelIndex;
+  private HttpServer server;
+  
+  public ChangeQueryServer(File sourceDirectory, BatchOptions options) throws Exception {
+    if (options.getHeapBudget() > 0) {
+      throw new BatchRunnerException("The server keeps all change sets and cannot be started with a heap budget", null);
+    }
+    var loader = new ReleaseLoader(sourceDirectory, options);
+    codes = loader.getContext().getCodes();
+    
+    // the label index is built if it does not exist yet, otherwise the existing one is used
+    var labelIndexFile = options.getLabelIndexFile() == null ? null : options.getLabelIndexFile().toPath();
+    var labelIndexWriter = labelIndexFile != null && !Files.exists(labelIndexFile) ? new LabelSearchIndexWriter() : null;
+    
+    try (var executor = ReleaseLoader.createExecutor(options.getParallelism())) {
+      List<Future<Release>> results = new ArrayList<>();
+      for (var row : loader.getRows()) {
+        results.add(executor.submit(() -> load(loader, row, labelIndexWriter)));
+      }
+      try {
+        for (var result : results) {
+          Release release = result.get();
+          if (releases.putIfAbsent(release.year(), release) != null)
+            throw new BatchRunnerException(String.format("There is more than one release for %d", release.year()), null);
+        }
+      } catch (ExecutionException e) {
+        executor.shutdownNow();
+        throw (Exception) e.getCause();
+      }
+    }
+    
+    var json = new StringBuilder("[");
+    for (Release release : releases.values()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append(release.summaryJson());
+    }
+    releasesJson = json.append(']').toString();
+    
+    if (labelIndexWriter != null) {
+      labelIndexWriter.write(labelIndexFile, codes);
+    }
+    labelIndex = labelIndexFile == null ? null : LabelSearchIndex.open(labelIndexFile);
+  }
+  
+  private Release load(ReleaseLoader loader, Map<String, String> row, LabelSearchIndexWriter labelIndexWriter) throws Exception {
+    int year = loader.getYear(row);
+    var analyser = loader.createAnalyser(row);
+    var summary = analyser.getSummary();
+    if (labelIndexWriter != null) {
+      labelIndexWriter.addVersion(year - 1, analyser.getOldLabels());
+      labelIndexWriter.addVersion(year, analyser.getNewLabels());
+    }
+    
+    // the summary has classified every change set already, it is not done again here
+    var lexicalChanges = new IdentityHashMap<CodeChanges, CodeChanges.LexicalChange>();
+    for (var type : CodeChanges.LexicalChange.values()) {
+      for (CodeChanges changes : summary.get(type)) {
+        lexicalChanges.put(changes, type);
+      }
+    }
+    
+    var changes = new ArrayList<Change>();
+    var changesByCode = new IntObjectMap<Change[]>();
+    for (var type : CodeChanges.SemanticChange.values()) {
+      for (CodeChanges changeSet : summary.get(type)) {
+        var lexical = lexicalChanges.get(changeSet);
+        if (type == CodeChanges.SemanticChange.none && lexical == CodeChanges.LexicalChange.none) {
+          continue;
+        }
+        var change = new Change(year, type, lexical, changeSet, toJson(year, type, lexical, changeSet, summary.getLabelSimilarity(changeSet)));
+        changes.add(change);
+        changeSet.getOldCodeIds().forEach(code -> index(changesByCode, code, change));
+        changeSet.getNewCodeIds().forEach(code -> index(changesByCode, code, change));
+      }
+    }
+    
+    var json = new StringBuilder();
+    json.append("{\"year\":").append(year);
+    for (var type : CodeChanges.SemanticChange.values()) {
+      if (type != CodeChanges.SemanticChange.none) {
+        json.append(",\"").append(type).append("\":").append(summary.count(type));
+      }
+    }
+    for (var type : CodeChanges.LexicalChange.values()) {
+      if (type != CodeChanges.LexicalChange.none) {
+        json.append(",\"").append(type).append("\":").append(summary.count(type));
+      }
+    }
+    json.append(",\"minorRelabelings\":").append(summary.count(CodeChanges.RelabelingSeverity.minor));
+    json.append(",\"majorRelabelings\":").append(summary.count(CodeChanges.RelabelingSeverity.major));
+    json.append('}');
+    
+    return new Release(year, changes, changesByCode, json.toString());
+  }
+  
+  private static void index(IntObjectMap<Change[]> changesByCode, int code, Change change) {
+    Change[] existing = changesByCode.get(code);
+    if (existing == null) {
+      changesByCode.put(code, new Change[]{change});
+    } else if (existing[existing.length - 1] != change) {
+      Change[] grown = Arrays.copyOf(existing, existing.length + 1);
+      grown[existing.length] = change;
+      changesByCode.put(code, grown);
+    }
+  }
+  
+  /**
+   * Starts listening. Requests are served until {@link #stop()} is called.
+   * @return the address the server listens on
+   */
+  public InetSocketAddress start(String host, int port) throws IOException {
+    // The server writes headers and body separately. With Nagle's algorithm, the body of
+    // small responses waits for the client's delayed ACK, which adds ~40 ms per request.
+    // The property is read once, when the first server is created.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    server = HttpServer.create(new InetSocketAddress(host, port), 0);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/releases", exchange -> handle(exchange, this::releases));
+    server.createContext("/codes/", exchange -> handle(exchange, this::code));
+    server.createContext("/labels", exchange -> handle(exchange, this::labels));
+    server.createContext("/health", exchange -> handle(exchange, (path, parameters) -> "{\"status\":\"ok\",\"releases\":" + releases.size() + "}"));
+    server.start();
+    return server.getAddress();
+  }
+  
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+    }
+  }
+  
+  @FunctionalInterface
+  private interface Handler {
+    String handle(String[] path, Map<String, String> parameters);
+  }
+  
+  private void handle(HttpExchange exchange, Handler handler) throws IOException {
+    int status = 200;
+    String body;
+    try {
+      if (!exchange.getRequestMethod().equals("GET"))
+        throw new BadRequestException(405, "Only GET is supported");
+      String[] path = Arrays.stream(exchange.getRequestURI().getPath().split("/")).filter(segment -> !segment.isEmpty()).toArray(String[]::new);
+      body = handler.handle(path, parseQuery(exchange.getRequestURI().getRawQuery()));
+    } catch (BadRequestException e) {
+      status = e.status;
+      body = error(e.getMessage());
+    } catch (IllegalArgumentException e) {
+      status = 400;
+      body = error(e.getMessage());
+    } catch (RuntimeException e) {
+      status = 500;
+      body = error(e.toString());
+    }
+    
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+  
+  private String releases(String[] path, Map<String, String> parameters) {
+    if (path.length == 1) {
+      return releasesJson;
+    }
+    Release release = releases.get(Integer.parseInt(path[1]));
+    if (release == null)
+      throw new BadRequestException(404, "There is no release " + path[1]);
+    if (path.length == 2) {
+      return release.summaryJson();
+    }
+    if (path.length == 3 && path[2].equals("changes")) {
+      return changes(release, parameters);
+    }
+    throw new BadRequestException(404, "Unknown resource");
+  }
+  
+  private String changes(Release release, Map<String, String> parameters) {
+    var semantic = parameters.containsKey("semantic") ? CodeChanges.SemanticChange.valueOf(parameters.get("semantic")) : null;
+    var lexical = parameters.containsKey("lexical") ? CodeChanges.LexicalChange.valueOf(parameters.get("lexical")) : null;
+    String prefix = parameters.get("code");
+    int offset = getCount(parameters, "offset", 0);
+    int limit = Math.min(MAX_LIMIT, getCount(parameters, "limit", 100));
+    
+    var json = new StringBuilder(256 + Math.min(limit, 1000) * 128);
+    json.append("{\"year\":").append(release.year()).append(",\"changes\":[");
+    int total = 0;
+    for (Change change : release.changes()) {
+      if ((semantic != null && change.semantic() != semantic)
+              || (lexical != null && change.lexical() != lexical)
+              || (prefix != null && !hasCodeWithPrefix(change.changes(), prefix))) {
+        continue;
+      }
+      if (total >= offset && total - offset < limit) {
+        if (total > offset) {
+          json.append(',');
+        }
+        json.append(change.json());
+      }
+      total++;
+    }
+    return json.append("],\"total\":").append(total).append('}').toString();
+  }
+  
+  private boolean hasCodeWithPrefix(CodeChanges changes, String prefix) {
+    var oldCodes = changes.getOldCodeIds();
+    for (int i = 0; i < oldCodes.size(); i++) {
+      if (codes.getCode(oldCodes.get(i)).startsWith(prefix)) {
+        return true;
+      }
+    }
+    var newCodes = changes.getNewCodeIds();
+    for (int i = 0; i < newCodes.size(); i++) {
+      if (codes.getCode(newCodes.get(i)).startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private String labels(String[] path, Map<String, String> parameters) {
+    if (labelIndex == null)
+      throw new BadRequestException(404, "There is no label index, start the server with --label-index");
+    if (path.length != 1)
+      throw new BadRequestException(404, "Unknown resource");
+    List<LabelSearchIndex.Posting> postings;
+    if (parameters.containsKey("q"))
+      postings = labelIndex.search(parameters.get("q"));
+    else if (parameters.containsKey("word"))
+      postings = labelIndex.find(parameters.get("word"));
+    else if (parameters.containsKey("prefix"))
+      postings = labelIndex.findPrefix(parameters.get("prefix"));
+    else
+      throw new IllegalArgumentException("One of the parameters q, word or prefix is required");
+    int offset = getCount(parameters, "offset", 0);
+    int limit = Math.min(MAX_LIMIT, getCount(parameters, "limit", 100));
+    
+    var json = new StringBuilder(64 + Math.min(limit, postings.size()) * 48);
+    json.append("{\"codes\":[");
+    for (int i = offset; i < postings.size() && i - offset < limit; i++) {
+      var posting = postings.get(i);
+      json.append(i > offset ? "," : "").append("{\"code\":");
+      appendString(json, posting.code());
+      json.append(",\"from\":").append(posting.firstYear()).append(",\"to\":").append(posting.lastYear()).append('}');
+    }
+    return json.append("],\"total\":").append(postings.size()).append('}').toString();
+  }
+  
+  /**
+   * Follows a code through the releases after the from year up to the to year. Where it is
+   * split or merged, all the codes it turned into are followed.
+   */
+  private String code(String[] path, Map<String, String> parameters) {
+    if (path.length != 2)
+      throw new BadRequestException(404, "Unknown resource");
+    int code = codes.findId(path[1]);
+    if (code < 0 || releases.isEmpty())
+      throw new BadRequestException(404, "Unknown code " + path[1]);
+    int from = Integer.parseInt(parameters.getOrDefault("from", Integer.toString(releases.firstKey() - 1)));
+    int to = Integer.parseInt(parameters.getOrDefault("to", Integer.toString(releases.lastKey())));
+    
+    var json = new StringBuilder(512);
+    json.append("{\"code\":");
+    appendString(json, path[1]);
+    json.append(",\"from\":").append(from).append(",\"to\":").append(to).append(",\"changes\":[");
+    
+    var current = new IntSet();
+    current.add(code);
+    boolean first = true;
+    for (Release release : releases.subMap(from, false, to, true).values()) {
+      var next = new IntSet();
+      var reported = Collections.newSetFromMap(new IdentityHashMap<Change, Boolean>());
+      for (int i = 0; i < current.size(); i++) {
+        int currentCode = current.get(i);
+        boolean changed = false;
+        Change[] changes = release.changesByCode().get(currentCode);
+        if (changes != null) {
+          for (Change change : changes) {
+            var changeSet = change.changes();
+            boolean isOld = changeSet.getOldCodeIds().contains(currentCode);
+            if (!isOld && !changeSet.getOldCodeIds().isEmpty()) {
+              // the code is the target of this change, it is reported from its source
+              continue;
+            }
+            if (reported.add(change)) {
+              json.append(first ? "" : ",").append(change.json());
+              first = false;
+            }
+            if (isOld) {
+              changed = true;
+              changeSet.getNewCodeIds().forEach(next::add);
+            }
+          }
+        }
+        if (!changed) {
+          next.add(currentCode);
+        }
+      }
+      current = next;
+    }
+    
+    json.append("],\"codes\":[");
+    for (int i = 0; i < current.size(); i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      appendString(json, codes.getCode(current.get(i)));
+    }
+    return json.append("]}").toString();
+  }
+  
+  private String toJson(int year, CodeChanges.SemanticChange semantic, CodeChanges.LexicalChange lexical, CodeChanges changes, double labelSimilarity) {
+    var json = new StringBuilder(128);
+    json.append("{\"year\":").append(year)
+            .append(",\"semantic\":\"").append(semantic)
+            .append("\",\"lexical\":\"").append(lexical)
+            .append("\",\"oldCodes\":");
+    appendStrings(json, changes.getOldCodes());
+    json.append(",\"newCodes\":");
+    appendStrings(json, changes.getNewCodes());
+    json.append(",\"oldLabels\":");
+    appendStrings(json, changes.getOldLabels());
+    json.append(",\"newLabels\":");
+    appendStrings(json, changes.getNewLabels());
+    if (!Double.isNaN(labelSimilarity)) {
+      json.append(",\"labelSimilarity\":").append(String.format(Locale.ROOT, "%.3f", labelSimilarity));
+    }
+    return json.append('}').toString();
+  }
+  
+  private static void appendStrings(StringBuilder json, Collection<String> values) {
+    json.append('[');
+    boolean first = true;
+    for (String value : values) {
+      if (!first) {
+        json.append(',');
+      }
+      appendString(json, value);
+      first = false;
+    }
+    json.append(']');
+  }
+  
+  private static void appendString(StringBuilder json, String value) {
+    if (value == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"' -> json.append("\\\"");
+        case '\\' -> json.append("\\\\");
+        case '\n' -> json.append("\\n");
+        case '\r' -> json.append("\\r");
+        case '\t' -> json.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+        }
+      }
+    }
+    json.append('"');
+  }
+  
+  /**
+   * @return the value of a parameter such as an offset or a limit, which must not be negative
+   */
+  private static int getCount(Map<String, String> parameters, String name, int defaultValue) {
+    int value = Integer.parseInt(parameters.getOrDefault(name, Integer.toString(defaultValue)));
+    if (value < 0)
+      throw new IllegalArgumentException(String.format("The %s must not be negative", name));
+    return value;
+  }
+  
+  private static String error(String message) {
+    var json = new StringBuilder("{\"error\":");
+    appendString(json, message);
+    return json.append('}').toString();
+  }
+  
+  private static Map<String, String> parseQuery(String query) {
+    var parameters = new HashMap<String, String>();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String pair : query.split("&")) {
+      int separator = pair.indexOf('=');
+      String name = separator < 0 ? pair : pair.substring(0, separator);
+      String value = separator < 0 ? "" : pair.substring(separator + 1);
+      parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return parameters;
+  }
+}
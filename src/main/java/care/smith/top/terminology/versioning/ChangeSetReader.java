@@ -0,0 +1,103 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the change sets of a release from a file written in the binary format of
+ * {@link ChangeSetWriter}. Only one block is decoded at a time.
+ * @author Ralph Schäfermeier
+ */
+public class ChangeSetReader {
+  
+  public record ChangeSet(int year, CodeChanges.SemanticChange semanticChange, CodeChanges.LexicalChange lexicalChange, String code,
+                          List<String> oldCodes, List<String> newCodes, List<String> oldLabels, List<String> newLabels, double labelSimilarity) {}
+  
+  private static final CodeChanges.SemanticChange[] semanticChanges = CodeChanges.SemanticChange.values();
+  private static final CodeChanges.LexicalChange[] lexicalChanges = CodeChanges.LexicalChange.values();
+  
+  private ChangeSetReader() {
+  }
+  
+  /**
+   * Passes the change sets to the consumer in the order they have been written.
+   * @return the year of the release
+   */
+  public static int read(Path file, Consumer<ChangeSet> consumer) throws IOException {
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != ChangeSetWriter.MAGIC || in.readInt() != ChangeSetWriter.FORMAT_VERSION) {
+        throw new IOException(file + " is not a change set export or has been written by an incompatible version");
+      }
+      int year = in.readInt();
+      var codes = new ArrayList<String>();
+      var labels = new ArrayList<String>();
+      
+      int rows;
+      while ((rows = in.readInt()) > 0) {
+        for (int n = ChangeSetWriter.readVarint(in); n > 0; n--) {
+          codes.add(ReleaseSnapshotCache.readString(in));
+        }
+        for (int n = ChangeSetWriter.readVarint(in); n > 0; n--) {
+          labels.add(ReleaseSnapshotCache.readString(in));
+        }
+        
+        byte[] semantic = new byte[rows];
+        in.readFully(semantic);
+        byte[] lexical = new byte[rows];
+        in.readFully(lexical);
+        int[] reference = readVarints(in, rows);
+        List<List<String>> oldCodes = readLists(in, rows, codes);
+        List<List<String>> newCodes = readLists(in, rows, codes);
+        List<List<String>> oldLabels = readLists(in, oldCodes, labels);
+        List<List<String>> newLabels = readLists(in, newCodes, labels);
+        float[] labelSimilarities = new float[rows];
+        for (int i = 0; i < rows; i++) {
+          labelSimilarities[i] = in.readFloat();
+        }
+        
+        for (int i = 0; i < rows; i++) {
+          consumer.accept(new ChangeSet(year, semanticChanges[semantic[i]], lexicalChanges[lexical[i]], codes.get(reference[i]),
+                  oldCodes.get(i), newCodes.get(i), oldLabels.get(i), newLabels.get(i), labelSimilarities[i]));
+        }
+      }
+      return year;
+    }
+  }
+  
+  private static int[] readVarints(DataInputStream in, int count) throws IOException {
+    int[] values = new int[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = ChangeSetWriter.readVarint(in);
+    }
+    return values;
+  }
+  
+  private static List<List<String>> readLists(DataInputStream in, int rows, List<String> dictionary) throws IOException {
+    return readLists(in, readVarints(in, rows), dictionary);
+  }
+  
+  /**
+   * Reads the labels of the codes, one for each code.
+   */
+  private static List<List<String>> readLists(DataInputStream in, List<List<String>> codes, List<String> dictionary) throws IOException {
+    return readLists(in, codes.stream().mapToInt(List::size).toArray(), dictionary);
+  }
+  
+  private static List<List<String>> readLists(DataInputStream in, int[] counts, List<String> dictionary) throws IOException {
+    var lists = new ArrayList<List<String>>(counts.length);
+    for (int count : counts) {
+      var list = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        list.add(dictionary.get(ChangeSetWriter.readVarint(in)));
+      }
+      lists.add(list);
+    }
+    return lists;
+  }
+}
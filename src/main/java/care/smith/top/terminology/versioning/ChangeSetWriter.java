@@ -0,0 +1,328 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntSet;
+import com.opencsv.CSVWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Streams the classified change sets of one release to a file, with their codes and
+ * labels. Change sets are written as they come, so an export does not need more memory
+ * than the analysis itself.
+ *
+ * Each code is written with its label, in the same order, so the n-th old label is the
+ * label of the n-th old code. A label that several codes share is repeated.
+ *
+ * The file is written next to its final name and moved there when the writer is closed,
+ * so readers never see a partial export.
+ * @author Ralph Schäfermeier
+ */
+public abstract class ChangeSetWriter implements Closeable {
+  
+  public enum Format {
+    /**
+     * Blocks of change sets, stored column by column, with codes and labels replaced by
+     * ids of dictionaries that are written along with the blocks. See {@link ChangeSetReader}.
+     */
+    binary,
+    /**
+     * One row per change set. Several codes or labels in one cell are separated by '|',
+     * the labels in the order of their codes.
+     */
+    csv
+  }
+  
+  static final int MAGIC = 0x54564353; // "TVCS"
+  static final int FORMAT_VERSION = 4;
+  
+  private final Path file;
+  private final Path temporary;
+  private final int year;
+  private final LabelMap labelsOld;
+  private final LabelMap labelsNew;
+  private int count;
+  
+  private ChangeSetWriter(Path file, int year, LabelMap labelsOld, LabelMap labelsNew) throws IOException {
+    this.file = file;
+    this.temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    this.year = year;
+    this.labelsOld = labelsOld;
+    this.labelsNew = labelsNew;
+  }
+  
+  /**
+   * Opens the export file of a release in the directory, which is created if necessary.
+   * @param labelsOld the labels of the old version, from which the old labels are written
+   * @param labelsNew the labels of the new version, from which the new labels are written
+   */
+  public static ChangeSetWriter open(Path directory, int year, Format format, CodeDictionary codes, LabelMap labelsOld, LabelMap labelsNew) throws IOException {
+    Files.createDirectories(directory);
+    return switch (format) {
+      case binary -> new BinaryWriter(getFile(directory, year, format), year, codes, labelsOld, labelsNew);
+      case csv -> new CsvWriter(getFile(directory, year, format), year, labelsOld, labelsNew);
+    };
+  }
+  
+  /**
+   * @return the export file of a release in the directory
+   */
+  public static Path getFile(Path directory, int year, Format format) {
+    return directory.resolve(String.format("changes_%d.%s", year, format == Format.binary ? "tvcs" : "csv"));
+  }
+  
+  /**
+   * @param labelSimilarity the label similarity of a relabeling or NaN
+   */
+  public void write(CodeChanges changes, CodeChanges.SemanticChange semanticChange, CodeChanges.LexicalChange lexicalChange, double labelSimilarity) throws IOException {
+    append(changes, semanticChange, lexicalChange, labelSimilarity);
+    count++;
+  }
+  
+  protected abstract void append(CodeChanges changes, CodeChanges.SemanticChange semanticChange, CodeChanges.LexicalChange lexicalChange, double labelSimilarity) throws IOException;
+  
+  protected abstract void finish() throws IOException;
+  
+  protected Path getTemporaryFile() {
+    return temporary;
+  }
+  
+  protected int getYear() {
+    return year;
+  }
+  
+  protected LabelMap getLabelsOld() {
+    return labelsOld;
+  }
+  
+  protected LabelMap getLabelsNew() {
+    return labelsNew;
+  }
+  
+  public Path getFile() {
+    return file;
+  }
+  
+  /**
+   * @return the number of change sets written so far
+   */
+  public int getCount() {
+    return count;
+  }
+  
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  private static class CsvWriter extends ChangeSetWriter {
+    private final CSVWriter out;
+    
+    CsvWriter(Path file, int year, LabelMap labelsOld, LabelMap labelsNew) throws IOException {
+      super(file, year, labelsOld, labelsNew);
+      out = new CSVWriter(Files.newBufferedWriter(getTemporaryFile(), StandardCharsets.UTF_8));
+      out.writeNext(new String[] {"year", "semantic change", "lexical change", "code", "old codes", "new codes", "old labels", "new labels", "label similarity"});
+    }
+    
+    @Override
+    protected void append(CodeChanges changes, CodeChanges.SemanticChange semanticChange, CodeChanges.LexicalChange lexicalChange, double labelSimilarity) {
+      out.writeNext(new String[] {
+              Integer.toString(getYear()),
+              semanticChange.name(),
+              lexicalChange.name(),
+              changes.getCode(),
+              String.join("|", changes.getOldCodes()),
+              String.join("|", changes.getNewCodes()),
+              join(changes.getOldCodeIds(), getLabelsOld()),
+              join(changes.getNewCodeIds(), getLabelsNew()),
+              Double.isNaN(labelSimilarity) ? "" : String.format(Locale.ROOT, "%.3f", labelSimilarity)
+      });
+    }
+    
+    private static String join(IntSet codes, LabelMap labels) {
+      var joined = new StringBuilder();
+      for (int i = 0; i < codes.size(); i++) {
+        String label = labels.get(codes.get(i));
+        joined.append(i == 0 ? "" : "|").append(label == null ? "" : label);
+      }
+      return joined.toString();
+    }
+    
+    @Override
+    protected void finish() throws IOException {
+      out.close();
+    }
+  }
+  
+  /**
+   * Writes a header (magic, version, year) and then blocks of up to {@link #BLOCK_SIZE}
+   * change sets, terminated by an empty block. Each block starts with the codes and labels
+   * that are new to the dictionaries, followed by the columns semantic change, lexical
+   * change, reference code, old codes, new codes, old labels, new labels and label
+   * similarity (a float, NaN if the change set is no relabeling). Lists of codes are stored
+   * as a column of counts followed by a column of values. The labels have no counts, there
+   * is one for each code. All ints are varints.
+   */
+  private static class BinaryWriter extends ChangeSetWriter {
+    static final int BLOCK_SIZE = 4096;
+    
+    private final DataOutputStream out;
+    private final CodeDictionary codes;
+    
+    // the ids codes and labels have in this file
+    private int[] codeIds = new int[1024];
+    private int codeCount;
+    private final HashMap<String, Integer> labelIds = new HashMap<>();
+    
+    private final Column newCodes = new Column();
+    private final Column newLabels = new Column();
+    private int newCodeCount;
+    private int newLabelCount;
+    
+    private final Column semanticChanges = new Column();
+    private final Column lexicalChanges = new Column();
+    private final Column referenceCodes = new Column();
+    private final Column oldCodeCounts = new Column();
+    private final Column oldCodes = new Column();
+    private final Column newCodeCounts = new Column();
+    private final Column newCodeValues = new Column();
+    private final Column oldLabels = new Column();
+    private final Column newLabelValues = new Column();
+    private final Column labelSimilarities = new Column();
+    private int rows;
+    
+    BinaryWriter(Path file, int year, CodeDictionary codes, LabelMap labelsOld, LabelMap labelsNew) throws IOException {
+      super(file, year, labelsOld, labelsNew);
+      this.codes = codes;
+      Arrays.fill(codeIds, -1);
+      out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getTemporaryFile()), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(year);
+    }
+    
+    @Override
+    protected void append(CodeChanges changes, CodeChanges.SemanticChange semanticChange, CodeChanges.LexicalChange lexicalChange, double labelSimilarity) throws IOException {
+      semanticChanges.write(semanticChange.ordinal());
+      lexicalChanges.write(lexicalChange.ordinal());
+      referenceCodes.writeVarint(codeId(changes.getCodeId()));
+      writeCodes(changes.getOldCodeIds(), oldCodeCounts, oldCodes);
+      writeCodes(changes.getNewCodeIds(), newCodeCounts, newCodeValues);
+      writeLabels(changes.getOldCodeIds(), getLabelsOld(), oldLabels);
+      writeLabels(changes.getNewCodeIds(), getLabelsNew(), newLabelValues);
+      labelSimilarities.writeFloat((float) labelSimilarity);
+      if (++rows == BLOCK_SIZE) {
+        flushBlock();
+      }
+    }
+    
+    private void writeCodes(IntSet ids, Column counts, Column values) throws IOException {
+      counts.writeVarint(ids.size());
+      for (int i = 0; i < ids.size(); i++) {
+        values.writeVarint(codeId(ids.get(i)));
+      }
+    }
+    
+    private void writeLabels(IntSet codes, LabelMap labels, Column values) throws IOException {
+      for (int i = 0; i < codes.size(); i++) {
+        String label = labels.get(codes.get(i));
+        Integer id = labelIds.get(label);
+        if (id == null) {
+          id = labelIds.size();
+          labelIds.put(label, id);
+          ReleaseSnapshotCache.writeString(newLabels, label);
+          newLabelCount++;
+        }
+        values.writeVarint(id);
+      }
+    }
+    
+    private int codeId(int code) throws IOException {
+      if (code >= codeIds.length) {
+        int length = codeIds.length;
+        codeIds = Arrays.copyOf(codeIds, Math.max(code + 1, length * 2));
+        Arrays.fill(codeIds, length, codeIds.length, -1);
+      }
+      if (codeIds[code] < 0) {
+        codeIds[code] = codeCount++;
+        ReleaseSnapshotCache.writeString(newCodes, codes.getCode(code));
+        newCodeCount++;
+      }
+      return codeIds[code];
+    }
+    
+    private void flushBlock() throws IOException {
+      out.writeInt(rows);
+      writeVarint(out, newCodeCount);
+      newCodes.writeTo(out);
+      writeVarint(out, newLabelCount);
+      newLabels.writeTo(out);
+      for (Column column : new Column[] {semanticChanges, lexicalChanges, referenceCodes, oldCodeCounts, oldCodes, newCodeCounts, newCodeValues, oldLabels, newLabelValues, labelSimilarities}) {
+        column.writeTo(out);
+      }
+      newCodeCount = 0;
+      newLabelCount = 0;
+      rows = 0;
+    }
+    
+    @Override
+    protected void finish() throws IOException {
+      try (out) {
+        if (rows > 0) {
+          flushBlock();
+        }
+        out.writeInt(0);
+      }
+    }
+  }
+  
+  static void writeVarint(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+  
+  static int readVarint(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+  
+  /**
+   * A growable byte buffer for one column of a block, which is emptied when it is written.
+   */
+  private static class Column extends DataOutputStream {
+    Column() {
+      super(new ByteArrayOutputStream(1024));
+    }
+    
+    void writeVarint(int value) throws IOException {
+      ChangeSetWriter.writeVarint(this, value);
+    }
+    
+    void writeTo(OutputStream target) throws IOException {
+      var buffer = (ByteArrayOutputStream) out;
+      buffer.writeTo(target);
+      buffer.reset();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package care.smith.top.terminology.versioning;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * The classified change sets of one release.
+ *
+ * Every change set is classified exactly once, semantically and lexically, and sorted
+ * into one bucket per change type. Change sets do not depend on each other, so large
+ * releases are classified in parallel. The buckets keep the order of the change sets
+ * regardless.
+ *
+ * Relabelings are also scored by {@link CodeChanges#getLabelSimilarity()} and split into
+ * minor ones, whose similarity reaches the threshold, and major ones.
+ *
+ * The summaries of parts of a release can be added up with {@link #sum(List)}, which only
+ * keeps the counts.
+ * @author Ralph Schäfermeier
+ */
+public class ChangeSummary {
+  private static final int PARALLEL_THRESHOLD = 10000;
+  
+  private final EnumMap<CodeChanges.SemanticChange, List<CodeChanges>> semanticChanges = new EnumMap<>(CodeChanges.SemanticChange.class);
+  private final EnumMap<CodeChanges.LexicalChange, List<CodeChanges>> lexicalChanges = new EnumMap<>(CodeChanges.LexicalChange.class);
+  private final EnumMap<CodeChanges.RelabelingSeverity, List<CodeChanges>> relabelings = new EnumMap<>(CodeChanges.RelabelingSeverity.class);
+  private final IdentityHashMap<CodeChanges, Double> labelSimilarities = new IdentityHashMap<>();
+  private final int[] semanticCounts = new int[CodeChanges.SemanticChange.values().length];
+  private final int[] lexicalCounts = new int[CodeChanges.LexicalChange.values().length];
+  private final int[] relabelingCounts = new int[CodeChanges.RelabelingSeverity.values().length];
+  private boolean hasChangeSets = true;
+  private int size;
+  private int mappedToUndefined;
+  
+  private ChangeSummary() {
+    for (var type : CodeChanges.SemanticChange.values()) {
+      semanticChanges.put(type, new ArrayList<>());
+    }
+    for (var type : CodeChanges.LexicalChange.values()) {
+      lexicalChanges.put(type, new ArrayList<>());
+    }
+    for (var severity : CodeChanges.RelabelingSeverity.values()) {
+      relabelings.put(severity, new ArrayList<>());
+    }
+  }
+  
+  public static ChangeSummary of(Iterable<CodeChanges> changeSets) {
+    return of(changeSets, AnalysisContext.DEFAULT_MINOR_RELABELING_THRESHOLD);
+  }
+  
+  /**
+   * @param minorRelabelingThreshold the label similarity from which on a relabeling is minor
+   */
+  public static ChangeSummary of(Iterable<CodeChanges> changeSets, double minorRelabelingThreshold) {
+    var list = new ArrayList<CodeChanges>();
+    changeSets.forEach(list::add);
+    var semantic = new CodeChanges.SemanticChange[list.size()];
+    var lexical = new CodeChanges.LexicalChange[list.size()];
+    var similarity = new double[list.size()];
+    IntStream indexes = IntStream.range(0, list.size());
+    if (list.size() >= PARALLEL_THRESHOLD) {
+      indexes = indexes.parallel();
+    }
+    indexes.forEach(i -> {
+      semantic[i] = list.get(i).getSemanticChange();
+      lexical[i] = list.get(i).getLexicalChange();
+      if (lexical[i] == CodeChanges.LexicalChange.labelReplacement) {
+        similarity[i] = list.get(i).getLabelSimilarity();
+      }
+    });
+    
+    var summary = new ChangeSummary();
+    for (int i = 0; i < list.size(); i++) {
+      var changes = list.get(i);
+      summary.semanticChanges.get(semantic[i]).add(changes);
+      summary.semanticCounts[semantic[i].ordinal()]++;
+      summary.lexicalChanges.get(lexical[i]).add(changes);
+      summary.lexicalCounts[lexical[i].ordinal()]++;
+      if (lexical[i] == CodeChanges.LexicalChange.labelReplacement) {
+        var severity = similarity[i] >= minorRelabelingThreshold ? CodeChanges.RelabelingSeverity.minor : CodeChanges.RelabelingSeverity.major;
+        summary.relabelings.get(severity).add(changes);
+        summary.relabelingCounts[severity.ordinal()]++;
+        summary.labelSimilarities.put(changes, similarity[i]);
+      }
+      if (semantic[i] == CodeChanges.SemanticChange.none && !changes.getOldCodeIds().equals(changes.getNewCodeIds())) {
+        // an error in the source, which getSemanticChange() has already reported
+        summary.mappedToUndefined++;
+      }
+    }
+    summary.size = list.size();
+    return summary;
+  }
+  
+  /**
+   * Adds up the summaries of disjoint parts of a release, e.g. of the runs of a release
+   * that has been analysed within a heap budget. The result only has the counts.
+   */
+  public static ChangeSummary sum(List<ChangeSummary> parts) {
+    var summary = new ChangeSummary();
+    summary.hasChangeSets = false;
+    for (ChangeSummary part : parts) {
+      add(summary.semanticCounts, part.semanticCounts);
+      add(summary.lexicalCounts, part.lexicalCounts);
+      add(summary.relabelingCounts, part.relabelingCounts);
+      summary.size += part.size;
+      summary.mappedToUndefined += part.mappedToUndefined;
+    }
+    return summary;
+  }
+  
+  private static void add(int[] counts, int[] other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other[i];
+    }
+  }
+  
+  /**
+   * @return whether this summary keeps the change sets or only counts them, see {@link #sum(List)}
+   */
+  public boolean hasChangeSets() {
+    return hasChangeSets;
+  }
+  
+  public List<CodeChanges> get(CodeChanges.SemanticChange type) {
+    return Collections.unmodifiableList(changeSets(semanticChanges).get(type));
+  }
+  
+  public List<CodeChanges> get(CodeChanges.LexicalChange type) {
+    return Collections.unmodifiableList(changeSets(lexicalChanges).get(type));
+  }
+  
+  public List<CodeChanges> get(CodeChanges.RelabelingSeverity severity) {
+    return Collections.unmodifiableList(changeSets(relabelings).get(severity));
+  }
+  
+  private <K extends Enum<K>> EnumMap<K, List<CodeChanges>> changeSets(EnumMap<K, List<CodeChanges>> buckets) {
+    if (!hasChangeSets) {
+      throw new IllegalStateException("This summary only has the counts of the change sets");
+    }
+    return buckets;
+  }
+  
+  /**
+   * @return the label similarity of a relabeling of this summary or NaN for other change sets
+   */
+  public double getLabelSimilarity(CodeChanges changes) {
+    return labelSimilarities.getOrDefault(changes, Double.NaN);
+  }
+  
+  public int count(CodeChanges.SemanticChange type) {
+    return semanticCounts[type.ordinal()];
+  }
+  
+  public int count(CodeChanges.LexicalChange type) {
+    return lexicalCounts[type.ordinal()];
+  }
+  
+  public int count(CodeChanges.RelabelingSeverity severity) {
+    return relabelingCounts[severity.ordinal()];
+  }
+  
+  /**
+   * @return the number of classified change sets
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * @return the number of change sets whose codes have been mapped to other codes and to undefined at the same time
+   */
+  public int countMappedToUndefined() {
+    return mappedToUndefined;
+  }
+}
@@ -1,8 +1,9 @@
 package care.smith.top.terminology.versioning;
 
-import org.apache.commons.collections4.SetUtils;
+import care.smith.top.terminology.versioning.util.EditDistance;
+import care.smith.top.terminology.versioning.util.IntSet;
 
-import java.util.HashSet;
+import java.util.*;
 
 /**
  * Represents a set of atomic code changes from the perspective of a single code in a new
@@ -16,14 +17,18 @@ import java.util.HashSet;
  * If this code appears in the old version and not in the new version, then the final
  * change type is Deletion.
  *
+ * Codes are kept as ids of the terminology's {@link CodeDictionary}. Labels are kept in
+ * small lists without duplicates, as there is hardly ever more than one per side.
+ *
  * @author Ralph Schäfermeier
  */
 public class CodeChanges {
-  private String code;
-  private HashSet<String> labelsOld = new HashSet<>();
-  private HashSet<String> labelsNew = new HashSet<>();
-  private HashSet<String> mappingsOld = new HashSet<>();
-  private HashSet<String> mappingsNew = new HashSet<>();
+  private final CodeDictionary dictionary;
+  private int code;
+  private final ArrayList<String> labelsOld = new ArrayList<>(1);
+  private final ArrayList<String> labelsNew = new ArrayList<>(1);
+  private final IntSet mappingsOld = new IntSet();
+  private final IntSet mappingsNew = new IntSet();
   
   public enum LexicalChange {
     labelAddition,
@@ -32,23 +37,37 @@ public class CodeChanges {
     none
   }
   
+  /**
+   * How much a relabeling changes the labels, see {@link #getLabelSimilarity()}. Minor
+   * relabelings are typically corrections of spelling or punctuation.
+   */
+  public enum RelabelingSeverity {
+    minor,
+    major
+  }
+  
+  /**
+   * New constants go at the end, as exports store the ordinals.
+   */
   public enum SemanticChange {
     addition,
     deletion,
     replacement,
     split,
     merge,
-    none
+    none,
+    complex
   }
   
-  public CodeChanges(String code) {
+  public CodeChanges(CodeDictionary dictionary, int code) {
+    this.dictionary = dictionary;
     this.code = code;
   }
   
   public SemanticChange getSemanticChange() {
     if (mappingsNew.equals(mappingsOld)) {
       if (mappingsNew.size() != 1)
-        throw new RuntimeException("Number of mappings expected to be 1 but was " + mappingsNew.size() + ": " + code);
+        throw new RuntimeException("Number of mappings expected to be 1 but was " + mappingsNew.size() + ": " + getCode());
       return SemanticChange.none;
     }
     
@@ -56,13 +75,13 @@ public class CodeChanges {
       if (mappingsOld.contains(code)) {
         return SemanticChange.deletion;
       }
-      throw new RuntimeException("Change set must contain this code but does not. " + code);
+      throw new RuntimeException("Change set must contain this code but does not. " + getCode());
     }
     if (mappingsOld.size() == 0 && mappingsNew.size() == 1) {
       if (mappingsNew.contains(code)) {
         return SemanticChange.addition;
       }
-      throw new RuntimeException("Change set must contain this code but does not. " + code);
+      throw new RuntimeException("Change set must contain this code but does not. " + getCode());
     }
     
     if (mappingsOld.size() == 1 && mappingsNew.size() == 1) {
@@ -79,65 +98,144 @@ public class CodeChanges {
       return SemanticChange.merge;
     }
     
-    System.err.println(String.format("%s has been mapped to %s but also to undefined. This is an error in the source and will be ignored.%n", mappingsOld, mappingsNew));
+    if (mappingsOld.size() > 1 && mappingsNew.size() > 1) {
+      return SemanticChange.complex;
+    }
+    
+    System.err.println(String.format("%s has been mapped to %s but also to undefined. This is an error in the source and will be ignored.%n", getOldCodes(), getNewCodes()));
     return SemanticChange.none;
   }
   
   public boolean containsOldCode(String code) {
-    return mappingsOld.contains(code);
+    return mappingsOld.contains(dictionary.findId(code));
   }
   
   public boolean containsNewCode(String code) {
-    return mappingsNew.contains(code);
+    return mappingsNew.contains(dictionary.findId(code));
   }
   
   public LexicalChange getLexicalChange() {
-    if (labelsNew.equals(labelsOld)) {
+    boolean labelsAdded = !labelsOld.containsAll(labelsNew);
+    boolean labelsDeleted = !labelsNew.containsAll(labelsOld);
+    
+    if (!labelsAdded && !labelsDeleted) {
       return LexicalChange.none;
     }
-    
-    var addedLabels = SetUtils.difference(labelsNew, labelsOld);
-    var deletedLabels = SetUtils.difference(labelsOld, labelsNew);
-    
-    if (addedLabels.isEmpty() && !deletedLabels.isEmpty()) {
+    if (!labelsAdded) {
       return LexicalChange.labelDeletion;
     }
-    if (!addedLabels.isEmpty() && deletedLabels.isEmpty()) {
+    if (!labelsDeleted) {
       return LexicalChange.labelAddition;
     }
     
     return LexicalChange.labelReplacement;
   }
   
+  /**
+   * Compares the labels that have been added with the ones that have been removed. Each
+   * added label is compared with the most similar removed one, both as it is and with its
+   * words sorted, so reordered words do not count as a change. Case and whitespace are
+   * ignored.
+   * @return the mean similarity of the added labels, from 0 (nothing in common) to 1 (no change)
+   */
+  public double getLabelSimilarity() {
+    var removed = labelsOld.stream().filter(label -> !labelsNew.contains(label)).map(CodeChanges::normalise).toList();
+    var added = labelsNew.stream().filter(label -> !labelsOld.contains(label)).map(CodeChanges::normalise).toList();
+    if (removed.isEmpty() || added.isEmpty()) {
+      return removed.isEmpty() && added.isEmpty() ? 1 : 0;
+    }
+    
+    double total = 0;
+    for (String label : added) {
+      String sorted = sortWords(label);
+      double best = 0;
+      for (String other : removed) {
+        best = Math.max(best, Math.max(EditDistance.similarity(label, other), EditDistance.similarity(sorted, sortWords(other))));
+      }
+      total += best;
+    }
+    return total / added.size();
+  }
+  
+  private static String normalise(String label) {
+    return label == null ? "" : label.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+  
+  private static String sortWords(String label) {
+    String[] words = label.split(" ");
+    Arrays.sort(words);
+    return String.join(" ", words);
+  }
+  
   public String getCode() {
+    return dictionary.getCode(code);
+  }
+  
+  public int getCodeId() {
     return code;
   }
   
-  public void setCode(String code) {
+  public void setCode(int code) {
     this.code = code;
   }
   
-  public void addOldCode(String codeOld) {
+  public void addOldCode(int codeOld) {
     mappingsOld.add(codeOld);
   }
   
-  public void addNewCode(String codeNew) {
+  public void addNewCode(int codeNew) {
     mappingsNew.add(codeNew);
   }
   
   public void addOldLabel(String labelOld) {
-    labelsOld.add(labelOld);
+    if (!labelsOld.contains(labelOld)) {
+      labelsOld.add(labelOld);
+    }
   }
   
   public void addNewLabel(String labelNew) {
-    labelsNew.add(labelNew);
+    if (!labelsNew.contains(labelNew)) {
+      labelsNew.add(labelNew);
+    }
+  }
+  
+  public List<String> getOldLabels() {
+    return Collections.unmodifiableList(labelsOld);
+  }
+  
+  public List<String> getNewLabels() {
+    return Collections.unmodifiableList(labelsNew);
   }
   
-  public HashSet<String> getOldCodes() {
+  /**
+   * @return the ids of the old codes, not to be modified
+   */
+  public IntSet getOldCodeIds() {
     return mappingsOld;
   }
   
-  public HashSet<String> getNewCodes() {
+  /**
+   * @return the ids of the new codes, not to be modified
+   */
+  public IntSet getNewCodeIds() {
     return mappingsNew;
   }
+  
+  public Set<String> getOldCodes() {
+    return decode(mappingsOld);
+  }
+  
+  public Set<String> getNewCodes() {
+    return decode(mappingsNew);
+  }
+  
+  public CodeDictionary getDictionary() {
+    return dictionary;
+  }
+  
+  private Set<String> decode(IntSet ids) {
+    var codes = new LinkedHashSet<String>(ids.size() * 2);
+    ids.forEach(id -> codes.add(dictionary.getCode(id)));
+    return codes;
+  }
 }
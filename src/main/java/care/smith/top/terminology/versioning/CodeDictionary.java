@@ -0,0 +1,56 @@
+package care.smith.top.terminology.versioning;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each code of a terminology a dense int id, so change sets and indexes can work
+ * on ints instead of keeping their own copies of the code strings.
+ *
+ * One dictionary is shared by all releases of a terminology in a batch, so a code has
+ * the same id in every release. It is safe to use from several threads.
+ * @author Ralph Schäfermeier
+ */
+public class CodeDictionary {
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] codes = new String[1024];
+  private int size;
+  
+  /**
+   * @return the id of the code, which is assigned if the code has not been seen before
+   */
+  public int getId(String code) {
+    Integer id = ids.get(code);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(code);
+      if (id != null) {
+        return id;
+      }
+      if (size == codes.length) {
+        codes = Arrays.copyOf(codes, size * 2);
+      }
+      codes[size] = code;
+      ids.put(code, size);
+      return size++;
+    }
+  }
+  
+  /**
+   * @return the id of the code or -1 if it has not been seen before
+   */
+  public int findId(String code) {
+    Integer id = ids.get(code);
+    return id == null ? -1 : id;
+  }
+  
+  public String getCode(int id) {
+    return codes[id];
+  }
+  
+  public int size() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,382 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Tells in which years a code of a terminology was valid, i.e. part of the version of that
+ * year, and when it was introduced and retired.
+ *
+ * The index is built from the old and new codes of all releases of a batch. For every code
+ * it keeps the intervals of years in which it was valid, so interruptions and
+ * re-introductions are kept as well. A code that is valid in consecutive versions of the
+ * batch is valid in the years between them too, and a code that is missing from a version
+ * was retired in the year of that version. Years before the first and after the last
+ * version of the batch are not known, no code is valid in them.
+ *
+ * The intervals of all codes are kept in flat arrays, so a query is a hash lookup of
+ * the code and a binary search over its intervals.
+ * @author Ralph Schäfermeier
+ */
+public class CodeLifetimeIndex {
+  
+  private static final int MAGIC = 0x54564C54; // "TVLT"
+  private static final int FORMAT_VERSION = 1;
+  
+  /**
+   * The years from the introduction of a code to the last year it was valid, inclusive.
+   */
+  public record Interval(int firstYear, int lastYear) {}
+  
+  private final CodeDictionary codes;
+  private final int firstYear;
+  private final int lastYear;
+  // the intervals of code id i are the ones from starts[i] to starts[i + 1] (exclusive)
+  private final int[] starts;
+  private final int[] firstYears;
+  private final int[] lastYears;
+  
+  private CodeLifetimeIndex(CodeDictionary codes, int firstYear, int lastYear, int[] starts, int[] firstYears, int[] lastYears) {
+    this.codes = codes;
+    this.firstYear = firstYear;
+    this.lastYear = lastYear;
+    this.starts = starts;
+    this.firstYears = firstYears;
+    this.lastYears = lastYears;
+  }
+  
+  /**
+   * @param codesByVersion the sorted ids of the codes of each version, keyed by its year,
+   *                       see {@link #getOldCodes(Iterable)} and {@link #getNewCodes(Iterable)}
+   */
+  public CodeLifetimeIndex(CodeDictionary codes, SortedMap<Integer, int[]> codesByVersion) {
+    this.codes = codes;
+    int[] years = codesByVersion.keySet().stream().mapToInt(Integer::intValue).toArray();
+    int[][] versions = codesByVersion.values().toArray(int[][]::new);
+    firstYear = years.length == 0 ? 0 : years[0];
+    lastYear = years.length == 0 ? -1 : years[years.length - 1];
+    
+    // the index of the last version each code has been seen in, so a code that is in the
+    // previous version continues its interval, any other one starts a new one
+    int[] lastSeen = new int[codes.size()];
+    Arrays.fill(lastSeen, -2);
+    starts = new int[codes.size() + 1];
+    for (int v = 0; v < versions.length; v++) {
+      for (int code : versions[v]) {
+        if (lastSeen[code] != v - 1) {
+          starts[code + 1]++;
+        }
+        lastSeen[code] = v;
+      }
+    }
+    for (int code = 0; code < codes.size(); code++) {
+      starts[code + 1] += starts[code];
+    }
+    
+    firstYears = new int[starts[codes.size()]];
+    lastYears = new int[firstYears.length];
+    int[] next = Arrays.copyOf(starts, codes.size());
+    int[] lastVersions = new int[firstYears.length];
+    Arrays.fill(lastSeen, -2);
+    for (int v = 0; v < versions.length; v++) {
+      for (int code : versions[v]) {
+        if (lastSeen[code] != v - 1) {
+          firstYears[next[code]++] = years[v];
+        }
+        lastVersions[next[code] - 1] = v;
+        lastSeen[code] = v;
+      }
+    }
+    // an interval lasts until the year before the next version the code is missing from
+    for (int i = 0; i < lastVersions.length; i++) {
+      int v = lastVersions[i];
+      lastYears[i] = v == years.length - 1 ? lastYear : years[v + 1] - 1;
+    }
+  }
+  
+  /**
+   * @return the sorted ids of the codes of the old version of a release
+   */
+  public static int[] getOldCodes(Iterable<CodeChanges> changeSets) {
+    var collector = new Collector(CodeChanges::getOldCodeIds);
+    changeSets.forEach(collector::add);
+    return collector.toArray();
+  }
+  
+  /**
+   * @return the sorted ids of the codes of the new version of a release
+   */
+  public static int[] getNewCodes(Iterable<CodeChanges> changeSets) {
+    var collector = new Collector(CodeChanges::getNewCodeIds);
+    changeSets.forEach(collector::add);
+    return collector.toArray();
+  }
+  
+  /**
+   * Merges the codes of a version that two releases report, e.g. as the new version of
+   * one and the old version of the next one.
+   */
+  public static int[] union(int[] a, int[] b) {
+    int[] result = new int[a.length + b.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      int code = j == b.length || i < a.length && a[i] <= b[j] ? a[i] : b[j];
+      if (i < a.length && a[i] == code) {
+        i++;
+      }
+      if (j < b.length && b[j] == code) {
+        j++;
+      }
+      result[count++] = code;
+    }
+    return Arrays.copyOf(result, count);
+  }
+  
+  /**
+   * Collects the codes of one side of the change sets of a release, for releases whose
+   * change sets are passed on one at a time.
+   */
+  public static class Collector {
+    private final Function<CodeChanges, IntSet> side;
+    private int[] codes = new int[1024];
+    private int count;
+    
+    /**
+     * @param side the old or the new codes of a change set
+     */
+    public Collector(Function<CodeChanges, IntSet> side) {
+      this.side = side;
+    }
+    
+    public void add(CodeChanges changes) {
+      var ids = side.apply(changes);
+      for (int i = 0; i < ids.size(); i++) {
+        if (count == codes.length) {
+          codes = Arrays.copyOf(codes, count * 2);
+        }
+        codes[count++] = ids.get(i);
+      }
+    }
+    
+    /**
+     * @return the sorted ids of the codes
+     */
+    public int[] toArray() {
+      int[] result = Arrays.copyOf(codes, count);
+      Arrays.sort(result);
+      int distinct = 0;
+      for (int i = 0; i < result.length; i++) {
+        if (i == 0 || result[i] != result[i - 1]) {
+          result[distinct++] = result[i];
+        }
+      }
+      return Arrays.copyOf(result, distinct);
+    }
+  }
+  
+  public boolean isValid(int code, int year) {
+    int interval = find(code, year);
+    return interval >= 0 && lastYears[interval] >= year;
+  }
+  
+  public boolean isValid(String code, int year) {
+    return isValid(codes.findId(code), year);
+  }
+  
+  /**
+   * @return whether the code was valid in every year from the first to the last one
+   */
+  public boolean isValidThroughout(int code, int firstYear, int lastYear) {
+    int interval = find(code, firstYear);
+    return interval >= 0 && lastYears[interval] >= lastYear;
+  }
+  
+  public boolean isValidThroughout(String code, int firstYear, int lastYear) {
+    return isValidThroughout(codes.findId(code), firstYear, lastYear);
+  }
+  
+  /**
+   * @return whether the code was valid in at least one year from the first to the last one
+   */
+  public boolean isValidWithin(int code, int firstYear, int lastYear) {
+    int interval = find(code, lastYear);
+    return interval >= 0 && lastYears[interval] >= firstYear;
+  }
+  
+  public boolean isValidWithin(String code, int firstYear, int lastYear) {
+    return isValidWithin(codes.findId(code), firstYear, lastYear);
+  }
+  
+  /**
+   * Checks many codes of the same year at once.
+   */
+  public boolean[] isValidAll(int[] codes, int year) {
+    var result = new boolean[codes.length];
+    for (int i = 0; i < codes.length; i++) {
+      result[i] = isValid(codes[i], year);
+    }
+    return result;
+  }
+  
+  /**
+   * @return the intervals in which the code was valid, oldest first
+   */
+  public List<Interval> getIntervals(String code) {
+    int id = codes.findId(code);
+    if (id < 0 || id + 1 >= starts.length) {
+      return List.of();
+    }
+    var result = new ArrayList<Interval>(starts[id + 1] - starts[id]);
+    for (int i = starts[id]; i < starts[id + 1]; i++) {
+      result.add(new Interval(firstYears[i], lastYears[i]));
+    }
+    return result;
+  }
+  
+  /**
+   * @return the year the code was first valid in or -1 if it never was. If it was valid in
+   *         the first version of the batch already, this is the year of that version.
+   */
+  public int getIntroduced(String code) {
+    int id = codes.findId(code);
+    return id < 0 || id + 1 >= starts.length || starts[id] == starts[id + 1] ? -1 : firstYears[starts[id]];
+  }
+  
+  /**
+   * @return the year of the first version without the code after it was last valid or -1
+   *         if it is valid in the last version of the batch or never was
+   */
+  public int getRetired(String code) {
+    int id = codes.findId(code);
+    if (id < 0 || id + 1 >= starts.length || starts[id] == starts[id + 1]) {
+      return -1;
+    }
+    int last = lastYears[starts[id + 1] - 1];
+    return last == lastYear ? -1 : last + 1;
+  }
+  
+  public CodeDictionary getCodes() {
+    return codes;
+  }
+  
+  public int getFirstYear() {
+    return firstYear;
+  }
+  
+  public int getLastYear() {
+    return lastYear;
+  }
+  
+  /**
+   * @return the number of codes that have been valid in at least one version
+   */
+  public int size() {
+    int size = 0;
+    for (int code = 0; code + 1 < starts.length; code++) {
+      if (starts[code] < starts[code + 1]) {
+        size++;
+      }
+    }
+    return size;
+  }
+  
+  /**
+   * @return the index of the last interval of the code that starts in or before the year or -1
+   */
+  private int find(int code, int year) {
+    if (code < 0 || code + 1 >= starts.length) {
+      return -1;
+    }
+    int low = starts[code];
+    int high = starts[code + 1] - 1;
+    int result = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (firstYears[middle] <= year) {
+        result = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Writes the index to a file, replacing it atomically. Only the codes that have been
+   * valid at some point are written, each with its intervals as varint year deltas.
+   */
+  public void write(Path file) throws IOException {
+    Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(firstYear);
+        out.writeInt(lastYear);
+        out.writeInt(size());
+        for (int code = 0; code + 1 < starts.length; code++) {
+          if (starts[code] == starts[code + 1]) {
+            continue;
+          }
+          ReleaseSnapshotCache.writeString(out, codes.getCode(code));
+          ChangeSetWriter.writeVarint(out, starts[code + 1] - starts[code]);
+          int previous = firstYear;
+          for (int i = starts[code]; i < starts[code + 1]; i++) {
+            ChangeSetWriter.writeVarint(out, firstYears[i] - previous);
+            ChangeSetWriter.writeVarint(out, lastYears[i] - firstYears[i]);
+            previous = lastYears[i];
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  /**
+   * Loads an index written by {@link #write(Path)}. The index gets a dictionary of its own.
+   */
+  public static CodeLifetimeIndex read(Path file) throws IOException {
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException(file + " is not a code lifetime index or has been written by an incompatible version");
+      }
+      int firstYear = in.readInt();
+      int lastYear = in.readInt();
+      
+      // the codes get the ids 0 to n - 1 in the order they have been written
+      var codes = new CodeDictionary();
+      int size = in.readInt();
+      int[] starts = new int[size + 1];
+      int[] firstYears = new int[Math.max(16, size)];
+      int[] lastYears = new int[firstYears.length];
+      int count = 0;
+      for (int code = 0; code < size; code++) {
+        codes.getId(ReleaseSnapshotCache.readString(in));
+        int intervals = ChangeSetWriter.readVarint(in);
+        if (count + intervals > firstYears.length) {
+          firstYears = Arrays.copyOf(firstYears, Math.max(count + intervals, firstYears.length * 2));
+          lastYears = Arrays.copyOf(lastYears, firstYears.length);
+        }
+        int previous = firstYear;
+        for (int i = 0; i < intervals; i++) {
+          firstYears[count] = previous + ChangeSetWriter.readVarint(in);
+          lastYears[count] = firstYears[count] + ChangeSetWriter.readVarint(in);
+          previous = lastYears[count++];
+        }
+        starts[code + 1] = count;
+      }
+      return new CodeLifetimeIndex(codes, firstYear, lastYear, starts, Arrays.copyOf(firstYears, count), Arrays.copyOf(lastYears, count));
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import care.smith.top.terminology.versioning.util.IntSet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Maps a code of any version of a terminology to the code or codes that replace it in the
+ * latest version, following replacements, splits, merges and deletions through all
+ * intermediate releases.
+ *
+ * The transitions are composed once when the index is built: for every release in which a
+ * code changes, the index keeps the codes it ends up as in the latest version. A lookup
+ * only has to find the first release after the source year in which the code changed,
+ * which is a binary search over a handful of years.
+ *
+ * A code that does not change after the source year maps to itself, a code that is
+ * deleted maps to nothing. Codes the index has never seen map to nothing as well.
+ * @author Ralph Schäfermeier
+ */
+public class CodeMappingIndex {
+  
+  private static final int MAGIC = 0x54564D49; // "TVMI"
+  private static final int FORMAT_VERSION = 1;
+  private static final int[] NONE = new int[0];
+  
+  /**
+   * The composed mappings of one code: the years of the releases in which it changes in
+   * ascending order, and the codes in the latest version it ends up as for each of them.
+   */
+  private static class Entry {
+    private int[] years;
+    private int[][] targets;
+    
+    private Entry(int[] years, int[][] targets) {
+      this.years = years;
+      this.targets = targets;
+    }
+    
+    private void append(int year, int[] codes) {
+      int size = years.length;
+      years = Arrays.copyOf(years, size + 1);
+      targets = Arrays.copyOf(targets, size + 1);
+      years[size] = year;
+      targets[size] = codes;
+    }
+    
+    /**
+     * @return the targets of the first release after the year or null if there is none
+     */
+    private int[] after(int year) {
+      int index = Arrays.binarySearch(years, year + 1);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      return index < years.length ? targets[index] : null;
+    }
+  }
+  
+  private final CodeDictionary codes;
+  private final IntObjectMap<Entry> entries;
+  private final int targetYear;
+  
+  private CodeMappingIndex(CodeDictionary codes, IntObjectMap<Entry> entries, int targetYear) {
+    this.codes = codes;
+    this.entries = entries;
+    this.targetYear = targetYear;
+  }
+  
+  /**
+   * @param transitionsByYear the transitions of each release as returned by
+   *                          {@link #getTransitions(Iterable)}, keyed by the year of the new version
+   */
+  public CodeMappingIndex(CodeDictionary codes, SortedMap<Integer, IntObjectMap<int[]>> transitionsByYear) {
+    this.codes = codes;
+    this.entries = new IntObjectMap<>();
+    this.targetYear = transitionsByYear.isEmpty() ? 0 : transitionsByYear.lastKey();
+    
+    // Newest release first, so the codes a transition leads to are already resolved to
+    // the latest version. The composed targets of a release are only added once the
+    // whole release is done, as transitions within one release must not be chained.
+    var years = new ArrayList<>(transitionsByYear.keySet());
+    Collections.reverse(years);
+    for (int year : years) {
+      var composed = new IntObjectMap<int[]>();
+      transitionsByYear.get(year).forEach((code, newCodes) -> {
+        var targets = new IntSet();
+        for (int newCode : newCodes) {
+          var entry = entries.get(newCode);
+          if (entry == null) {
+            targets.add(newCode);
+          } else {
+            // built newest first, so the last one is the next change after this release
+            for (int target : entry.targets[entry.targets.length - 1]) {
+              targets.add(target);
+            }
+          }
+        }
+        composed.put(code, targets.isEmpty() ? NONE : targets.toArray());
+      });
+      composed.forEach((code, targets) -> {
+        var entry = entries.get(code);
+        if (entry == null) {
+          entries.put(code, new Entry(new int[]{year}, new int[][]{targets}));
+        } else {
+          entry.append(year, targets);
+        }
+      });
+    }
+    
+    entries.forEach((code, entry) -> {
+      reverse(entry.years);
+      Collections.reverse(Arrays.asList(entry.targets));
+    });
+  }
+  
+  /**
+   * Extracts the transitions of a release from its change sets: every old code that does
+   * not simply stay the same, with the codes it is mapped to in the new version. A deleted
+   * code is mapped to an empty array.
+   */
+  public static IntObjectMap<int[]> getTransitions(Iterable<CodeChanges> changeSets) {
+    var transitions = new IntObjectMap<int[]>();
+    for (CodeChanges changes : changeSets) {
+      addTransitions(transitions, changes);
+    }
+    return transitions;
+  }
+  
+  /**
+   * Adds the transitions of one change set, for releases whose change sets are passed on
+   * one at a time, see {@link #getTransitions(Iterable)}.
+   */
+  public static void addTransitions(IntObjectMap<int[]> transitions, CodeChanges changes) {
+    var oldCodes = changes.getOldCodeIds();
+    var newCodes = changes.getNewCodeIds();
+    if (oldCodes.size() == 1 && newCodes.size() == 1 && oldCodes.get(0) == newCodes.get(0)) {
+      return;
+    }
+    int[] targets = newCodes.toArray();
+    oldCodes.forEach(code -> transitions.put(code, targets));
+  }
+  
+  /**
+   * @param sourceYear the version the code was recorded in
+   * @return the ids of the codes in the latest version, not to be modified
+   */
+  public int[] map(int code, int sourceYear) {
+    if (code < 0) {
+      return NONE;
+    }
+    var entry = entries.get(code);
+    int[] targets = entry == null ? null : entry.after(sourceYear);
+    return targets == null ? new int[]{code} : targets;
+  }
+  
+  /**
+   * @param sourceYear the version the code was recorded in
+   * @return the codes in the latest version
+   */
+  public Set<String> map(String code, int sourceYear) {
+    int[] targets = map(codes.findId(code), sourceYear);
+    var result = new LinkedHashSet<String>(targets.length * 2);
+    for (int target : targets) {
+      result.add(codes.getCode(target));
+    }
+    return result;
+  }
+  
+  /**
+   * Maps many codes of the same version at once.
+   */
+  public int[][] mapAll(int[] codes, int sourceYear) {
+    var result = new int[codes.length][];
+    for (int i = 0; i < codes.length; i++) {
+      result[i] = map(codes[i], sourceYear);
+    }
+    return result;
+  }
+  
+  /**
+   * Maps many codes of the same version at once.
+   * @return the codes in the latest version in the order of the given codes
+   */
+  public List<Set<String>> mapAll(List<String> codes, int sourceYear) {
+    var result = new ArrayList<Set<String>>(codes.size());
+    for (String code : codes) {
+      result.add(map(code, sourceYear));
+    }
+    return result;
+  }
+  
+  public CodeDictionary getCodes() {
+    return codes;
+  }
+  
+  /**
+   * @return the year of the latest version, which all codes are mapped to
+   */
+  public int getTargetYear() {
+    return targetYear;
+  }
+  
+  /**
+   * @return the number of codes that change in at least one release
+   */
+  public int size() {
+    return entries.size();
+  }
+  
+  /**
+   * Writes the index to a file, replacing it atomically. The codes are written along with
+   * their ids, as the ids are only valid within the dictionary the index was built with.
+   */
+  public void write(Path file) throws IOException {
+    Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(targetYear);
+        
+        // all codes, not only the changed ones, so unchanged codes are still known after loading
+        out.writeInt(codes.size());
+        for (int id = 0; id < codes.size(); id++) {
+          ReleaseSnapshotCache.writeString(out, codes.getCode(id));
+        }
+        
+        out.writeInt(entries.size());
+        entries.forEach((code, entry) -> {
+          out.writeInt(code);
+          out.writeInt(entry.years.length);
+          for (int i = 0; i < entry.years.length; i++) {
+            out.writeInt(entry.years[i]);
+            out.writeInt(entry.targets[i].length);
+            for (int target : entry.targets[i]) {
+              out.writeInt(target);
+            }
+          }
+        });
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  /**
+   * Loads an index written by {@link #write(Path)}. The index gets a dictionary of its own.
+   */
+  public static CodeMappingIndex read(Path file) throws IOException {
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException(file + " is not a code mapping index or has been written by an incompatible version");
+      }
+      int targetYear = in.readInt();
+      
+      var codes = new CodeDictionary();
+      int[] ids = new int[in.readInt()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = codes.getId(ReleaseSnapshotCache.readString(in));
+      }
+      
+      int size = in.readInt();
+      var entries = new IntObjectMap<Entry>(size);
+      for (int n = size; n > 0; n--) {
+        int code = ids[in.readInt()];
+        int count = in.readInt();
+        var entry = new Entry(new int[count], new int[count][]);
+        for (int i = 0; i < count; i++) {
+          entry.years[i] = in.readInt();
+          int[] targets = new int[in.readInt()];
+          for (int j = 0; j < targets.length; j++) {
+            targets[j] = ids[in.readInt()];
+          }
+          Arrays.sort(targets);
+          entry.targets[i] = targets.length == 0 ? NONE : targets;
+        }
+        entries.put(code, entry);
+      }
+      return new CodeMappingIndex(codes, entries, targetYear);
+    }
+  }
+  
+  private static void reverse(int[] values) {
+    for (int i = 0, j = values.length - 1; i < j; i++, j--) {
+      int value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package care.smith.top.terminology.versioning;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rewrites the codes in a CSV extract to the codes of the latest version of the
+ * terminology, using a {@link CodeMappingIndex}.
+ *
+ * Every row is written unchanged, followed by two columns: the code or codes the code of
+ * the row maps to and the kind of migration. A code that has been split maps to several
+ * codes, which are separated by '|' and flagged as ambiguous.
+ *
+ * The extract is streamed: one thread reads the rows in batches, a pool of threads parses
+ * and migrates the batches, and the reading thread writes them back in their original
+ * order. Reading waits while too many batches are pending, so memory use does not depend
+ * on the size of the extract.
+ * @author Ralph Schäfermeier
+ */
+public class CodeMigrator {
+  
+  public enum Status {
+    unchanged,
+    migrated,
+    ambiguous,
+    deleted,
+    unknown
+  }
+  
+  private record Batch(String rows, long[] counts) {}
+  
+  private final MigrationOptions options;
+  private final CodeMappingIndex index;
+  private final CodeDictionary codes;
+  private final char separator;
+  private int codeColumn;
+  private int yearColumn = -1;
+  
+  public CodeMigrator(MigrationOptions options) throws Exception {
+    this.options = options;
+    this.separator = options.getSeparator();
+    if (options.getYearColumn() == null && options.getYear() == null)
+      throw new IllegalArgumentException("Either a year column or a year is required");
+    
+    File indexFile = options.getIndexFile();
+    if (!indexFile.exists()) {
+      if (options.getReleaseDirectory() == null)
+        throw new IllegalArgumentException("Code mapping index " + indexFile.getAbsolutePath() + " does not exist and there are no releases to build it from");
+      var batchOptions = new BatchOptions();
+      batchOptions.setParallelism(options.getThreads());
+      batchOptions.setMappingIndexFile(indexFile);
+      new AnalysisBatchRunner(options.getReleaseDirectory(), batchOptions);
+    }
+    this.index = CodeMappingIndex.read(indexFile.toPath());
+    this.codes = index.getCodes();
+  }
+  
+  public void run() throws Exception {
+    var encoding = Charset.forName(options.getEncoding());
+    long[] counts = new long[Status.values().length];
+    long start = System.nanoTime();
+    
+    try (var in = new BufferedReader(new InputStreamReader(Files.newInputStream(options.getInputFile().toPath()), encoding), 1 << 16);
+         var out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(options.getOutputFile().toPath()), encoding), 1 << 20);
+         ExecutorService executor = Executors.newFixedThreadPool(options.getThreads())) {
+      String header = readRecord(in);
+      if (header == null)
+        throw new IOException(options.getInputFile() + " is empty");
+      if (!header.isEmpty() && header.charAt(0) == '\uFEFF') {
+        header = header.substring(1);
+      }
+      resolveColumns(header);
+      out.write(header);
+      out.write(separator);
+      out.write("migrated_code");
+      out.write(separator);
+      out.write("migration_status\n");
+      
+      var pending = new ArrayDeque<Future<Batch>>();
+      try {
+        var records = new ArrayList<String>(options.getBatchSize());
+        String record;
+        while ((record = readRecord(in)) != null) {
+          records.add(record);
+          if (records.size() == options.getBatchSize()) {
+            submit(executor, records, pending, out, counts);
+            records = new ArrayList<>(options.getBatchSize());
+          }
+        }
+        if (!records.isEmpty()) {
+          submit(executor, records, pending, out, counts);
+        }
+        while (!pending.isEmpty()) {
+          write(pending.poll(), out, counts);
+        }
+      } catch (ExecutionException e) {
+        executor.shutdownNow();
+        throw (Exception) e.getCause();
+      }
+    }
+    
+    long rows = Arrays.stream(counts).sum();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Migrated %d rows in %.1f s (%.0f rows/s)%n", rows, seconds, rows / seconds);
+    for (Status status : Status.values()) {
+      System.out.printf("  %s: %d%n", status, counts[status.ordinal()]);
+    }
+  }
+  
+  /**
+   * Hands the batch to the pool. If too many batches are pending, the oldest one is
+   * written first, which blocks until it is done.
+   */
+  private void submit(ExecutorService executor, List<String> records, ArrayDeque<Future<Batch>> pending, Writer out, long[] counts) throws IOException, InterruptedException, ExecutionException {
+    while (pending.size() >= options.getMaxPendingBatches()) {
+      write(pending.poll(), out, counts);
+    }
+    pending.add(executor.submit(() -> migrate(records)));
+  }
+  
+  private void write(Future<Batch> result, Writer out, long[] counts) throws IOException, InterruptedException, ExecutionException {
+    Batch batch = result.get();
+    out.write(batch.rows());
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += batch.counts()[i];
+    }
+  }
+  
+  private Batch migrate(List<String> records) throws IOException {
+    CSVParser parser = new CSVParserBuilder().withSeparator(separator).build();
+    var rows = new StringBuilder(records.size() * 96);
+    long[] counts = new long[Status.values().length];
+    for (String record : records) {
+      String[] cells = parser.parseLine(record);
+      String code = cell(cells, codeColumn).trim();
+      int year = yearColumn < 0 ? options.getYear() : parseYear(cell(cells, yearColumn));
+      int id = codes.findId(code);
+      
+      Status status;
+      String migrated = "";
+      if (id < 0 || year < 0) {
+        status = Status.unknown;
+      } else {
+        int[] targets = index.map(id, year);
+        if (targets.length == 0) {
+          status = Status.deleted;
+        } else if (targets.length == 1) {
+          migrated = codes.getCode(targets[0]);
+          status = targets[0] == id ? Status.unchanged : Status.migrated;
+        } else {
+          var joined = new StringBuilder();
+          for (int target : targets) {
+            if (!joined.isEmpty()) {
+              joined.append('|');
+            }
+            joined.append(codes.getCode(target));
+          }
+          migrated = joined.toString();
+          status = Status.ambiguous;
+        }
+      }
+      
+      rows.append(record).append(separator).append(quote(migrated)).append(separator).append(status).append('\n');
+      counts[status.ordinal()]++;
+    }
+    return new Batch(rows.toString(), counts);
+  }
+  
+  /**
+   * Reads one record, which spans several lines if a quoted cell contains line breaks.
+   * @return the record or null at the end of the file
+   */
+  private static String readRecord(BufferedReader in) throws IOException {
+    String line = in.readLine();
+    if (line == null) {
+      return null;
+    }
+    int quotes = countQuotes(line);
+    if (quotes % 2 == 0) {
+      return line;
+    }
+    var record = new StringBuilder(line);
+    while (quotes % 2 != 0) {
+      line = in.readLine();
+      if (line == null)
+        throw new IOException("Unterminated quote at the end of the file: " + record);
+      record.append('\n').append(line);
+      quotes += countQuotes(line);
+    }
+    return record.toString();
+  }
+  
+  private static int countQuotes(String line) {
+    int quotes = 0;
+    for (int i = 0; i < line.length(); i++) {
+      if (line.charAt(i) == '"') {
+        quotes++;
+      }
+    }
+    return quotes;
+  }
+  
+  private void resolveColumns(String header) throws IOException {
+    List<String> names = Arrays.asList(new CSVParserBuilder().withSeparator(separator).build().parseLine(header));
+    codeColumn = resolveColumn(names, options.getCodeColumn());
+    if (options.getYearColumn() != null) {
+      yearColumn = resolveColumn(names, options.getYearColumn());
+    }
+  }
+  
+  private static int resolveColumn(List<String> names, String column) {
+    int position = names.indexOf(column);
+    if (position >= 0) {
+      return position;
+    }
+    try {
+      position = Integer.parseInt(column);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("There is no column " + column + " in " + names);
+    }
+    if (position < 0 || position >= names.size())
+      throw new IllegalArgumentException("Column " + position + " is out of range, there are " + names.size() + " columns");
+    return position;
+  }
+  
+  private static String cell(String[] cells, int column) {
+    return column < cells.length ? cells[column] : "";
+  }
+  
+  /**
+   * @return the year in the first four characters of the value or -1
+   */
+  private static int parseYear(String value) {
+    value = value.trim();
+    if (value.length() < 4) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(value.substring(0, 4));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+  
+  private String quote(String value) {
+    if (value.indexOf(separator) < 0 && value.indexOf('"') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+}
@@ -0,0 +1,327 @@
+package care.smith.top.terminology.versioning;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the simple separated files the terminology publishers ship (label files and
+ * Umsteiger files).
+ *
+ * The file is read through a memory mapped channel and only the requested columns are
+ * decoded into Strings, all other cells are skipped on the byte level. Files inside an
+ * archive cannot be mapped, they are streamed through a buffer instead. Single byte
+ * encodings like windows-1252 are decoded with a lookup table. Encodings that are not
+ * ASCII compatible fall back to opencsv.
+ *
+ * Cells may be quoted, quotes within quoted cells are escaped by doubling them.
+ * @author Ralph Schäfermeier
+ */
+public class DelimitedFileReader {
+  
+  private static final int LABEL_FILE_CODE_COLUMN = 0;
+  private static final int LABEL_FILE_LABEL_COLUMN = 1;
+  
+  private static final int MAX_WINDOW_SIZE = 1 << 28;
+  private static final int STREAM_WINDOW_SIZE = 1 << 20;
+  
+  /**
+   * Receives the requested cells of one row, in the order the columns were requested.
+   * The array is reused for the next row.
+   */
+  @FunctionalInterface
+  public interface RowHandler {
+    void handle(String[] cells) throws IOException;
+  }
+  
+  private final char separator;
+  private final Charset encoding;
+  private final int[] columns;
+  private final int lastColumn;
+  private final int[] slots; // for each column up to the last requested one: where it goes in the row, or -1
+  private final char[] singleByteTable; // null if the encoding is not a single byte encoding
+  private final boolean asciiCompatible;
+  
+  private int maxWindowSize = MAX_WINDOW_SIZE;
+  private long rows;
+  private byte[] bytes = new byte[256];
+  private char[] chars = new char[256];
+  
+  public DelimitedFileReader(char separator, Charset encoding, int... columns) {
+    this.separator = separator;
+    this.encoding = encoding;
+    this.columns = columns.clone();
+    this.lastColumn = Arrays.stream(columns).max().orElseThrow(() -> new IllegalArgumentException("No columns requested"));
+    this.slots = new int[lastColumn + 1];
+    Arrays.fill(slots, -1);
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] < 0) {
+        throw new IllegalArgumentException("Invalid column position " + columns[i]);
+      }
+      slots[columns[i]] = i;
+    }
+    this.singleByteTable = singleByteTable(encoding);
+    this.asciiCompatible = separator < 0x80 && (singleByteTable != null || encoding.equals(StandardCharsets.UTF_8) || encoding.equals(StandardCharsets.US_ASCII));
+  }
+  
+  /**
+   * @return a reader for the old and the new code column of a transition file
+   */
+  public static DelimitedFileReader forTransitions(Properties properties) {
+    return new DelimitedFileReader(properties.getSeparator(), properties.getEncoding(),
+            properties.getColumnPositions().get(Column.CODE_OLD),
+            properties.getColumnPositions().get(Column.CODE_NEW));
+  }
+  
+  /**
+   * @return a reader for the code and the label column of a label file
+   */
+  public static DelimitedFileReader forLabels(Properties properties) {
+    return new DelimitedFileReader(properties.getSeparator(), properties.getEncoding(), LABEL_FILE_CODE_COLUMN, LABEL_FILE_LABEL_COLUMN);
+  }
+  
+  /**
+   * Limits the size of the mapped windows and of the stream buffer, so that tests can read
+   * rows across window boundaries in small files.
+   */
+  void setMaxWindowSize(int maxWindowSize) {
+    this.maxWindowSize = maxWindowSize;
+  }
+  
+  /**
+   * Reads all non-empty rows of the file.
+   * Not thread safe, every thread needs its own reader.
+   * @return the number of rows
+   */
+  public long read(Path file, RowHandler handler) throws IOException {
+    if (!asciiCompatible) {
+      return readWithOpenCsv(file, handler);
+    }
+    if (file.getFileSystem() != FileSystems.getDefault()) {
+      return readStream(file, handler);
+    }
+    
+    rows = 0;
+    String[] row = new String[columns.length];
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      int windowSize = (int) Math.min(size, maxWindowSize);
+      while (position < size) {
+        int length = (int) Math.min(size - position, windowSize);
+        boolean endOfFile = position + length == size;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int start = position == 0 ? skipByteOrderMark(buffer) : 0;
+        int consumed = readRows(buffer, start, endOfFile, row, handler);
+        if (consumed < 0) {
+          throw new IOException("Unterminated quote in " + file);
+        }
+        if (consumed == start && !endOfFile) {
+          // a single row does not fit into the window
+          windowSize = (int) Math.min(size - position, (long) windowSize * 2);
+          continue;
+        }
+        position += consumed;
+      }
+    }
+    return rows;
+  }
+  
+  /**
+   * Reads a file that cannot be mapped, e.g. an entry of a zip file system. The rows that
+   * are not complete at the end of the buffer are moved to its start before it is filled
+   * again.
+   */
+  private long readStream(Path file, RowHandler handler) throws IOException {
+    rows = 0;
+    String[] row = new String[columns.length];
+    try (ReadableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(Math.min(STREAM_WINDOW_SIZE, maxWindowSize));
+      boolean startOfFile = true;
+      boolean endOfFile = false;
+      while (!endOfFile) {
+        while (buffer.hasRemaining() && !endOfFile) {
+          endOfFile = channel.read(buffer) < 0;
+        }
+        buffer.flip();
+        int start = startOfFile ? skipByteOrderMark(buffer) : 0;
+        startOfFile = false;
+        int consumed = readRows(buffer, start, endOfFile, row, handler);
+        if (consumed < 0) {
+          throw new IOException("Unterminated quote in " + file);
+        }
+        buffer.position(consumed);
+        if (consumed == 0 && buffer.limit() == buffer.capacity()) {
+          // a single row does not fit into the buffer
+          buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+        } else {
+          buffer.compact();
+        }
+      }
+    }
+    return rows;
+  }
+  
+  /**
+   * @return the offset in the buffer after the last complete row
+   */
+  private int readRows(ByteBuffer buffer, int start, boolean endOfFile, String[] row, RowHandler handler) throws IOException {
+    final byte sep = (byte) separator;
+    final int limit = buffer.limit();
+    int lineStart = start;
+    int position = start;
+    
+    while (position < limit) {
+      int column = 0;
+      int found = 0;
+      boolean empty = true;
+      
+      while (true) {
+        int cellStart = position;
+        int cellEnd;
+        boolean escapedQuotes = false;
+        
+        if (position < limit && buffer.get(position) == '"') {
+          cellStart = ++position;
+          while (true) {
+            if (position >= limit) {
+              return endOfFile ? -1 : lineStart;
+            }
+            if (buffer.get(position) == '"') {
+              if (position + 1 < limit && buffer.get(position + 1) == '"') {
+                escapedQuotes = true;
+                position += 2;
+                continue;
+              }
+              break;
+            }
+            position++;
+          }
+          cellEnd = position++;
+          while (position < limit && buffer.get(position) != sep && buffer.get(position) != '\n') {
+            position++;
+          }
+          empty = false;
+        } else {
+          while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == sep || b == '\n') {
+              break;
+            }
+            position++;
+          }
+          cellEnd = position;
+          if (cellEnd > cellStart && buffer.get(cellEnd - 1) == '\r' && (position >= limit || buffer.get(position) == '\n')) {
+            cellEnd--;
+          }
+          empty &= cellEnd == cellStart;
+        }
+        
+        if (position >= limit && !endOfFile) {
+          return lineStart;
+        }
+        
+        if (column <= lastColumn && slots[column] >= 0) {
+          String cell = decode(buffer, cellStart, cellEnd);
+          row[slots[column]] = escapedQuotes ? cell.replace("\"\"", "\"") : cell;
+          found++;
+        }
+        
+        if (position < limit && buffer.get(position) == sep) {
+          position++;
+          column++;
+          empty = false;
+        } else {
+          position++; // skip the line break
+          break;
+        }
+      }
+      
+      if (!empty) {
+        if (found < columns.length) {
+          throw new IOException(String.format("Row at byte %d has only %d columns, expected at least %d", lineStart, column + 1, lastColumn + 1));
+        }
+        handler.handle(row);
+        rows++;
+      }
+      lineStart = Math.min(position, limit);
+    }
+    return lineStart;
+  }
+  
+  private String decode(ByteBuffer buffer, int from, int to) {
+    int length = to - from;
+    if (singleByteTable != null) {
+      if (chars.length < length) {
+        chars = new char[Math.max(length, chars.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        chars[i] = singleByteTable[buffer.get(from + i) & 0xFF];
+      }
+      return new String(chars, 0, length);
+    }
+    if (bytes.length < length) {
+      bytes = new byte[Math.max(length, bytes.length * 2)];
+    }
+    buffer.get(from, bytes, 0, length);
+    return new String(bytes, 0, length, encoding);
+  }
+  
+  private int skipByteOrderMark(ByteBuffer buffer) {
+    if (encoding.equals(StandardCharsets.UTF_8) && buffer.limit() >= 3
+            && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF) {
+      return 3;
+    }
+    return 0;
+  }
+  
+  private long readWithOpenCsv(Path file, RowHandler handler) throws IOException {
+    long rows = 0;
+    String[] row = new String[columns.length];
+    try (var reader = new CSVReaderBuilder(Files.newBufferedReader(file, encoding))
+            .withCSVParser(new CSVParserBuilder().withSeparator(separator).build())
+            .build()) {
+      for (String[] cells : reader) {
+        if (cells.length == 1 && cells[0].isEmpty()) {
+          continue;
+        }
+        if (cells.length <= lastColumn) {
+          throw new IOException(String.format("Row %d has only %d columns, expected at least %d", reader.getLinesRead(), cells.length, lastColumn + 1));
+        }
+        for (int i = 0; i < columns.length; i++) {
+          row[i] = cells[columns[i]];
+        }
+        handler.handle(row);
+        rows++;
+      }
+    }
+    return rows;
+  }
+  
+  private static char[] singleByteTable(Charset encoding) {
+    if (!encoding.canEncode() || encoding.newEncoder().maxBytesPerChar() != 1.0f) {
+      return null;
+    }
+    byte[] all = new byte[256];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = (byte) i;
+    }
+    char[] table = new String(all, encoding).toCharArray();
+    if (table.length != 256 || table['\n'] != '\n' || table['"'] != '"') {
+      return null;
+    }
+    return table;
+  }
+}
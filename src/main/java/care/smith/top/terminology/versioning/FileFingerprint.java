@@ -0,0 +1,62 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Identifies the content of an input file by its path, size, modification time and a
+ * checksum of its content.
+ * @author Ralph Schäfermeier
+ */
+public record FileFingerprint(String path, long size, long lastModified, long hash) {
+  
+  private static final int WINDOW_SIZE = 1 << 26;
+  
+  /**
+   * @param file the file, which may be inside an archive
+   */
+  public static FileFingerprint of(Path file) throws IOException {
+    file = file.toAbsolutePath().normalize();
+    long size = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    var crc = new CRC32C();
+    if (file.getFileSystem() != FileSystems.getDefault()) {
+      // an entry of an archive cannot be mapped
+      try (InputStream in = Files.newInputStream(file)) {
+        byte[] buffer = new byte[1 << 16];
+        int length;
+        while ((length = in.read(buffer)) >= 0) {
+          crc.update(buffer, 0, length);
+        }
+      }
+      return new FileFingerprint(ReleaseArchives.describe(file), size, lastModified, crc.getValue());
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      for (long position = 0; position < size; position += WINDOW_SIZE) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+        crc.update(buffer);
+      }
+    }
+    return new FileFingerprint(file.toString(), size, lastModified, crc.getValue());
+  }
+  
+  public void write(DataOutput out) throws IOException {
+    out.writeUTF(path);
+    out.writeLong(size);
+    out.writeLong(lastModified);
+    out.writeLong(hash);
+  }
+  
+  public static FileFingerprint read(DataInput in) throws IOException {
+    return new FileFingerprint(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+  }
+}
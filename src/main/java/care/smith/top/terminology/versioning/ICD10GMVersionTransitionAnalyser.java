@@ -11,6 +11,24 @@ import java.io.IOException;
  * @author Ralph Schäfermeier
  */
 public class ICD10GMVersionTransitionAnalyser extends OPSVersionTransitionAnalyser {
+  
+  public static class Factory implements AnalyserFactory {
+    @Override
+    public String getTerminology() {
+      return "ICD10GM";
+    }
+    
+    @Override
+    public Class<ICD10GMVersionTransitionAnalyser> getAnalyserClass() {
+      return ICD10GMVersionTransitionAnalyser.class;
+    }
+    
+    @Override
+    public ICD10GMVersionTransitionAnalyser create(Properties properties) throws Exception {
+      return new ICD10GMVersionTransitionAnalyser(properties);
+    }
+  }
+  
   public ICD10GMVersionTransitionAnalyser(Properties properties) throws IllegalArgumentException, VersionInfoFileNotFoundException, IOException {
     super(properties);
   }
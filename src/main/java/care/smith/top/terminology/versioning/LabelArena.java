@@ -0,0 +1,147 @@
+package care.smith.top.terminology.versioning;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Keeps every distinct label text of a batch once, as UTF-8 bytes outside the heap, and
+ * gives it a dense int id. Most labels do not change from one version to the next, so the
+ * label maps of all releases refer to the same texts and the heap only holds their ids.
+ *
+ * The bytes are appended to direct buffers of {@value #CHUNK_SIZE} bytes, which are never
+ * modified once a label has been written to them. On the heap, a label takes a long for its
+ * location, an int for its hash and a slot of the hash table. Labels are decoded to Strings
+ * when they are asked for. It is safe to use from several threads.
+ * @author Ralph Schäfermeier
+ */
+public class LabelArena {
+  
+  private static final int CHUNK_SIZE = 1 << 20;
+  private static final int MAX_CHUNKS = 1 << 20;
+  private static final int MAX_LENGTH = (1 << 24) - 1;
+  private static final int FREE = -1;
+  
+  // the location of each label: chunk (20 bits), offset in the chunk (20 bits), length (24 bits)
+  private volatile long[] locations = new long[1024];
+  private volatile ByteBuffer[] chunks = new ByteBuffer[16];
+  private int[] hashes = new int[1024];
+  // label ids by hash, open addressing
+  private int[] table = newTable(2048);
+  private int size;
+  private int chunkCount;
+  private int chunkPosition = CHUNK_SIZE;
+  private long bytes;
+  
+  /**
+   * @return the id of the label, which is assigned if the label has not been seen before
+   */
+  public int getId(String label) {
+    byte[] text = label.getBytes(StandardCharsets.UTF_8);
+    if (text.length > MAX_LENGTH) {
+      throw new IllegalArgumentException("Label is too long: " + text.length + " bytes");
+    }
+    int hash = Arrays.hashCode(text);
+    synchronized (this) {
+      int mask = table.length - 1;
+      int index = mix(hash) & mask;
+      while (table[index] != FREE) {
+        int id = table[index];
+        if (hashes[id] == hash && equals(locations[id], text)) {
+          return id;
+        }
+        index = (index + 1) & mask;
+      }
+      int id = add(text, hash);
+      table[index] = id;
+      if (size * 2 > table.length) {
+        rehash(table.length * 2);
+      }
+      return id;
+    }
+  }
+  
+  public String get(int id) {
+    long location = locations[id];
+    byte[] text = new byte[(int) (location & MAX_LENGTH)];
+    chunks[(int) (location >>> 44)].get((int) (location >>> 24 & (CHUNK_SIZE - 1)), text);
+    return new String(text, StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * @return the number of distinct labels
+   */
+  public synchronized int size() {
+    return size;
+  }
+  
+  /**
+   * @return the number of bytes of label text outside the heap
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+  
+  private int add(byte[] text, int hash) {
+    // a label that does not fit into a chunk gets a chunk of its own
+    if (chunkPosition + text.length > CHUNK_SIZE) {
+      if (chunkCount == MAX_CHUNKS) {
+        throw new IllegalStateException("Too many labels for a label arena");
+      }
+      if (chunkCount == chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunkCount * 2);
+      }
+      chunks[chunkCount++] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, text.length));
+      chunkPosition = 0;
+    }
+    int chunk = chunkCount - 1;
+    chunks[chunk].put(chunkPosition, text);
+    
+    if (size == locations.length) {
+      hashes = Arrays.copyOf(hashes, size * 2);
+      locations = Arrays.copyOf(locations, size * 2);
+    }
+    hashes[size] = hash;
+    locations[size] = (long) chunk << 44 | (long) chunkPosition << 24 | text.length;
+    chunkPosition = text.length > CHUNK_SIZE ? CHUNK_SIZE : chunkPosition + text.length;
+    bytes += text.length;
+    return size++;
+  }
+  
+  private boolean equals(long location, byte[] text) {
+    if ((int) (location & MAX_LENGTH) != text.length) {
+      return false;
+    }
+    ByteBuffer chunk = chunks[(int) (location >>> 44)];
+    int offset = (int) (location >>> 24 & (CHUNK_SIZE - 1));
+    for (int i = 0; i < text.length; i++) {
+      if (chunk.get(offset + i) != text[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  private void rehash(int capacity) {
+    table = newTable(capacity);
+    int mask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int index = mix(hashes[id]) & mask;
+      while (table[index] != FREE) {
+        index = (index + 1) & mask;
+      }
+      table[index] = id;
+    }
+  }
+  
+  private static int[] newTable(int capacity) {
+    int[] table = new int[capacity];
+    Arrays.fill(table, FREE);
+    return table;
+  }
+  
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,71 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * The labels of one label file, keyed by code id. Filled while the file is read and not
+ * modified after that, so it can be shared by the analysers of several releases.
+ *
+ * The texts are kept in the batch's {@link LabelArena}, the map itself only holds an array
+ * of their ids indexed by code id.
+ * @author Ralph Schäfermeier
+ */
+public class LabelMap {
+  private static final int NONE = -1;
+  
+  private final LabelArena arena;
+  private int[] labels;
+  private int size;
+  private int undefinedCode = -1;
+  
+  public LabelMap(LabelArena arena, int expectedCodes) {
+    this.arena = arena;
+    labels = new int[Math.max(16, expectedCodes)];
+    Arrays.fill(labels, NONE);
+  }
+  
+  public String get(int code) {
+    int label = code < 0 || code >= labels.length ? NONE : labels[code];
+    return label == NONE ? null : arena.get(label);
+  }
+  
+  public void put(int code, String label) {
+    if (code >= labels.length) {
+      int length = labels.length;
+      labels = Arrays.copyOf(labels, Math.max(code + 1, length * 2));
+      Arrays.fill(labels, length, labels.length, NONE);
+    }
+    int id = label == null ? NONE : arena.getId(label);
+    if (labels[code] == NONE && id != NONE) {
+      size++;
+    } else if (labels[code] != NONE && id == NONE) {
+      size--;
+    }
+    labels[code] = id;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * @return the id of the code that stands for "no code" in this version or -1
+   */
+  public int getUndefinedCode() {
+    return undefinedCode;
+  }
+  
+  public void setUndefinedCode(int undefinedCode) {
+    this.undefinedCode = undefinedCode;
+  }
+  
+  public <E extends Exception> void forEach(IntObjectMap.EntryConsumer<? super String, E> action) throws E {
+    for (int code = 0; code < labels.length; code++) {
+      if (labels[code] != NONE) {
+        action.accept(code, arena.get(labels[code]));
+      }
+    }
+  }
+}
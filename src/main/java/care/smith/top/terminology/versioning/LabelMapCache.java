@@ -0,0 +1,113 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Shares label maps between the releases of a batch.
+ *
+ * The label file of the new version of one release usually is the label file of the old
+ * version of the next release. With this cache, each label file is parsed at most once.
+ * The batch runner announces how many releases use a label file, and the map is dropped
+ * as soon as the last of them is done with it. Independent of that, the cache keeps at
+ * most a fixed number of maps and evicts the least recently used one beyond that.
+ * @author Ralph Schäfermeier
+ */
+public class LabelMapCache {
+  
+  @FunctionalInterface
+  public interface Loader {
+    LabelMap load() throws IOException;
+  }
+  
+  private record Key(String path, String encoding, char separator) {}
+  
+  private final int maxEntries;
+  private final LinkedHashMap<Key, CompletableFuture<LabelMap>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final HashMap<Key, Integer> pendingUses = new HashMap<>();
+  
+  public LabelMapCache(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+  }
+  
+  /**
+   * Announces that one more release of the batch will use the label file.
+   */
+  public synchronized void expectUse(Path file, Properties properties) throws IOException {
+    pendingUses.merge(key(file, properties.getEncoding(), properties.getSeparator()), 1, Integer::sum);
+  }
+  
+  /**
+   * @return the cached map or the map the loader returns, which is then cached. If several
+   * threads ask for the same file at once, only one of them loads it.
+   */
+  public LabelMap get(Path file, Properties properties, Loader loader) throws IOException {
+    Key key = key(file, properties.getEncoding(), properties.getSeparator());
+    CompletableFuture<LabelMap> entry;
+    boolean load = false;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new CompletableFuture<>();
+        entries.put(key, entry);
+        load = true;
+        while (entries.size() > maxEntries) {
+          var eldest = entries.keySet().iterator().next();
+          entries.remove(eldest);
+        }
+      }
+    }
+    
+    if (load) {
+      try {
+        entry.complete(loader.load());
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          entries.remove(key, entry);
+        }
+        entry.completeExceptionally(e);
+        throw e;
+      }
+    }
+    
+    try {
+      return entry.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw new IOException(cause.getMessage(), cause);
+      }
+      throw e;
+    }
+  }
+  
+  /**
+   * Tells the cache that a release is done with the label file, whether it asked for the
+   * map or not. When no other release announced to use it, the map is dropped.
+   */
+  public synchronized void release(Path file, Properties properties) throws IOException {
+    Key key = key(file, properties.getEncoding(), properties.getSeparator());
+    Integer uses = pendingUses.get(key);
+    if (uses == null) {
+      return;
+    }
+    if (uses <= 1) {
+      pendingUses.remove(key);
+      entries.remove(key);
+    } else {
+      pendingUses.put(key, uses - 1);
+    }
+  }
+  
+  public synchronized int size() {
+    return entries.size();
+  }
+  
+  private static Key key(Path file, Charset encoding, char separator) throws IOException {
+    return new Key(ReleaseArchives.describe(file.toRealPath()), encoding.name(), separator);
+  }
+}
@@ -0,0 +1,279 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the codes whose labels contain a word, in any version of a terminology. Written by
+ * {@link LabelSearchIndexWriter} and memory-mapped when it is opened, so opening it takes
+ * no time and only the parts that are searched are read from disk. Immutable and thread
+ * safe.
+ *
+ * Labels are split into words at everything that is not a letter or a digit and lower
+ * cased. For every word the index has postings of a code and the range of versions in
+ * which a label of the code contained the word. The words are sorted, so prefixes are
+ * found by binary search as well. The codes are sorted too, and postings refer to them by
+ * their position, so postings sorted by position are sorted by code.
+ *
+ * The file has a header (magic, version and the numbers of codes, words and postings),
+ * followed by the codes, the words and the postings. Codes and words are stored as the
+ * offsets of their UTF-8 bytes (one more than there are codes or words, the last one is the
+ * end) followed by the bytes. Postings are stored the same way, as the offsets of the
+ * postings of each word followed by the postings (code, first year, last year).
+ * @author Ralph Schäfermeier
+ */
+public class LabelSearchIndex {
+  
+  static final int MAGIC = 0x54564c49; // "TVLI"
+  static final int FORMAT_VERSION = 1;
+  
+  private static final Pattern separator = Pattern.compile("[^\\p{L}\\p{N}]+");
+  
+  /**
+   * A code that had a label containing the word from the first to the last year.
+   */
+  public record Posting(String code, int firstYear, int lastYear) {}
+  
+  private final ByteBuffer buffer;
+  private final int codeCount;
+  private final int wordCount;
+  private final int codeOffsets;
+  private final int codeBytes;
+  private final int wordOffsets;
+  private final int wordBytes;
+  private final int postingStarts;
+  private final int postings;
+  
+  private LabelSearchIndex(ByteBuffer buffer) {
+    this.buffer = buffer;
+    codeCount = buffer.getInt(8);
+    wordCount = buffer.getInt(12);
+    codeOffsets = 20;
+    codeBytes = codeOffsets + (codeCount + 1) * 4;
+    wordOffsets = codeBytes + buffer.getInt(codeOffsets + codeCount * 4);
+    wordBytes = wordOffsets + (wordCount + 1) * 4;
+    postingStarts = wordBytes + buffer.getInt(wordOffsets + wordCount * 4);
+    postings = postingStarts + (wordCount + 1) * 4;
+  }
+  
+  public static LabelSearchIndex open(Path file) throws IOException {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large for a label search index");
+      }
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.limit() < 20 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+        throw new IOException(file + " is not a label search index or has been written by an incompatible version");
+      }
+      return new LabelSearchIndex(buffer);
+    }
+  }
+  
+  /**
+   * @return the words of a label, in the form they are indexed in
+   */
+  public static List<String> tokenize(String label) {
+    var words = new ArrayList<String>();
+    for (String word : separator.split(label.toLowerCase(Locale.ROOT))) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+  
+  public int getWordCount() {
+    return wordCount;
+  }
+  
+  /**
+   * @return the postings of the word, by code and year
+   */
+  public List<Posting> find(String word) {
+    return toPostings(merge(findPacked(normalise(word))));
+  }
+  
+  /**
+   * @return the postings of all words that start with the prefix, by code and year. The
+   *         year ranges of a code are merged where they overlap or touch.
+   */
+  public List<Posting> findPrefix(String prefix) {
+    return toPostings(findPrefixPacked(normalise(prefix)));
+  }
+  
+  /**
+   * Finds the codes with labels that contain all words of the query, the last one as a
+   * prefix, so it can be used while the query is typed.
+   * @return the codes and the year ranges in which their labels contained all words
+   */
+  public List<Posting> search(String query) {
+    List<String> words = tokenize(query);
+    if (words.isEmpty()) {
+      return List.of();
+    }
+    long[] result = null;
+    for (int i = 0; i < words.size(); i++) {
+      byte[] key = normalise(words.get(i));
+      long[] postings = i == words.size() - 1 ? findPrefixPacked(key) : merge(findPacked(key));
+      result = result == null ? postings : intersect(result, postings);
+      if (result.length == 0) {
+        break;
+      }
+    }
+    return toPostings(result);
+  }
+  
+  // Internally, a posting is packed into a long as code id (32 bits), first year (16 bits)
+  // and last year (16 bits), so sorting the longs sorts the postings by code and year.
+  
+  private long[] findPacked(byte[] key) {
+    int index = lowerBound(key);
+    if (index < wordCount && compare(index, key) == 0) {
+      return getPostings(index, index + 1);
+    }
+    return new long[0];
+  }
+  
+  private long[] findPrefixPacked(byte[] key) {
+    int first = lowerBound(key);
+    int end = first;
+    while (end < wordCount && startsWith(end, key)) {
+      end++;
+    }
+    return merge(getPostings(first, end));
+  }
+  
+  /**
+   * @return the postings of the words from first to end (exclusive)
+   */
+  private long[] getPostings(int first, int end) {
+    int from = buffer.getInt(postingStarts + first * 4);
+    int to = buffer.getInt(postingStarts + end * 4);
+    long[] result = new long[to - from];
+    for (int i = 0; i < result.length; i++) {
+      int position = postings + (from + i) * 12;
+      result[i] = (long) buffer.getInt(position) << 32 | (long) buffer.getInt(position + 4) << 16 | buffer.getInt(position + 8);
+    }
+    return result;
+  }
+  
+  /**
+   * @param packed postings sorted by code and year
+   */
+  private List<Posting> toPostings(long[] packed) {
+    var result = new ArrayList<Posting>(packed.length);
+    for (long posting : packed) {
+      result.add(new Posting(code((int) (posting >>> 32)), (int) (posting >>> 16 & 0xFFFF), (int) (posting & 0xFFFF)));
+    }
+    return result;
+  }
+  
+  private static byte[] normalise(String word) {
+    return word.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+  }
+  
+  private String code(int code) {
+    int start = buffer.getInt(codeOffsets + code * 4);
+    int end = buffer.getInt(codeOffsets + (code + 1) * 4);
+    byte[] bytes = new byte[end - start];
+    buffer.get(codeBytes + start, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * @return the index of the first word that is not less than the key
+   */
+  private int lowerBound(byte[] key) {
+    int low = 0;
+    int high = wordCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(middle, key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+  
+  private int compare(int word, byte[] key) {
+    int start = wordBytes + buffer.getInt(wordOffsets + word * 4);
+    int length = wordBytes + buffer.getInt(wordOffsets + (word + 1) * 4) - start;
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int difference = Byte.toUnsignedInt(buffer.get(start + i)) - Byte.toUnsignedInt(key[i]);
+      if (difference != 0) {
+        return difference;
+      }
+    }
+    return length - key.length;
+  }
+  
+  private boolean startsWith(int word, byte[] prefix) {
+    int start = wordBytes + buffer.getInt(wordOffsets + word * 4);
+    int length = wordBytes + buffer.getInt(wordOffsets + (word + 1) * 4) - start;
+    if (length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buffer.get(start + i) != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Sorts the postings by code and year and merges the ranges of a code that overlap or
+   * touch.
+   */
+  private static long[] merge(long[] postings) {
+    Arrays.sort(postings);
+    int count = 0;
+    for (long posting : postings) {
+      if (count > 0 && postings[count - 1] >>> 32 == posting >>> 32 && (posting >>> 16 & 0xFFFF) <= (postings[count - 1] & 0xFFFF) + 1) {
+        long last = Math.max(postings[count - 1] & 0xFFFF, posting & 0xFFFF);
+        postings[count - 1] = postings[count - 1] & ~0xFFFFL | last;
+      } else {
+        postings[count++] = posting;
+      }
+    }
+    return Arrays.copyOf(postings, count);
+  }
+  
+  /**
+   * @param a merged postings
+   * @param b merged postings
+   * @return the year ranges in which a code is in both
+   */
+  private static long[] intersect(long[] a, long[] b) {
+    long[] result = new long[a.length + b.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      int order = Long.compare(a[i] >>> 32, b[j] >>> 32);
+      if (order == 0) {
+        long first = Math.max(a[i] >>> 16 & 0xFFFF, b[j] >>> 16 & 0xFFFF);
+        long last = Math.min(a[i] & 0xFFFF, b[j] & 0xFFFF);
+        if (first <= last) {
+          result[count++] = a[i] & 0xFFFFFFFF00000000L | first << 16 | last;
+        }
+        order = Long.compare(a[i] & 0xFFFF, b[j] & 0xFFFF);
+      }
+      if (order <= 0) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+}
@@ -0,0 +1,196 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.IntStream;
+
+/**
+ * Collects the words of the labels of every version of a terminology and writes them as a
+ * {@link LabelSearchIndex}.
+ *
+ * Each version is reduced to the sorted pairs of word and code as soon as it is added, so
+ * the label maps do not have to be kept until the index is written. A version is only added
+ * once, as the old labels of a release are the new labels of the previous one. Safe to use
+ * from several threads.
+ * @author Ralph Schäfermeier
+ */
+public class LabelSearchIndexWriter {
+  
+  private static final int MAX_ID = (1 << 24) - 1;
+  // words are the highest field of the sort keys, which have to stay positive
+  private static final int MAX_WORD_ID = (1 << 23) - 1;
+  
+  private final CodeDictionary words = new CodeDictionary();
+  // version year -> sorted, distinct (word id << 32 | code id)
+  private final Map<Integer, long[]> versions = new ConcurrentSkipListMap<>();
+  
+  /**
+   * @param year the year of the version the labels belong to
+   */
+  public void addVersion(int year, LabelMap labels) {
+    if (labels == null || versions.containsKey(year)) {
+      return;
+    }
+    long[][] pairs = {new long[labels.size() * 4]};
+    int[] count = {0};
+    labels.forEach((code, label) -> {
+      if (label == null) {
+        return;
+      }
+      for (String word : LabelSearchIndex.tokenize(label)) {
+        if (count[0] == pairs[0].length) {
+          pairs[0] = Arrays.copyOf(pairs[0], Math.max(16, count[0] * 2));
+        }
+        pairs[0][count[0]++] = (long) words.getId(word) << 32 | code;
+      }
+    });
+    long[] sorted = Arrays.copyOf(pairs[0], count[0]);
+    Arrays.sort(sorted);
+    int distinct = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[distinct++] = sorted[i];
+      }
+    }
+    versions.putIfAbsent(year, Arrays.copyOf(sorted, distinct));
+  }
+  
+  /**
+   * Writes the index. A code that has a word in the versions of consecutive years gets one
+   * posting for all of them, as {@link LabelSearchIndex} merges the postings it finds.
+   * @param codes the dictionary of the code ids in the label maps
+   * @return the number of words in the index
+   */
+  public int write(Path file, CodeDictionary codes) throws IOException {
+    List<Integer> years = List.copyOf(versions.keySet());
+    int wordCount = words.size();
+    if (wordCount > MAX_WORD_ID || codes.size() > MAX_ID || years.size() > 0xFFFF) {
+      throw new IllegalStateException("Too many words, codes or versions for a label search index");
+    }
+    
+    // the codes are numbered in their sort order, so postings sorted by number are sorted by code
+    Integer[] codeOrder = IntStream.range(0, codes.size()).boxed().toArray(Integer[]::new);
+    Arrays.sort(codeOrder, Comparator.comparing(codes::getCode));
+    int[] codeNumbers = new int[codes.size()];
+    for (int i = 0; i < codeOrder.length; i++) {
+      codeNumbers[codeOrder[i]] = i;
+    }
+    
+    // word (23 bits) | code number (24 bits) | version index (16 bits), so sorting groups
+    // the versions of each word and code in ascending order
+    long total = versions.values().stream().mapToLong(pairs -> pairs.length).sum();
+    long[] entries = new long[Math.toIntExact(total)];
+    int n = 0;
+    for (int v = 0; v < years.size(); v++) {
+      for (long pair : versions.get(years.get(v))) {
+        entries[n++] = (pair >>> 32) << 40 | (long) codeNumbers[(int) (pair & MAX_ID)] << 16 | v;
+      }
+    }
+    Arrays.parallelSort(entries);
+    
+    // postings as (code, first year, last year), grouped by word
+    int[] postings = new int[entries.length * 3];
+    int postingCount = 0;
+    int[] postingStartsByWord = new int[wordCount + 1];
+    Arrays.fill(postingStartsByWord, -1);
+    for (int i = 0; i < entries.length; ) {
+      int word = (int) (entries[i] >>> 40);
+      int code = (int) (entries[i] >>> 16 & MAX_ID);
+      int first = (int) (entries[i] & 0xFFFF);
+      int last = first;
+      i++;
+      while (i < entries.length && entries[i] >>> 16 == entries[i - 1] >>> 16 && years.get((int) (entries[i] & 0xFFFF)) == years.get(last) + 1) {
+        last++;
+        i++;
+      }
+      if (postingStartsByWord[word] < 0) {
+        postingStartsByWord[word] = postingCount;
+      }
+      postings[postingCount * 3] = code;
+      postings[postingCount * 3 + 1] = years.get(first);
+      postings[postingCount * 3 + 2] = years.get(last);
+      postingCount++;
+    }
+    
+    // the words are sorted by their UTF-8 bytes, which is the order the index searches in
+    byte[][] wordBytes = new byte[wordCount][];
+    for (int word = 0; word < wordCount; word++) {
+      wordBytes[word] = words.getCode(word).getBytes(StandardCharsets.UTF_8);
+    }
+    Integer[] order = IntStream.range(0, wordCount).boxed().toArray(Integer[]::new);
+    Arrays.sort(order, Comparator.comparing(word -> wordBytes[word], Arrays::compareUnsigned));
+    int[] postingEnds = new int[wordCount];
+    // postings of a word end where the postings of the next word with postings start
+    int next = postingCount;
+    for (int word = wordCount - 1; word >= 0; word--) {
+      if (postingStartsByWord[word] >= 0) {
+        postingEnds[word] = next;
+        next = postingStartsByWord[word];
+      }
+    }
+    
+    Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(LabelSearchIndex.MAGIC);
+        out.writeInt(LabelSearchIndex.FORMAT_VERSION);
+        out.writeInt(codes.size());
+        out.writeInt(wordCount);
+        out.writeInt(postingCount);
+        
+        byte[][] codeBytes = new byte[codes.size()][];
+        int offset = 0;
+        out.writeInt(0);
+        for (int number = 0; number < codeOrder.length; number++) {
+          codeBytes[number] = codes.getCode(codeOrder[number]).getBytes(StandardCharsets.UTF_8);
+          offset += codeBytes[number].length;
+          out.writeInt(offset);
+        }
+        for (byte[] bytes : codeBytes) {
+          out.write(bytes);
+        }
+        
+        offset = 0;
+        out.writeInt(0);
+        for (int word : order) {
+          offset += wordBytes[word].length;
+          out.writeInt(offset);
+        }
+        for (int word : order) {
+          out.write(wordBytes[word]);
+        }
+        
+        // the postings are rearranged into the order of the words
+        int position = 0;
+        out.writeInt(0);
+        for (int word : order) {
+          if (postingStartsByWord[word] >= 0) {
+            position += postingEnds[word] - postingStartsByWord[word];
+          }
+          out.writeInt(position);
+        }
+        for (int word : order) {
+          if (postingStartsByWord[word] >= 0) {
+            for (int i = postingStartsByWord[word] * 3; i < postingEnds[word] * 3; i++) {
+              out.writeInt(postings[i]);
+            }
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    return wordCount;
+  }
+}
@@ -7,6 +7,9 @@ import com.beust.jcommander.converters.FileConverter;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -17,12 +20,25 @@ public class Main {
   private static final String PROPERTY_FILE_NAME = "properties.csv";
   
   @Parameter(
-          description = "The path to the root folder containing one or several subfolders, each of which, in turn, contains change information about a particular terminology release. The root folder is also expected to contain a properties file in cvs format, providing information about the folder structure and the file format for each release.",
+          description = "The paths to one or several root folders, e.g. ops and icd10gm, each containing one or several subfolders, each of which, in turn, contains change information about a particular terminology release. Each root folder is also expected to contain a properties file in cvs format, providing information about the folder structure and the file format for each release. The releases of all root folders are analysed on one worker pool.",
           converter = FileConverter.class,
           validateWith = SourceDirectoryValidator.class,
-          required = true,
           help = true)
-  private File inputDirectory;
+  private List<File> inputDirectories = new ArrayList<>();
+  
+  @Parameter(
+          names = {"--watch"},
+          description = "Keep running and analyse new release folders as they appear in the source directory. Results are kept in a result store (results_<name>.tvrs in the source directory, unless --results says otherwise), so only new releases are analysed.")
+  private boolean watch;
+  
+  @ParametersDelegate
+  private BatchOptions options = new BatchOptions();
+  
+  private final ReleaseGeneratorOptions generatorOptions = new ReleaseGeneratorOptions();
+  
+  private final MigrationOptions migrationOptions = new MigrationOptions();
+  
+  private final ServerOptions serverOptions = new ServerOptions();
   
   public static class SourceDirectoryValidator implements IParameterValidator {
     @Override
@@ -40,26 +56,84 @@ public class Main {
   
   public static void main(String[] args) {
     Main main = new Main();
+    String command = null;
     try {
-      JCommander.newBuilder()
-              .addObject(main)
-              .build()
-              .parse(args);
+      command = main.parse(args);
     } catch (Exception e) {
       System.err.println(e.getMessage());
       System.exit(1);
     }
-    main.run();
+    main.run(command);
   }
   
-  private void run() {
+  /**
+   * JCommander does not take the source directory as a main parameter once a command is
+   * registered, so a command is only registered if it is the first argument.
+   * @return the command or null for the analysis of the source directory
+   */
+  String parse(String... args) {
+    var builder = JCommander.newBuilder().addObject(this);
+    var commands = getCommands();
+    if (args.length > 0 && commands.containsKey(args[0]))
+      builder.addCommand(args[0], commands.get(args[0]));
+    JCommander commander = builder.build();
+    commander.parse(args);
+    String command = commander.getParsedCommand();
+    if (command == null && inputDirectories.isEmpty())
+      throw new ParameterException("The source directory is required");
+    if (command == null && watch && inputDirectories.size() > 1)
+      throw new ParameterException("Only one source directory can be watched");
+    return command;
+  }
+  
+  private Map<String, Object> getCommands() {
+    return Map.of("generate", generatorOptions, "migrate", migrationOptions, "serve", serverOptions);
+  }
+  
+  List<File> getInputDirectories() {
+    return inputDirectories;
+  }
+  
+  boolean isWatch() {
+    return watch;
+  }
+  
+  BatchOptions getOptions() {
+    return options;
+  }
+  
+  void run(String command) {
     try {
       
-      new AnalysisBatchRunner(inputDirectory);
+      if ("generate".equals(command))
+        new ReleaseGenerator(generatorOptions).generate();
+      else if ("migrate".equals(command))
+        new CodeMigrator(migrationOptions).run();
+      else if ("serve".equals(command))
+        serve();
+      else if (watch)
+        watch();
+      else
+        new AnalysisBatchRunner(inputDirectories, options);
       
     } catch (Exception e) {
       System.out.printf("An error occurred while running the batch runner: %s\n", e.getMessage());
       e.printStackTrace();
     }
   }
+  
+  private void watch() throws Exception {
+    var inputDirectory = inputDirectories.get(0);
+    if (options.getResultStoreFile() == null) {
+      options.setResultStoreFile(new File(inputDirectory, String.format("results_%s.tvrs", inputDirectory.getName())));
+    }
+    new ReleaseWatcher(inputDirectory, options).run();
+  }
+  
+  private void serve() throws Exception {
+    var server = new ChangeQueryServer(serverOptions.getSourceDirectory(), serverOptions.getBatchOptions());
+    var address = server.start(serverOptions.getHost(), serverOptions.getPort());
+    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+    System.out.printf("Listening on http://%s:%d/%n", address.getHostString(), address.getPort());
+  }
 }
\ No newline at end of file
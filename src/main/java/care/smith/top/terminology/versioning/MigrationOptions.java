@@ -0,0 +1,168 @@
+package care.smith.top.terminology.versioning;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.converters.FileConverter;
+
+import java.io.File;
+
+/**
+ * Options of a code migration run.
+ * @author Ralph Schäfermeier
+ */
+@Parameters(commandDescription = "Rewrites the codes in a CSV extract to the codes of the latest version of the terminology. Two columns are appended to every row: the migrated code or codes and the kind of migration.")
+public class MigrationOptions {
+  
+  @Parameter(
+          description = "The CSV file to migrate. Its first row must be a header.",
+          converter = FileConverter.class,
+          required = true)
+  private File inputFile;
+  
+  @Parameter(
+          names = {"-o", "--output"},
+          description = "The file to write the migrated rows to.",
+          converter = FileConverter.class,
+          required = true)
+  private File outputFile;
+  
+  @Parameter(
+          names = {"--index"},
+          description = "The code mapping index, as written by a batch run with --mapping-index. If the file does not exist and --releases is given, it is built first.",
+          converter = FileConverter.class,
+          required = true)
+  private File indexFile;
+  
+  @Parameter(
+          names = {"--releases"},
+          description = "The root folder of the releases (the same as for a batch run) to build the code mapping index from, if it does not exist yet.",
+          converter = FileConverter.class)
+  private File releaseDirectory;
+  
+  @Parameter(
+          names = {"-c", "--column"},
+          description = "The name of the column that contains the codes, or its position starting at 0.",
+          required = true)
+  private String codeColumn;
+  
+  @Parameter(
+          names = {"--year-column"},
+          description = "The name of the column that contains the version the code was recorded in, or its position starting at 0. Only the first four characters are used, so dates work as well.")
+  private String yearColumn;
+  
+  @Parameter(
+          names = {"--year"},
+          description = "The version all codes were recorded in, if there is no year column.")
+  private Integer year;
+  
+  @Parameter(names = {"--separator"}, description = "The separator of the input and output file.")
+  private String separator = ",";
+  
+  @Parameter(names = {"--encoding"}, description = "The encoding of the input and output file.")
+  private String encoding = "UTF-8";
+  
+  @Parameter(names = {"--batch-size"}, description = "The number of rows that are migrated as one unit of work.")
+  private int batchSize = 10000;
+  
+  @Parameter(names = {"-t", "--threads"}, description = "The number of threads that migrate batches. 0 or less uses one per available processor.")
+  private int threads = 0;
+  
+  @Parameter(names = {"--max-pending"}, description = "The maximum number of batches that have been read but not written yet. Reading waits when it is reached, which bounds the memory used. 0 or less allows two per thread.")
+  private int maxPendingBatches = 0;
+  
+  public File getInputFile() {
+    return inputFile;
+  }
+  
+  public void setInputFile(File inputFile) {
+    this.inputFile = inputFile;
+  }
+  
+  public File getOutputFile() {
+    return outputFile;
+  }
+  
+  public void setOutputFile(File outputFile) {
+    this.outputFile = outputFile;
+  }
+  
+  public File getIndexFile() {
+    return indexFile;
+  }
+  
+  public void setIndexFile(File indexFile) {
+    this.indexFile = indexFile;
+  }
+  
+  public File getReleaseDirectory() {
+    return releaseDirectory;
+  }
+  
+  public void setReleaseDirectory(File releaseDirectory) {
+    this.releaseDirectory = releaseDirectory;
+  }
+  
+  public String getCodeColumn() {
+    return codeColumn;
+  }
+  
+  public void setCodeColumn(String codeColumn) {
+    this.codeColumn = codeColumn;
+  }
+  
+  public String getYearColumn() {
+    return yearColumn;
+  }
+  
+  public void setYearColumn(String yearColumn) {
+    this.yearColumn = yearColumn;
+  }
+  
+  public Integer getYear() {
+    return year;
+  }
+  
+  public void setYear(Integer year) {
+    this.year = year;
+  }
+  
+  public char getSeparator() {
+    return separator.charAt(0);
+  }
+  
+  public void setSeparator(char separator) {
+    this.separator = String.valueOf(separator);
+  }
+  
+  public String getEncoding() {
+    return encoding;
+  }
+  
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+  
+  public int getBatchSize() {
+    return batchSize;
+  }
+  
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+  
+  public int getThreads() {
+    return threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+  }
+  
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+  
+  public int getMaxPendingBatches() {
+    return maxPendingBatches <= 0 ? 2 * getThreads() : maxPendingBatches;
+  }
+  
+  public void setMaxPendingBatches(int maxPendingBatches) {
+    this.maxPendingBatches = maxPendingBatches;
+  }
+}
@@ -1,65 +1,326 @@
 package care.smith.top.terminology.versioning;
 
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import care.smith.top.terminology.versioning.util.IntSet;
+import care.smith.top.terminology.versioning.util.UnionFind;
 import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReaderBuilder;
-import org.apache.commons.collections4.CollectionUtils;
 
-import java.io.File;
-import java.io.FileReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * @author Ralph Schäfermeier
  */
-@SuppressWarnings("unused")
 public class OPSVersionTransitionAnalyser extends AbstractTerminologyVersionTransitionAnalyser {
   
-  // This class is instantiated via reflection, so ignore the unused warning.
+  public static class Factory implements AnalyserFactory {
+    @Override
+    public String getTerminology() {
+      return "OPS";
+    }
+    
+    @Override
+    public Class<OPSVersionTransitionAnalyser> getAnalyserClass() {
+      return OPSVersionTransitionAnalyser.class;
+    }
+    
+    @Override
+    public OPSVersionTransitionAnalyser create(Properties properties) throws Exception {
+      return new OPSVersionTransitionAnalyser(properties);
+    }
+  }
+  
+  private Path fileOld;
+  private Path fileNew;
+  private Path fileTransitions;
+  
+  // all maps are keyed by the ids the codes have in the terminology's dictionary
+  private final CodeDictionary codes;
+  
+  private LabelMap labelsOld;
+  private LabelMap labelsNew;
   
-  private File fileOld;
-  private File fileNew;
-  private File fileTransitions;
+  private static final int MAX_RUNS = 4096;
   
-  private final HashMap<String, String> labelsOld = new HashMap<>();
-  private final HashMap<String, String> labelsNew = new HashMap<>();
+  private int undefinedCode = -1; // changes from version to version, we need to detect it
   
-  private String undefinedCode; // changes from version to version, we need to detect it
+  private IntObjectMap<CodeChanges> changesByOldCode = new IntObjectMap<>();
+  private IntObjectMap<CodeChanges> changesByNewCode = new IntObjectMap<>();
   
-  private final HashMap<String, CodeChanges> changesByOldCode = new HashMap<>();
-  private final HashMap<String, CodeChanges> changesByNewCode = new HashMap<>();
+  private List<CodeChanges> components; // only used by the components engine
+  
+  // the rows of the transition file on disk if the release does not fit into the heap budget
+  private TransitionRuns runs;
+  
+  /**
+   * Where the transition rows come from if they are not parsed from the transition file.
+   */
+  @FunctionalInterface
+  private interface TransitionSource {
+    long forEach(TransitionQueue.TransitionHandler handler) throws IOException;
+  }
   
   public OPSVersionTransitionAnalyser(Properties properties) throws IllegalArgumentException, VersionInfoFileNotFoundException, IOException {
     super(properties);
-    detectFiles(getProperties().getDirectory());
-    readLabels(fileOld, labelsOld);
-    readLabels(fileNew, labelsNew);
+    codes = getProperties().getContext().getCodes();
+    try (var phase = getMetrics().start("directory scan")) {
+      detectFiles(getProperties().getDirectory());
+      phase.setRows(3);
+      phase.addBytes(Files.size(fileOld) + Files.size(fileNew) + Files.size(fileTransitions));
+    }
+    
+    // a release that is split into runs is neither loaded from nor stored in the cache,
+    // as snapshots hold all change sets at once
+    int runCount = getRunCount();
+    var cache = getProperties().getContext().getSnapshotCache();
+    if (runCount > 1) {
+      readLabels();
+      spill(runCount);
+    } else if (cache == null) {
+      read();
+    } else {
+      List<FileFingerprint> inputs;
+      String parameters = getSnapshotParameters();
+      try (var phase = getMetrics().start("snapshot load")) {
+        inputs = List.of(FileFingerprint.of(fileOld), FileFingerprint.of(fileNew), FileFingerprint.of(fileTransitions));
+        phase.addBytes(Files.size(fileOld) + Files.size(fileNew) + Files.size(fileTransitions));
+        try (var in = cache.open(parameters, inputs)) {
+          if (in != null) {
+            System.out.printf("Loading parsed release from cache%n");
+            readSnapshot(in);
+            phase.setRows(components != null ? components.size() : changesByOldCode.size() + changesByNewCode.size());
+            releaseLabels();
+            return;
+          }
+        }
+      }
+      read();
+      try (var phase = getMetrics().start("snapshot store")) {
+        phase.addBytes(cache.store(parameters, inputs, this::writeSnapshot));
+      }
+    }
+  }
+  
+  /**
+   * Reads the label files and builds the change sets from the transition file. With
+   * pipelined reading, the three files are read at the same time and the transition rows
+   * wait in a {@link TransitionQueue} until both label maps are there.
+   */
+  private void read() throws IOException {
+    if (!getProperties().getContext().isPipelinedReading()) {
+      readLabels();
+      buildTransitions(null);
+      return;
+    }
+    try (var executor = ReleaseLoader.createExecutor(3)) {
+      var transitions = new TransitionQueue(fileTransitions, getProperties(), getMetrics(), executor);
+      try {
+        var oldLabels = executor.submit(() -> readLabels(fileOld, "old-label parse"));
+        var newLabels = executor.submit(() -> readLabels(fileNew, "new-label parse"));
+        setLabels(join(oldLabels), join(newLabels));
+        buildTransitions(transitions::forEach);
+      } catch (IOException | RuntimeException e) {
+        transitions.cancel();
+        throw e;
+      }
+    }
+  }
+  
+  private static LabelMap join(Future<LabelMap> labels) throws IOException {
+    try {
+      return labels.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading labels");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+  
+  /**
+   * @return the number of runs the transition rows have to be split into to keep the change
+   *         sets within the heap budget, 1 if there is no budget or they fit
+   */
+  private int getRunCount() throws IOException {
+    long budget = getProperties().getContext().getHeapBudget();
+    if (budget <= 0) {
+      return 1;
+    }
+    long estimate = Files.size(fileTransitions) * ReleaseLoader.HEAP_PER_TRANSITION_BYTE;
+    return (int) Math.min(MAX_RUNS, Math.max(1, (estimate + budget - 1) / budget));
+  }
+  
+  /**
+   * Splits the transition rows into runs of complete change sets on disk. The runs are
+   * analysed one at a time when the change sets are classified or iterated.
+   */
+  private void spill(int runCount) throws IOException {
+    try (var phase = getMetrics().start("transition spill")) {
+      phase.addBytes(2 * Files.size(fileTransitions));
+      runs = TransitionRuns.write(fileTransitions, getProperties(), undefinedCode, runCount);
+      phase.setRows(runs.getRows());
+    }
+    System.out.printf("Split the transitions into %d runs to stay within the heap budget%n", runCount);
+  }
+  
+  /**
+   * Builds the change sets of one run. The analyser does not keep them.
+   */
+  private synchronized List<CodeChanges> analyseRun(int run) throws IOException {
+    try {
+      buildTransitions(handler -> runs.forEach(run, handler));
+      var changeSets = new ArrayList<CodeChanges>();
+      getBuiltChangeSets().forEach(changeSets::add);
+      return changeSets;
+    } finally {
+      changesByOldCode = new IntObjectMap<>();
+      changesByNewCode = new IntObjectMap<>();
+      components = null;
+    }
+  }
+  
+  /**
+   * @param transitions the rows of the transition file or null to parse it here
+   */
+  private void buildTransitions(TransitionSource transitions) throws IOException {
+    try (var phase = getMetrics().start("transition build")) {
+      if (transitions == null) {
+        phase.addBytes(Files.size(fileTransitions));
+      }
+      if (getProperties().getContext().getEngine() == TransitionEngine.components) {
+        phase.setRows(buildComponents(transitions));
+      } else {
+        phase.setRows(buildTransitions(transitions, phase));
+      }
+    }
+  }
+  
+  /**
+   * @return the number of rows read
+   */
+  private long readTransitions(TransitionSource transitions, TransitionQueue.TransitionHandler handler) throws IOException {
+    if (transitions != null) {
+      return transitions.forEach(handler);
+    }
+    return DelimitedFileReader.forTransitions(getProperties()).read(fileTransitions, cells -> handler.handle(codes.getId(cells[0]), codes.getId(cells[1])));
+  }
+  
+  /**
+   * Builds the change sets as the connected components of the graph of old and new codes
+   * that the transition rows span. Unlike the state machine of the legacy engine, this
+   * does not depend on the order of the rows.
+   * An old and a new code are different nodes even if they are the same code, so the key
+   * of a node is the id of its code and its side.
+   * @return the number of rows read
+   */
+  private long buildComponents(TransitionSource transitions) throws IOException {
+    var graph = new UnionFind((labelsOld.size() + labelsNew.size()) / (runs == null ? 1 : runs.size()));
+    long rows = readTransitions(transitions, (oldCode, newCode) -> {
+      if (oldCode == undefinedCode) {
+        graph.node(newCode << 1 | 1);
+      } else if (newCode == undefinedCode) {
+        graph.node(oldCode << 1);
+      } else {
+        graph.union(graph.node(oldCode << 1), graph.node(newCode << 1 | 1));
+      }
+    });
+    
+    // number the components and sort the nodes by component (counting sort)
+    int nodes = graph.size();
+    int[] componentOfRoot = new int[nodes];
+    Arrays.fill(componentOfRoot, -1);
+    int[] componentOfNode = new int[nodes];
+    int count = 0;
+    for (int node = 0; node < nodes; node++) {
+      int root = graph.find(node);
+      if (componentOfRoot[root] < 0) {
+        componentOfRoot[root] = count++;
+      }
+      componentOfNode[node] = componentOfRoot[root];
+    }
+    int[] starts = new int[count + 1];
+    for (int node = 0; node < nodes; node++) {
+      starts[componentOfNode[node] + 1]++;
+    }
+    for (int i = 0; i < count; i++) {
+      starts[i + 1] += starts[i];
+    }
+    int[] members = new int[nodes];
+    int[] next = Arrays.copyOf(starts, count);
+    for (int node = 0; node < nodes; node++) {
+      members[next[componentOfNode[node]]++] = node;
+    }
     
-    buildTransitions();
+    // the components do not depend on each other
+    var changeSets = new CodeChanges[count];
+    IntStream.range(0, count).parallel().forEach(i -> changeSets[i] = toChanges(graph, members, starts[i], starts[i + 1]));
+    components = Arrays.asList(changeSets);
+    return rows;
   }
   
-  private void buildTransitions() throws IOException {
-    final int columnOld = getProperties().getColumnPositions().get(Column.CODE_OLD);
-    final int columnNew = getProperties().getColumnPositions().get(Column.CODE_NEW);
+  /**
+   * The reference code is the old code of a deletion or a split and the (first) new code
+   * otherwise, the same as in the legacy engine.
+   */
+  private CodeChanges toChanges(UnionFind graph, int[] members, int from, int to) {
+    var changes = new CodeChanges(codes, -1);
+    for (int i = from; i < to; i++) {
+      int key = graph.key(members[i]);
+      if ((key & 1) == 0) {
+        changes.addOldCode(key >>> 1);
+      } else {
+        changes.addNewCode(key >>> 1);
+      }
+    }
     
-    new CSVParserBuilder().withSeparator(getProperties().getSeparator()).build();
-    new CSVReaderBuilder(new FileReader(fileTransitions, getProperties().getEncoding())).withCSVParser(
-            new CSVParserBuilder().withSeparator(getProperties().getSeparator()).build()
-    ).build().iterator().forEachRemaining(cells -> {
-      
-      String oldCode = cells[columnOld];
-      String newCode = cells[columnNew];
-      
-      if (oldCode.equals(undefinedCode)) {
+    var oldCodes = changes.getOldCodeIds();
+    var newCodes = changes.getNewCodeIds();
+    if (newCodes.size() == 0 || oldCodes.size() == 1 && newCodes.size() > 1) {
+      changes.setCode(oldCodes.get(0));
+    } else {
+      changes.setCode(newCodes.get(0));
+    }
+    
+    // additions and deletions have no labels, as in the legacy engine
+    if (oldCodes.size() > 0 && newCodes.size() > 0) {
+      for (int i = 0; i < oldCodes.size(); i++) {
+        changes.addOldLabel(labelsOld.get(oldCodes.get(i)));
+      }
+      for (int i = 0; i < newCodes.size(); i++) {
+        changes.addNewLabel(labelsNew.get(newCodes.get(i)));
+      }
+    }
+    return changes;
+  }
+  
+  /**
+   * @return the number of rows read
+   */
+  private long buildTransitions(TransitionSource transitions, ReleaseMetrics.Phase phase) throws IOException {
+    return readTransitions(transitions, (oldCode, newCode) -> {
+      if (oldCode == undefinedCode) {
         // this code is new
         // the newCode must be different from undefinedCode
         var changes = getChanges(newCode, changesByNewCode);
         changes.addNewCode(newCode);
-      } else if (newCode.equals(undefinedCode)) {
+      } else if (newCode == undefinedCode) {
         // the code has been deleted
         var changes = getChanges(oldCode, changesByOldCode);
         changes.addOldCode(oldCode);
@@ -85,7 +346,7 @@ public class OPSVersionTransitionAnalyser extends AbstractTerminologyVersionTran
           // error in the change information by the
           // publisher of the code system.
           
-          var changes = new CodeChanges(newCode); // if it's a split, we will rename it to the old code later
+          var changes = new CodeChanges(codes, newCode); // if it's a split, we will rename it to the old code later
           changes.addOldCode(oldCode);
           changes.addOldLabel(oldLabel);
           changes.addNewCode(newCode);
@@ -98,14 +359,14 @@ public class OPSVersionTransitionAnalyser extends AbstractTerminologyVersionTran
           // we keep the old code (source of the split) as the reference
           // as we only want to count the split as one change operation
           
-          var newCodes = oldChanges.getNewCodes();
+          var newCodes = oldChanges.getNewCodeIds();
           if (newCodes.size() == 1) {
             // this is the second time we encounter the old code
             // we know now it's not a replacement but a split
             // we can remove the changes from the new codes
             // from then on, we do not have to care about it
             // anymore
-            String oc = newCodes.stream().findFirst().get();
+            int oc = newCodes.get(0);
             changesByNewCode.remove(oc);
             
             // Also, we rename the change set as we now know
@@ -121,14 +382,14 @@ public class OPSVersionTransitionAnalyser extends AbstractTerminologyVersionTran
           // we keep the new code (target of the merge) as the reference
           // as we only want to count the merge as one change operation
           
-          var oldCodes = newChanges.getOldCodes();
+          var oldCodes = newChanges.getOldCodeIds();
           if (oldCodes.size() == 1) {
             // this is the second time we encounter the new code
             // we know now it's not a replacement but a merge
             // we can remove the changes from the old codes
             // from then on, we do not have to care about it
             // anymore
-            String oc = oldCodes.stream().findFirst().get();
+            int oc = oldCodes.get(0);
             changesByOldCode.remove(oc);
           }
           
@@ -137,127 +398,292 @@ public class OPSVersionTransitionAnalyser extends AbstractTerminologyVersionTran
         } else {
           // this should not happen and would be sign of an error in the
           // change information by the publisher of the code system
-          System.err.println("Warning: Weird mapping. " + oldCode + " -> " + newCode);
+          System.err.println("Warning: Weird mapping. " + codes.getCode(oldCode) + " -> " + codes.getCode(newCode));
+          phase.addAnomalies(ReleaseMetrics.Anomaly.weirdMapping, 1);
         }
       }
     });
   }
   
-  private CodeChanges getChanges(String code, HashMap<String, CodeChanges> changes) {
+  private CodeChanges getChanges(int code, IntObjectMap<CodeChanges> changes) {
     var result = changes.get(code);
     if (result == null) {
-      result = new CodeChanges(code);
+      result = new CodeChanges(codes, code);
       changes.put(code, result);
     }
     return result;
   }
   
-  private void readLabels(File file, HashMap<String, String> map) throws IOException {
-    new CSVParserBuilder().withSeparator(getProperties().getSeparator()).build();
-    new CSVReaderBuilder(new FileReader(file, getProperties().getEncoding())).withCSVParser(
-            new CSVParserBuilder().withSeparator(getProperties().getSeparator()).build()
-    ).build().iterator().forEachRemaining(cells -> {
+  /**
+   * Reads both label files, through the batch's label map cache if there is one.
+   */
+  private void readLabels() throws IOException {
+    setLabels(readLabels(fileOld, "old-label parse"), readLabels(fileNew, "new-label parse"));
+  }
+  
+  private void setLabels(LabelMap labelsOld, LabelMap labelsNew) throws IOException {
+    this.labelsOld = labelsOld;
+    this.labelsNew = labelsNew;
+    // the new version's undefined code takes precedence
+    undefinedCode = labelsNew.getUndefinedCode() >= 0 ? labelsNew.getUndefinedCode() : labelsOld.getUndefinedCode();
+    releaseLabels();
+  }
+  
+  /**
+   * Only counts the bytes of the file if this analyser parsed it, not if another one did
+   * and the map came from the cache.
+   */
+  private LabelMap readLabels(Path file, String phaseName) throws IOException {
+    try (var phase = getMetrics().start(phaseName)) {
+      var labelMapCache = getProperties().getContext().getLabelMapCache();
+      LabelMap labels;
+      if (labelMapCache == null) {
+        labels = readLabels(file);
+        phase.addBytes(Files.size(file));
+      } else {
+        labels = labelMapCache.get(file, getProperties(), () -> {
+          phase.addBytes(Files.size(file));
+          return readLabels(file);
+        });
+      }
+      phase.setRows(labels.size());
+      return labels;
+    }
+  }
+  
+  /**
+   * Tells the label map cache that this release does not need the label maps anymore.
+   * The analyser keeps its references to the maps, the cache just does not hold them for
+   * this release any longer.
+   */
+  private void releaseLabels() throws IOException {
+    var labelMapCache = getProperties().getContext().getLabelMapCache();
+    if (labelMapCache != null) {
+      labelMapCache.release(fileOld, getProperties());
+      labelMapCache.release(fileNew, getProperties());
+    }
+  }
+  
+  private LabelMap readLabels(Path file) throws IOException {
+    var map = new LabelMap(getProperties().getContext().getLabelArena(), codes.size());
+    DelimitedFileReader.forLabels(getProperties()).read(file, cells -> {
       String code = cells[0];
       String label = cells[1];
-
+      
+      int id = codes.getId(code);
       if (code.equalsIgnoreCase("none") || code.equalsIgnoreCase("undef")) {
-        undefinedCode = code;
+        map.setUndefinedCode(id);
       }
       
-      map.put(code, label);
+      map.put(id, label);
     });
+    return map;
   }
   
-  private void detectFiles(File folder) throws VersionInfoFileNotFoundException {
-    System.out.format("%nScanning directory %s for files...%n", getProperties().getDirectory());
-
-    Arrays.stream(Objects.requireNonNull(folder.listFiles(file -> !file.getName().toLowerCase().contains("liesmich")))).forEach(file -> {
-      if (file.getName().toLowerCase().contains("umsteiger")) {
-        fileTransitions = file;
-      } else {
-        if (fileOld == null && fileNew == null && getYear(file) != -1) {
-          fileOld = file;
-          fileNew = file;
-        } else {
-          // either both fileOld and fileNew are null or both have a value, because we set both at the same time
-          int year = getYear(file);
-          if (year != -1) {
-            if (year < getYear(fileOld)) {
-              fileOld = file;
-            } else {
-              fileNew = file;
-            }
-          }
-        }
-      }
-    });
+  private void detectFiles(Path folder) throws VersionInfoFileNotFoundException {
+    System.out.format("%nScanning directory %s for files...%n", ReleaseArchives.describe(getProperties().getDirectory()));
     
-    checkFiles();
+    var files = ReleaseFiles.detect(folder);
+    fileOld = files.fileOld();
+    fileNew = files.fileNew();
+    fileTransitions = files.fileTransitions();
+    
+    System.out.printf("Detected old version: %s%n", fileOld.getFileName());
+    System.out.printf("Detected new version: %s%n", fileNew.getFileName());
+    System.out.printf("Detected transition information: %s%n", fileTransitions.getFileName());
   }
   
-  private static final Pattern yearPattern = Pattern.compile("(\\d{4})");
-  
-  private int getYear(File file) {
-    Matcher matcher = yearPattern.matcher(file.getName());
-    return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+  private String getSnapshotParameters() {
+    return String.format("%s;%s;%s;%s;%s", getClass().getName(), getProperties().getSeparator(), getProperties().getEncoding().name(), new TreeMap<>(getProperties().getColumnPositions()), getProperties().getContext().getEngine());
   }
   
-  private void checkFiles() throws VersionInfoFileNotFoundException {
-    if (fileOld == null || fileNew == null)
-      throw new VersionInfoFileNotFoundException("Could not find version info files.");
-    if (fileOld.equals(fileNew))
-      throw new VersionInfoFileNotFoundException(String.format("Could only find one version info file but expected two: %s.", fileOld.getAbsolutePath()));
+  /**
+   * Writes the label maps, the undefined code and the change indexes.
+   * Codes are written as Strings, as ids are only valid within one run.
+   */
+  private void writeSnapshot(DataOutputStream out) throws IOException {
+    ReleaseSnapshotCache.writeString(out, undefinedCode < 0 ? null : codes.getCode(undefinedCode));
+    writeLabels(out, labelsOld);
+    writeLabels(out, labelsNew);
     
-    System.out.printf("Detected old version: %s%n", fileOld.getName());
-    System.out.printf("Detected new version: %s%n", fileNew.getName());
-    
-    if (fileTransitions == null)
-      throw new VersionInfoFileNotFoundException("Could not find transition info file.");
+    var changeSets = new ArrayList<CodeChanges>();
+    getChangeSets().forEach(changeSets::add);
+    var indexes = new IdentityHashMap<CodeChanges, Integer>(changeSets.size() * 2);
+    out.writeInt(changeSets.size());
+    for (CodeChanges changes : changeSets) {
+      indexes.put(changes, indexes.size());
+      ReleaseSnapshotCache.writeString(out, changes.getCode());
+      writeCodes(out, changes.getOldCodeIds());
+      writeCodes(out, changes.getNewCodeIds());
+      writeStrings(out, changes.getOldLabels());
+      writeStrings(out, changes.getNewLabels());
+    }
+    writeIndex(out, changesByOldCode, indexes);
+    writeIndex(out, changesByNewCode, indexes);
+  }
+  
+  private void readSnapshot(DataInputStream in) throws IOException {
+    String undefined = ReleaseSnapshotCache.readString(in);
+    undefinedCode = undefined == null ? -1 : codes.getId(undefined);
+    labelsOld = readLabels(in);
+    labelsNew = readLabels(in);
     
-    System.out.printf("Detected transition information: %s%n", fileTransitions.getName());
+    var changeSets = new CodeChanges[in.readInt()];
+    for (int i = 0; i < changeSets.length; i++) {
+      var changes = new CodeChanges(codes, codes.getId(ReleaseSnapshotCache.readString(in)));
+      for (int n = in.readInt(); n > 0; n--) {
+        changes.addOldCode(codes.getId(ReleaseSnapshotCache.readString(in)));
+      }
+      for (int n = in.readInt(); n > 0; n--) {
+        changes.addNewCode(codes.getId(ReleaseSnapshotCache.readString(in)));
+      }
+      for (int n = in.readInt(); n > 0; n--) {
+        changes.addOldLabel(ReleaseSnapshotCache.readString(in));
+      }
+      for (int n = in.readInt(); n > 0; n--) {
+        changes.addNewLabel(ReleaseSnapshotCache.readString(in));
+      }
+      changeSets[i] = changes;
+    }
+    readIndex(in, changesByOldCode, changeSets);
+    readIndex(in, changesByNewCode, changeSets);
+    if (getProperties().getContext().getEngine() == TransitionEngine.components) {
+      components = Arrays.asList(changeSets);
+    }
   }
   
-  private Collection<CodeChanges> getAllChanges() {
-    return CollectionUtils.union(changesByOldCode.values(), changesByNewCode.values());
+  private void writeLabels(DataOutputStream out, LabelMap labels) throws IOException {
+    out.writeInt(labels.size());
+    labels.forEach((code, label) -> {
+      ReleaseSnapshotCache.writeString(out, codes.getCode(code));
+      ReleaseSnapshotCache.writeString(out, label);
+    });
   }
   
-  @Override
-  public List<CodeChanges> getAdditions() {
-    return getAllChanges().stream().filter(change -> change.getSemanticChange() == CodeChanges.SemanticChange.addition).collect(Collectors.toList());
+  private LabelMap readLabels(DataInputStream in) throws IOException {
+    var labels = new LabelMap(getProperties().getContext().getLabelArena(), codes.size());
+    for (int n = in.readInt(); n > 0; n--) {
+      labels.put(codes.getId(ReleaseSnapshotCache.readString(in)), ReleaseSnapshotCache.readString(in));
+    }
+    return labels;
   }
   
-  @Override
-  public List<CodeChanges> getDeletions() {
-    return getAllChanges().stream().filter(change -> change.getSemanticChange() == CodeChanges.SemanticChange.deletion).collect(Collectors.toList());
+  private void writeCodes(DataOutputStream out, IntSet ids) throws IOException {
+    out.writeInt(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      ReleaseSnapshotCache.writeString(out, codes.getCode(ids.get(i)));
+    }
   }
   
-  @Override
-  public List<CodeChanges> getMerges() {
-    return getAllChanges().stream().filter(change -> change.getSemanticChange() == CodeChanges.SemanticChange.merge).collect(Collectors.toList());
+  private void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      ReleaseSnapshotCache.writeString(out, value);
+    }
+  }
+  
+  private void writeIndex(DataOutputStream out, IntObjectMap<CodeChanges> index, Map<CodeChanges, Integer> changeSetIndexes) throws IOException {
+    out.writeInt(index.size());
+    index.forEach((code, changes) -> {
+      ReleaseSnapshotCache.writeString(out, codes.getCode(code));
+      out.writeInt(changeSetIndexes.get(changes));
+    });
+  }
+  
+  private void readIndex(DataInputStream in, IntObjectMap<CodeChanges> index, CodeChanges[] changeSets) throws IOException {
+    for (int n = in.readInt(); n > 0; n--) {
+      index.put(codes.getId(ReleaseSnapshotCache.readString(in)), changeSets[in.readInt()]);
+    }
   }
   
   @Override
-  public List<CodeChanges> getSplits() {
-    return getAllChanges().stream().filter(change -> change.getSemanticChange() == CodeChanges.SemanticChange.split).collect(Collectors.toList());
+  public LabelMap getOldLabels() {
+    return labelsOld;
   }
   
   @Override
-  public List<CodeChanges> getReplacements() {
-    return getAllChanges().stream().filter(change -> change.getSemanticChange() == CodeChanges.SemanticChange.replacement).collect(Collectors.toList());
+  public LabelMap getNewLabels() {
+    return labelsNew;
   }
   
+  /**
+   * A release that has been split into runs is classified run by run, and only the counts
+   * are kept.
+   */
   @Override
-  public List<CodeChanges> getRelabelings() {
-    return getAllChanges().stream().filter(change -> change.getLexicalChange() == CodeChanges.LexicalChange.labelReplacement).collect(Collectors.toList());
+  protected ChangeSummary summarise(double minorRelabelingThreshold, Consumer<? super CodeChanges> consumer) {
+    if (runs == null) {
+      return super.summarise(minorRelabelingThreshold, consumer);
+    }
+    var summary = ChangeSummary.sum(List.of());
+    for (int run = 0; run < runs.size(); run++) {
+      try {
+        var changeSets = analyseRun(run);
+        changeSets.forEach(consumer);
+        summary = ChangeSummary.sum(List.of(summary, ChangeSummary.of(changeSets, minorRelabelingThreshold)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return summary;
   }
   
+  /**
+   * The change sets of a release that has been split into runs are built again, run by
+   * run, whenever they are iterated.
+   */
   @Override
-  public List<CodeChanges> getLabelAdditions() {
-    return getAllChanges().stream().filter(change -> change.getLexicalChange() == CodeChanges.LexicalChange.labelAddition).collect(Collectors.toList());
+  protected Iterable<CodeChanges> getChangeSets() {
+    if (runs != null) {
+      return () -> IntStream.range(0, runs.size()).boxed().flatMap(run -> {
+        try {
+          return analyseRun(run).stream();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }).iterator();
+    }
+    return getBuiltChangeSets();
   }
   
+  /**
+   * The change sets of the maps or components are split along their tables, those of a
+   * release that has been split into runs are built run by run.
+   */
   @Override
-  public List<CodeChanges> getLabelDeletions() {
-    return getAllChanges().stream().filter(change -> change.getLexicalChange() == CodeChanges.LexicalChange.labelDeletion).collect(Collectors.toList());
+  protected Spliterator<CodeChanges> getChangeSetSpliterator() {
+    if (runs != null) {
+      return super.getChangeSetSpliterator();
+    }
+    return streamBuiltChangeSets().spliterator();
+  }
+  
+  private Iterable<CodeChanges> getBuiltChangeSets() {
+    if (components != null) {
+      return components;
+    }
+    return () -> streamBuiltChangeSets().iterator();
+  }
+  
+  private Stream<CodeChanges> streamBuiltChangeSets() {
+    if (components != null) {
+      return components.stream();
+    }
+    // A replacement is registered under both its old and its new code, so the change sets
+    // indexed by new code are skipped if they are also indexed by one of their old codes.
+    return Stream.concat(
+            changesByOldCode.values().stream(),
+            changesByNewCode.values().stream().filter(changes -> !isIndexedByOldCode(changes))
+    );
+  }
+  
+  private boolean isIndexedByOldCode(CodeChanges changes) {
+    var oldCodes = changes.getOldCodeIds();
+    for (int i = 0; i < oldCodes.size(); i++) {
+      if (changesByOldCode.get(oldCodes.get(i)) == changes) {
+        return true;
+      }
+    }
+    return false;
   }
 }
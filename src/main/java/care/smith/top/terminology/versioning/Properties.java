@@ -1,6 +1,7 @@
 package care.smith.top.terminology.versioning;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.nio.charset.Charset;
 import java.util.Map;
 
@@ -12,19 +13,29 @@ import java.util.Map;
  * @author Ralph Schäfermeier
  */
 public class Properties {
-  private final File directory;
+  private final Path directory;
   private final char separator;
   private final Charset encoding;
   private final Map<Column, Integer> columnPositions;
+  private final AnalysisContext context;
   
   public Properties(File directory, char separator, Charset encoding, Map<Column, Integer> columnPositions) {
+    this(directory.toPath(), separator, encoding, columnPositions, new AnalysisContext());
+  }
+  
+  /**
+   * @param directory the folder of the release, which may be inside an archive
+   * @param context the state shared with the other releases of the same terminology
+   */
+  public Properties(Path directory, char separator, Charset encoding, Map<Column, Integer> columnPositions, AnalysisContext context) {
     this.directory = directory;
     this.separator = separator;
     this.encoding = encoding;
     this.columnPositions = columnPositions;
+    this.context = context;
   }
   
-  public File getDirectory() {
+  public Path getDirectory() {
     return directory;
   }
   
@@ -39,4 +50,8 @@ public class Properties {
   public Charset getEncoding() {
     return encoding;
   }
+  
+  public AnalysisContext getContext() {
+    return context;
+  }
 }
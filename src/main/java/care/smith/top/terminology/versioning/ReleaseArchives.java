@@ -0,0 +1,99 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Opens the ZIP archives on the paths of releases as zip file systems, so the input files
+ * are read from the archives as they are published instead of being extracted first. A
+ * segment of a release path that names a ZIP file is entered like a folder, nested archives
+ * included, e.g. ops2006/ops2006syst.zip/Klassifikationsdateien.
+ *
+ * Each archive is opened once and shared by the releases in it. Entries are decompressed
+ * while they are read, without temporary files. An archive inside another one is held in
+ * memory by its file system, as it has to be read at random positions.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseArchives implements Closeable {
+  
+  private final Map<Path, FileSystem> fileSystems = new ConcurrentHashMap<>();
+  /** the file systems, the last opened first, so nested archives are closed before theirs */
+  private final Deque<FileSystem> opened = new ConcurrentLinkedDeque<>();
+  
+  /**
+   * @param path the path of a release relative to the root directory, with '/' between
+   *             segments
+   */
+  public Path resolve(Path root, String path) throws IOException {
+    Path resolved = root;
+    for (String segment : path.split("[/\\\\]")) {
+      if (segment.isEmpty()) {
+        continue;
+      }
+      resolved = resolved.resolve(segment);
+      if (isArchive(resolved)) {
+        resolved = open(resolved).getPath("/");
+      }
+    }
+    return resolved;
+  }
+  
+  public static boolean isArchive(Path path) {
+    return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip") && Files.isRegularFile(path);
+  }
+  
+  /**
+   * @return the path as a string that tells apart the entries of different archives, e.g.
+   *         jar:file:///data/ops2006syst.zip!/Klassifikationsdateien for a path in an archive
+   */
+  public static String describe(Path path) {
+    return path.getFileSystem() == FileSystems.getDefault() ? path.toString() : path.toUri().toString();
+  }
+  
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    FileSystem fileSystem;
+    while ((fileSystem = opened.poll()) != null) {
+      try {
+        fileSystem.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    fileSystems.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+  
+  private FileSystem open(Path archive) throws IOException {
+    try {
+      return fileSystems.computeIfAbsent(archive.toAbsolutePath().normalize(), key -> {
+        try {
+          var fileSystem = FileSystems.newFileSystem(key);
+          opened.push(fileSystem);
+          return fileSystem;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The input files of one release: the label files of the old and the new version and the
+ * transition (Umsteiger) file.
+ * @author Ralph Schäfermeier
+ */
+public record ReleaseFiles(Path fileOld, Path fileNew, Path fileTransitions) {
+  
+  private static final Pattern yearPattern = Pattern.compile("(\\d{4})");
+  
+  /**
+   * Finds the input files in the folder of a release. The label files are told apart by
+   * the year in their names, the transition file by "umsteiger" in its name. The folder may
+   * be inside an archive.
+   */
+  public static ReleaseFiles detect(Path folder) throws VersionInfoFileNotFoundException {
+    Path fileOld = null;
+    Path fileNew = null;
+    Path fileTransitions = null;
+    
+    List<Path> files;
+    try (var entries = Files.list(folder)) {
+      files = entries.filter(file -> !getName(file).contains("liesmich")).toList();
+    } catch (IOException e) {
+      throw new VersionInfoFileNotFoundException(String.format("Could not list the files in %s: %s", ReleaseArchives.describe(folder), e.getMessage()));
+    }
+    
+    for (Path file : files) {
+      if (getName(file).contains("umsteiger")) {
+        fileTransitions = file;
+      } else {
+        int year = getYear(file);
+        if (fileOld == null && fileNew == null && year != -1) {
+          fileOld = file;
+          fileNew = file;
+        } else if (year != -1) {
+          // either both fileOld and fileNew are null or both have a value, because we set both at the same time
+          if (year < getYear(fileOld)) {
+            fileOld = file;
+          } else {
+            fileNew = file;
+          }
+        }
+      }
+    }
+    
+    if (fileOld == null || fileNew == null)
+      throw new VersionInfoFileNotFoundException("Could not find version info files.");
+    if (fileOld.equals(fileNew))
+      throw new VersionInfoFileNotFoundException(String.format("Could only find one version info file but expected two: %s.", ReleaseArchives.describe(fileOld.toAbsolutePath())));
+    if (fileTransitions == null)
+      throw new VersionInfoFileNotFoundException("Could not find transition info file.");
+    
+    return new ReleaseFiles(fileOld, fileNew, fileTransitions);
+  }
+  
+  private static int getYear(Path file) {
+    Matcher matcher = yearPattern.matcher(file.getFileName().toString());
+    return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+  }
+  
+  private static String getName(Path file) {
+    return file.getFileName().toString().toLowerCase();
+  }
+}
@@ -0,0 +1,248 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Writes synthetic releases of a terminology in the layout of the published ones, so the
+ * analysis can be tested, profiled and benchmarked at any scale without the real data.
+ *
+ * Each release gets its own folder with the label files of the old and the new version
+ * (told apart by the year in their names) and an Umsteiger file. A properties.csv file
+ * describing all releases is written to the root folder.
+ *
+ * Codes are only kept as int ids and label versions while generating, the code strings
+ * and labels are derived from them when a file is written. That way, releases with tens
+ * of millions of codes fit into memory.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseGenerator {
+  
+  private static final String[] WORDS = {
+          "Operation", "Resektion", "Exzision", "Implantation", "Entfernung", "Revision", "Naht", "Rekonstruktion",
+          "am", "an", "der", "des", "mit", "ohne", "durch", "bei",
+          "Herzen", "Niere", "Gefäß", "Schädel", "Magen", "Darm", "Leber", "Lunge", "Hüftgelenk", "Wirbelsäule",
+          "offen", "chirurgisch", "perkutan", "endoskopisch", "laparoskopisch", "transluminal", "partiell", "total",
+          "Öffnung", "Übergang", "Prothese", "Transplantat", "Katheter", "Stent", "Ballon", "Naht"
+  };
+  
+  private static final int BUFFER_SIZE = 1 << 20;
+  
+  private final ReleaseGeneratorOptions options;
+  private final Random random;
+  private final char separator;
+  private final String[] columns;
+  private final int columnOld;
+  private final int columnNew;
+  private int nextId;
+  
+  public ReleaseGenerator(ReleaseGeneratorOptions options) {
+    this.options = options;
+    this.random = new Random(options.getSeed());
+    this.separator = options.getSeparator();
+    this.columns = options.getColumns().split(Pattern.quote(String.valueOf(separator)), -1);
+    this.columnOld = Arrays.asList(columns).indexOf(Column.CODE_OLD.getCode());
+    this.columnNew = Arrays.asList(columns).indexOf(Column.CODE_NEW.getCode());
+    
+    if (columnOld < 0 || columnNew < 0)
+      throw new IllegalArgumentException(String.format("The column layout must contain %s and %s: %s", Column.CODE_OLD.getCode(), Column.CODE_NEW.getCode(), options.getColumns()));
+    if (!options.getUndefinedCode().equalsIgnoreCase("none") && !options.getUndefinedCode().equalsIgnoreCase("undef"))
+      throw new IllegalArgumentException("The undefined code must be \"none\" or \"undef\" (in any case), otherwise the analyser cannot detect it: " + options.getUndefinedCode());
+    if (options.getEncodings().isEmpty())
+      throw new IllegalArgumentException("At least one encoding is required");
+  }
+  
+  public void generate() throws IOException {
+    Path root = Files.createDirectories(options.getOutputDirectory().toPath());
+    
+    var codes = new IntList(options.getCodes());
+    var versions = new IntList(options.getCodes());
+    for (int i = 0; i < options.getCodes(); i++) {
+      codes.add(i);
+      versions.add(0);
+    }
+    nextId = options.getCodes();
+    
+    try (var properties = Files.newBufferedWriter(root.resolve("properties.csv"), StandardCharsets.UTF_8)) {
+      properties.write("\"path\",\"separator\",\"columns\",\"encoding\"\n");
+      
+      for (int release = 0; release < options.getReleases(); release++) {
+        int yearOld = options.getFirstYear() + release;
+        int yearNew = yearOld + 1;
+        var encoding = Charset.forName(options.getEncodings().get(Math.min(release, options.getEncodings().size() - 1)));
+        String path = String.format("/%s%d/Klassifikationsdateien", options.getPrefix(), yearNew);
+        Path directory = Files.createDirectories(root.resolve(path.substring(1)));
+        
+        writeLabels(directory.resolve(String.format("%s%dsyst_kodes.txt", options.getPrefix(), yearOld)), encoding, codes, versions);
+        
+        var newCodes = new IntList(codes.size() + codes.size() / 8);
+        var newVersions = new IntList(codes.size() + codes.size() / 8);
+        Path transitionFile = directory.resolve(String.format("%s%dsyst_umsteiger_%d_%d.txt", options.getPrefix(), yearNew, yearOld, yearNew));
+        try (var transitions = writer(transitionFile, encoding)) {
+          writeTransitions(transitions, codes, versions, newCodes, newVersions);
+        }
+        
+        writeLabels(directory.resolve(String.format("%s%dsyst_kodes.txt", options.getPrefix(), yearNew)), encoding, newCodes, newVersions);
+        
+        properties.write(String.format("\"%s\",\"%s\",\"%s\",\"%s\"%n", path, separator, options.getColumns(), encoding.name()));
+        System.out.printf("Generated release %d: %d codes -> %d codes%n", yearNew, codes.size(), newCodes.size());
+        
+        codes = newCodes;
+        versions = newVersions;
+      }
+    }
+  }
+  
+  private void writeTransitions(BufferedWriter out, IntList codes, IntList versions, IntList newCodes, IntList newVersions) throws IOException {
+    double deletion = options.getDeletionRatio();
+    double replacement = deletion + options.getReplacementRatio();
+    double split = replacement + options.getSplitRatio();
+    double merge = split + options.getMergeRatio();
+    
+    for (int i = 0; i < codes.size(); i++) {
+      int code = codes.get(i);
+      double shape = random.nextDouble();
+      if (shape < deletion) {
+        writeTransition(out, code(code), options.getUndefinedCode());
+      } else if (shape < replacement) {
+        int target = addCode(newCodes, newVersions);
+        writeTransition(out, code(code), code(target));
+      } else if (shape < split) {
+        for (int n = 2 + random.nextInt(2); n > 0; n--) {
+          int target = addCode(newCodes, newVersions);
+          writeTransition(out, code(code), code(target));
+        }
+      } else if (shape < merge && i + 1 < codes.size()) {
+        int target = addCode(newCodes, newVersions);
+        writeTransition(out, code(code), code(target));
+        writeTransition(out, code(codes.get(++i)), code(target));
+      } else {
+        newCodes.add(code);
+        newVersions.add(random.nextDouble() < options.getRelabelingRatio() ? versions.get(i) + 1 : versions.get(i));
+        writeTransition(out, code(code), code(code));
+      }
+    }
+    
+    for (long n = Math.round(codes.size() * options.getAdditionRatio()); n > 0; n--) {
+      int target = addCode(newCodes, newVersions);
+      writeTransition(out, options.getUndefinedCode(), code(target));
+    }
+  }
+  
+  private int addCode(IntList codes, IntList versions) {
+    int id = nextId++;
+    codes.add(id);
+    versions.add(0);
+    return id;
+  }
+  
+  private void writeTransition(BufferedWriter out, String oldCode, String newCode) throws IOException {
+    for (int column = 0; column < columns.length; column++) {
+      if (column > 0) {
+        out.write(separator);
+      }
+      if (column == columnOld) {
+        out.write(oldCode);
+      } else if (column == columnNew) {
+        out.write(newCode);
+      } else {
+        out.write(columns[column]);
+      }
+    }
+    out.write('\n');
+  }
+  
+  private void writeLabels(Path file, Charset encoding, IntList codes, IntList versions) throws IOException {
+    try (var out = writer(file, encoding)) {
+      out.write(options.getUndefinedCode());
+      out.write(separator);
+      out.write("undefiniert\n");
+      for (int i = 0; i < codes.size(); i++) {
+        out.write(code(codes.get(i)));
+        out.write(separator);
+        out.write(label(codes.get(i), versions.get(i)));
+        out.write('\n');
+      }
+    }
+  }
+  
+  private static BufferedWriter writer(Path file, Charset encoding) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), encoding), BUFFER_SIZE);
+  }
+  
+  /**
+   * @return an OPS like code, e.g. 5-470.01, that is unique for the id
+   */
+  static String code(int id) {
+    int chapter = 1 + id % 9;
+    int rest = id / 9;
+    var code = new StringBuilder(12).append(chapter).append('-');
+    String group = Integer.toString(rest / 100);
+    for (int i = group.length(); i < 3; i++) {
+      code.append('0');
+    }
+    code.append(group).append('.');
+    int subgroup = rest % 100;
+    if (subgroup < 10) {
+      code.append('0');
+    }
+    return code.append(subgroup).toString();
+  }
+  
+  /**
+   * @return a label that only depends on the id and the version of the code
+   */
+  static String label(int id, int version) {
+    long hash = mix(((long) id << 32) | version);
+    var label = new StringBuilder(64);
+    for (int n = 3 + (int) (hash & 7); n > 0; n--) {
+      hash = mix(hash);
+      if (!label.isEmpty()) {
+        label.append(' ');
+      }
+      label.append(WORDS[(int) ((hash >>> 1) % WORDS.length)]);
+    }
+    return label.toString();
+  }
+  
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+  
+  /**
+   * A growable array of ints, as boxing tens of millions of codes is not an option.
+   */
+  private static class IntList {
+    private int[] values;
+    private int size;
+    
+    IntList(int capacity) {
+      values = new int[Math.max(capacity, 16)];
+    }
+    
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, (int) Math.min(Integer.MAX_VALUE - 8, values.length * 3L / 2));
+      }
+      values[size++] = value;
+    }
+    
+    int get(int index) {
+      return values[index];
+    }
+    
+    int size() {
+      return size;
+    }
+  }
+}
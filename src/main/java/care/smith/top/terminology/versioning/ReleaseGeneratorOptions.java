@@ -0,0 +1,195 @@
+package care.smith.top.terminology.versioning;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.converters.FileConverter;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Options of the synthetic release generator.
+ * @author Ralph Schäfermeier
+ */
+@Parameters(commandDescription = "Writes synthetic releases in the layout of the published OPS and ICD-10-GM releases, together with a properties.csv file.")
+public class ReleaseGeneratorOptions {
+  
+  @Parameter(
+          description = "The root folder to write the releases to. Its name selects the analyser, e.g. ops or icd10gm.",
+          converter = FileConverter.class,
+          required = true)
+  private File outputDirectory;
+  
+  @Parameter(names = "--codes", description = "The number of codes in the first version.")
+  private int codes = 30000;
+  
+  @Parameter(names = "--releases", description = "The number of releases, i.e. transitions between consecutive versions.")
+  private int releases = 5;
+  
+  @Parameter(names = "--first-year", description = "The year of the first version. The first release goes from this year to the next.")
+  private int firstYear = 2004;
+  
+  @Parameter(names = "--replacements", description = "The share of codes that are replaced by a single new code per release.")
+  private double replacementRatio = 0.01;
+  
+  @Parameter(names = "--splits", description = "The share of codes that are split into two or three new codes per release.")
+  private double splitRatio = 0.01;
+  
+  @Parameter(names = "--merges", description = "The share of codes that are merged with the following code into a new code per release.")
+  private double mergeRatio = 0.01;
+  
+  @Parameter(names = "--deletions", description = "The share of codes that are deleted per release.")
+  private double deletionRatio = 0.005;
+  
+  @Parameter(names = "--additions", description = "The number of added codes per release, relative to the number of codes in the old version.")
+  private double additionRatio = 0.02;
+  
+  @Parameter(names = "--relabelings", description = "The share of the kept codes that get a new label per release.")
+  private double relabelingRatio = 0.03;
+  
+  @Parameter(names = "--encodings", description = "The encodings of the releases. If there are fewer encodings than releases, the last one is used for the remaining releases.")
+  private List<String> encodings = List.of("windows-1252", "UTF-8");
+  
+  @Parameter(names = "--columns", description = "The column layout of the transition files, in the notation of the columns cell in properties.csv. Cells other than code_old and code_new are filled with their name.")
+  private String columns = "code_old;N;code_new;N;A;A";
+  
+  @Parameter(names = "--separator", description = "The separator of all files.")
+  private String separator = ";";
+  
+  @Parameter(names = "--undefined-code", description = "The code that stands for \"no code\" in the transition files.")
+  private String undefinedCode = "UNDEF";
+  
+  @Parameter(names = "--prefix", description = "The prefix of the release folders and files.")
+  private String prefix = "ops";
+  
+  @Parameter(names = "--seed", description = "The seed of the random generator. The same seed and options produce the same releases.")
+  private long seed = 42;
+  
+  public File getOutputDirectory() {
+    return outputDirectory;
+  }
+  
+  public void setOutputDirectory(File outputDirectory) {
+    this.outputDirectory = outputDirectory;
+  }
+  
+  public int getCodes() {
+    return codes;
+  }
+  
+  public void setCodes(int codes) {
+    this.codes = codes;
+  }
+  
+  public int getReleases() {
+    return releases;
+  }
+  
+  public void setReleases(int releases) {
+    this.releases = releases;
+  }
+  
+  public int getFirstYear() {
+    return firstYear;
+  }
+  
+  public void setFirstYear(int firstYear) {
+    this.firstYear = firstYear;
+  }
+  
+  public double getReplacementRatio() {
+    return replacementRatio;
+  }
+  
+  public void setReplacementRatio(double replacementRatio) {
+    this.replacementRatio = replacementRatio;
+  }
+  
+  public double getSplitRatio() {
+    return splitRatio;
+  }
+  
+  public void setSplitRatio(double splitRatio) {
+    this.splitRatio = splitRatio;
+  }
+  
+  public double getMergeRatio() {
+    return mergeRatio;
+  }
+  
+  public void setMergeRatio(double mergeRatio) {
+    this.mergeRatio = mergeRatio;
+  }
+  
+  public double getDeletionRatio() {
+    return deletionRatio;
+  }
+  
+  public void setDeletionRatio(double deletionRatio) {
+    this.deletionRatio = deletionRatio;
+  }
+  
+  public double getAdditionRatio() {
+    return additionRatio;
+  }
+  
+  public void setAdditionRatio(double additionRatio) {
+    this.additionRatio = additionRatio;
+  }
+  
+  public double getRelabelingRatio() {
+    return relabelingRatio;
+  }
+  
+  public void setRelabelingRatio(double relabelingRatio) {
+    this.relabelingRatio = relabelingRatio;
+  }
+  
+  public List<String> getEncodings() {
+    return encodings;
+  }
+  
+  public void setEncodings(List<String> encodings) {
+    this.encodings = encodings;
+  }
+  
+  public String getColumns() {
+    return columns;
+  }
+  
+  public void setColumns(String columns) {
+    this.columns = columns;
+  }
+  
+  public char getSeparator() {
+    return separator.charAt(0);
+  }
+  
+  public void setSeparator(char separator) {
+    this.separator = String.valueOf(separator);
+  }
+  
+  public String getUndefinedCode() {
+    return undefinedCode;
+  }
+  
+  public void setUndefinedCode(String undefinedCode) {
+    this.undefinedCode = undefinedCode;
+  }
+  
+  public String getPrefix() {
+    return prefix;
+  }
+  
+  public void setPrefix(String prefix) {
+    this.prefix = prefix;
+  }
+  
+  public long getSeed() {
+    return seed;
+  }
+  
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+}
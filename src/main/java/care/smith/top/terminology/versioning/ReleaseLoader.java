@@ -0,0 +1,180 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.BatchRunnerException;
+import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderHeaderAware;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the properties file of a root directory and creates the analysers of its releases,
+ * which all share one {@link AnalysisContext}.
+ *
+ * The analyser is chosen by the name of the root directory, e.g. ops selects the
+ * {@link OPSVersionTransitionAnalyser}, and created by its factory from the
+ * {@link AnalyserRegistry}. The path of a release may lead into ZIP archives,
+ * which are read through {@link ReleaseArchives}.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseLoader {
+  
+  private static final Pattern yearPattern = Pattern.compile("(\\d{4})");
+  
+  // the heap an analyser takes per byte of its label files and of its transition file, roughly
+  static final long HEAP_PER_LABEL_BYTE = 4;
+  static final long HEAP_PER_TRANSITION_BYTE = 20;
+  
+  private final File sourceDirectory;
+  private final AnalysisContext context = new AnalysisContext();
+  private final AnalyserFactory analyserFactory;
+  private final List<Map<String, String>> rows = new ArrayList<>();
+  
+  public ReleaseLoader(File sourceDirectory, BatchOptions options) throws BatchRunnerException, IOException {
+    this.sourceDirectory = sourceDirectory;
+    
+    context.setEngine(options.getEngine());
+    context.setMinorRelabelingThreshold(options.getMinorRelabelingThreshold());
+    context.setPipelinedReading(options.isPipelinedReading());
+    context.setHeapBudget(options.getHeapBudget() * 1024 * 1024);
+    if (options.getCacheDirectory() != null) {
+      context.setSnapshotCache(new ReleaseSnapshotCache(options.getCacheDirectory().toPath()));
+    }
+    
+    analyserFactory = AnalyserRegistry.get(sourceDirectory.getName());
+    
+    File propertiesFile = new File(sourceDirectory, "properties.csv");
+    try (var csvReader = new CSVReaderHeaderAware(new FileReader(propertiesFile))) {
+      Map<String, String> row;
+      while ((row = csvReader.readMap()) != null) {
+        rows.add(row);
+      }
+    } catch (CsvValidationException e) {
+      throw new BatchRunnerException(String.format("Could not read %s: %s", propertiesFile, e.getMessage()), e);
+    }
+    
+    shareLabelMaps(options.getParallelism());
+  }
+  
+  /**
+   * @return the rows of the properties file, one per release
+   */
+  public List<Map<String, String>> getRows() {
+    return Collections.unmodifiableList(rows);
+  }
+  
+  public File getSourceDirectory() {
+    return sourceDirectory;
+  }
+  
+  public AnalysisContext getContext() {
+    return context;
+  }
+  
+  /**
+   * @return the folder of the release, which may be inside an archive
+   */
+  public Path getDirectory(Map<String, String> row) throws IOException {
+    return context.getArchives().resolve(sourceDirectory.toPath(), row.get("path"));
+  }
+  
+  public ReleaseFiles getFiles(Map<String, String> row) throws VersionInfoFileNotFoundException, IOException {
+    return ReleaseFiles.detect(getDirectory(row));
+  }
+  
+  /**
+   * @return everything besides the input files that has an effect on the result of a release
+   */
+  public String getParameters(Map<String, String> row) {
+    return String.format(Locale.ROOT, "%s;%s;%s;%s", analyserFactory.getAnalyserClass().getName(), new TreeMap<>(row), context.getEngine(), context.getMinorRelabelingThreshold());
+  }
+  
+  /**
+   * @return an estimate of the heap in bytes that the analyser of the release takes, from
+   *         the sizes of its input files
+   */
+  public long estimateHeap(Map<String, String> row) throws VersionInfoFileNotFoundException, IOException {
+    var files = getFiles(row);
+    long transitions = Files.size(files.fileTransitions()) * HEAP_PER_TRANSITION_BYTE;
+    if (context.getHeapBudget() > 0) {
+      transitions = Math.min(transitions, context.getHeapBudget());
+    }
+    return (Files.size(files.fileOld()) + Files.size(files.fileNew())) * HEAP_PER_LABEL_BYTE + transitions;
+  }
+  
+  public AbstractTerminologyVersionTransitionAnalyser createAnalyser(Map<String, String> row) throws Exception {
+    return analyserFactory.create(buildProperties(row));
+  }
+  
+  /**
+   * Sets up the label map cache for the batch. Every release that is analysed at the same
+   * time needs two label maps, and the cache learns up front which releases use which
+   * label files, so it can drop each map after its last use.
+   */
+  private void shareLabelMaps(int parallelism) throws IOException {
+    int concurrentReleases = parallelism <= 0 ? rows.size() : Math.min(parallelism, rows.size());
+    var labelMapCache = new LabelMapCache(2 * concurrentReleases);
+    for (var row : rows) {
+      try {
+        var properties = buildProperties(row);
+        var files = ReleaseFiles.detect(properties.getDirectory());
+        labelMapCache.expectUse(files.fileOld(), properties);
+        labelMapCache.expectUse(files.fileNew(), properties);
+      } catch (VersionInfoFileNotFoundException | IOException | RuntimeException e) {
+        // reported when the release is analysed
+      }
+    }
+    context.setLabelMapCache(labelMapCache);
+  }
+  
+  /**
+   * @param parallelism the number of threads, 0 or less for one virtual thread per task
+   */
+  public static ExecutorService createExecutor(int parallelism) {
+    if (parallelism <= 0) {
+      return Executors.newVirtualThreadPerTaskExecutor();
+    }
+    return Executors.newFixedThreadPool(parallelism);
+  }
+  
+  /**
+   * The release year is taken from an optional "year" column. If there is none, it is the
+   * first four digit number in the path of the release (e.g. /ops2004/ops2004amtl/...).
+   */
+  public int getYear(Map<String, String> row) throws BatchRunnerException {
+    String year = row.get("year");
+    if (year != null && !year.isBlank()) {
+      return Integer.parseInt(year.trim());
+    }
+    Matcher matcher = yearPattern.matcher(row.get("path"));
+    if (!matcher.find()) {
+      throw new BatchRunnerException(String.format("Could not determine the release year of %s. Please add a year column to the properties file.", row.get("path")), null);
+    }
+    return Integer.parseInt(matcher.group(1));
+  }
+  
+  private Properties buildProperties(Map<String, String> row) throws IOException {
+    String path = row.get("path");
+    char separator = row.get("separator").charAt(0);
+    String encoding = row.get("encoding");
+    String columnsCsvRaw = row.get("columns"); // this is the value of a CSV cell, but it's CSV itself
+    
+    List<String> columnList = Arrays.stream(new CSVParserBuilder().withSeparator(separator).build().parseLine(columnsCsvRaw)).toList();
+    HashMap<Column, Integer> columns = new HashMap<>();
+    columns.put(Column.CODE_OLD, columnList.indexOf(Column.CODE_OLD.getCode()));
+    columns.put(Column.CODE_NEW, columnList.indexOf(Column.CODE_NEW.getCode()));
+    
+    return new Properties(context.getArchives().resolve(sourceDirectory.toPath(), path), separator, Charset.forName(encoding), columns, context);
+  }
+}
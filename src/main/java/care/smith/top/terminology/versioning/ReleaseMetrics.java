@@ -0,0 +1,170 @@
+package care.smith.top.terminology.versioning;
+
+import jdk.jfr.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Timings and counters of the phases of the analysis of one release.
+ *
+ * A phase is measured from {@link #start(String)} until it is closed. Each finished phase
+ * is kept for the metrics file of the batch and emitted as a JFR event, so it shows up in
+ * a flight recording next to GC and I/O events.
+ *
+ * Allocation is measured on the thread that runs the phase, which is -1 where the JVM
+ * cannot tell (e.g. on virtual threads). Heap figures are process wide: the heap in use
+ * when the phase ends and the peak of the heap since the start of the JVM.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseMetrics {
+  
+  public enum Anomaly {
+    /** An old and a new code that have both been mapped before, see the analyser's transition build */
+    weirdMapping,
+    /** A code that has been mapped to codes and to undefined at the same time */
+    mappedToUndefined
+  }
+  
+  @Name("care.smith.top.terminology.versioning.AnalysisPhase")
+  @Label("Analysis Phase")
+  @Category({"Terminology Versioning"})
+  @Description("A phase of the analysis of one release")
+  static class PhaseEvent extends Event {
+    @Label("Release")
+    String release;
+    
+    @Label("Phase")
+    String phase;
+    
+    @Label("Rows")
+    long rows;
+    
+    @Label("Bytes Read")
+    @DataAmount
+    long bytes;
+    
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+    
+    @Label("Weird Mappings")
+    int weirdMappings;
+    
+    @Label("Mapped To Undefined")
+    int mappedToUndefined;
+  }
+  
+  /**
+   * A finished phase.
+   */
+  public record PhaseMetrics(String phase, long durationNanos, long rows, long bytes, long allocatedBytes, long heapUsedBytes, long peakHeapBytes, EnumMap<Anomaly, Integer> anomalies) {
+    public int anomalies(Anomaly anomaly) {
+      return anomalies.getOrDefault(anomaly, 0);
+    }
+  }
+  
+  /**
+   * A running phase. Closing it records it.
+   */
+  public class Phase implements AutoCloseable {
+    private final String name;
+    private final long start = System.nanoTime();
+    private final long allocatedAtStart = allocatedBytes();
+    private final PhaseEvent event = new PhaseEvent();
+    private final EnumMap<Anomaly, Integer> anomalies = new EnumMap<>(Anomaly.class);
+    private long rows;
+    private long bytes;
+    
+    private Phase(String name) {
+      this.name = name;
+      event.begin();
+    }
+    
+    public void setRows(long rows) {
+      this.rows = rows;
+    }
+    
+    public void addBytes(long bytes) {
+      this.bytes += bytes;
+    }
+    
+    public void addAnomalies(Anomaly anomaly, int count) {
+      if (count > 0) {
+        anomalies.merge(anomaly, count, Integer::sum);
+      }
+    }
+    
+    @Override
+    public void close() {
+      long duration = System.nanoTime() - start;
+      long allocatedAtEnd = allocatedBytes();
+      long allocated = allocatedAtStart < 0 || allocatedAtEnd < 0 ? -1 : allocatedAtEnd - allocatedAtStart;
+      var metrics = new PhaseMetrics(name, duration, rows, bytes, allocated, heapUsed(), peakHeap(), anomalies);
+      synchronized (phases) {
+        phases.add(metrics);
+      }
+      
+      event.end();
+      if (event.shouldCommit()) {
+        event.release = release;
+        event.phase = name;
+        event.rows = rows;
+        event.bytes = bytes;
+        event.allocated = allocated;
+        event.weirdMappings = metrics.anomalies(Anomaly.weirdMapping);
+        event.mappedToUndefined = metrics.anomalies(Anomaly.mappedToUndefined);
+        event.commit();
+      }
+    }
+  }
+  
+  private final String release;
+  private final List<PhaseMetrics> phases = new ArrayList<>();
+  
+  /**
+   * @param release a name for the release in the JFR events, e.g. its directory
+   */
+  public ReleaseMetrics(String release) {
+    this.release = release;
+  }
+  
+  public Phase start(String phase) {
+    return new Phase(phase);
+  }
+  
+  /**
+   * @return the finished phases in the order they have finished
+   */
+  public List<PhaseMetrics> getPhases() {
+    synchronized (phases) {
+      return Collections.unmodifiableList(new ArrayList<>(phases));
+    }
+  }
+  
+  private static long allocatedBytes() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled()) {
+      return threads.getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+  
+  private static long heapUsed() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+  
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+}
@@ -0,0 +1,94 @@
+package care.smith.top.terminology.versioning;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs releases on a shared executor, but only as many at a time as their estimated heap
+ * allows. A release is admitted when its estimate fits into what the running releases have
+ * left of the capacity. Releases are admitted in the order they are submitted, and a small
+ * release may start ahead of a large one that does not fit yet, so large releases do not
+ * overlap while small ones fill the gaps. A release that is larger than the capacity runs
+ * on its own.
+ *
+ * The executor still limits the number of threads.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseScheduler {
+  
+  private record Task(long heap, Runnable start, Future<?> future) {}
+  
+  private final ExecutorService executor;
+  private final long capacity;
+  private final Deque<Task> pending = new ArrayDeque<>();
+  private long admitted;
+  private int running;
+  
+  /**
+   * @param capacity the heap in bytes that the running releases may take together
+   */
+  public ReleaseScheduler(ExecutorService executor, long capacity) {
+    this.executor = executor;
+    this.capacity = capacity;
+  }
+  
+  /**
+   * @return the scheduler for the heap of this JVM, keeping a quarter of it for everything
+   *         besides the analysers
+   */
+  public static ReleaseScheduler forHeap(ExecutorService executor) {
+    return new ReleaseScheduler(executor, Runtime.getRuntime().maxMemory() / 4 * 3);
+  }
+  
+  /**
+   * @param heap the estimated heap of the release in bytes
+   */
+  public synchronized <T> Future<T> submit(long heap, Callable<T> release) {
+    long reserved = Math.min(Math.max(0, heap), capacity);
+    var future = new CompletableFuture<T>();
+    pending.add(new Task(reserved, () -> {
+      try {
+        future.complete(release.call());
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      } finally {
+        finish(reserved);
+      }
+    }, future));
+    admit();
+    return future;
+  }
+  
+  /**
+   * Drops the releases that have not been admitted yet, e.g. because another release failed.
+   */
+  public synchronized void cancel() {
+    for (var task : pending) {
+      task.future().cancel(false);
+    }
+    pending.clear();
+  }
+  
+  private synchronized void finish(long heap) {
+    admitted -= heap;
+    running--;
+    admit();
+  }
+  
+  private void admit() {
+    for (Iterator<Task> tasks = pending.iterator(); tasks.hasNext(); ) {
+      var task = tasks.next();
+      if (running == 0 || admitted + task.heap() <= capacity) {
+        tasks.remove();
+        admitted += task.heap();
+        running++;
+        executor.execute(task.start());
+      }
+    }
+  }
+}
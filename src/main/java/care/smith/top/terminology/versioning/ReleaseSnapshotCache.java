@@ -0,0 +1,141 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * On-disk cache for the parsed state of releases.
+ *
+ * The published releases never change, so once a release has been parsed its state can be
+ * reused by later runs. An entry is keyed by the fingerprints of all input files of the
+ * release and by the parameters they were parsed with. If any of them changes, the entry
+ * is invalid and will be replaced.
+ *
+ * The cache only takes care of storing and validating entries. What goes into an entry is
+ * up to the analyser that writes it.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseSnapshotCache {
+  
+  private static final int MAGIC = 0x54565343; // "TVSC"
+  private static final int FORMAT_VERSION = 1;
+  
+  @FunctionalInterface
+  public interface SnapshotWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+  
+  private final Path directory;
+  
+  public ReleaseSnapshotCache(Path directory) throws IOException {
+    this.directory = Files.createDirectories(directory);
+  }
+  
+  /**
+   * @param parameters everything besides the input files that has an effect on the snapshot
+   * @return a stream positioned at the start of the snapshot or null if there is no valid entry.
+   *         The caller has to close it.
+   */
+  public DataInputStream open(String parameters, List<FileFingerprint> inputs) throws IOException {
+    Path entry = getEntry(inputs);
+    if (!Files.isRegularFile(entry)) {
+      return null;
+    }
+    var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry), 1 << 16));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(parameters)) {
+        in.close();
+        return null;
+      }
+      int count = in.readInt();
+      if (count != inputs.size()) {
+        in.close();
+        return null;
+      }
+      for (FileFingerprint input : inputs) {
+        if (!FileFingerprint.read(in).equals(input)) {
+          in.close();
+          return null;
+        }
+      }
+      return in;
+    } catch (IOException e) {
+      // a corrupt or truncated entry is treated like a missing one
+      in.close();
+      return null;
+    }
+  }
+  
+  /**
+   * Writes a new entry, replacing the existing one for the same input files.
+   * @return the size of the entry in bytes
+   */
+  public long store(String parameters, List<FileFingerprint> inputs, SnapshotWriter writer) throws IOException {
+    Path entry = getEntry(inputs);
+    Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(parameters);
+        out.writeInt(inputs.size());
+        for (FileFingerprint input : inputs) {
+          input.write(out);
+        }
+        writer.write(out);
+      }
+      long size = Files.size(temporary);
+      Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return size;
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+  
+  /**
+   * The entry only depends on the paths of the input files, so a changed release replaces
+   * its old entry instead of adding a new one.
+   */
+  private Path getEntry(List<FileFingerprint> inputs) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256");
+      for (FileFingerprint input : inputs) {
+        digest.update(input.path().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+      return directory.resolve(HexFormat.of().formatHex(digest.digest(), 0, 16) + ".snapshot");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  /**
+   * Writes a nullable String of any length.
+   */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+  
+  public static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
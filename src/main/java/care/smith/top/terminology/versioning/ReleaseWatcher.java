@@ -0,0 +1,210 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.BatchRunnerException;
+import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderHeaderAware;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs a batch and then watches the root directory for new release folders. A new folder
+ * is added to the properties file as soon as it contains the input files of a release and
+ * has stopped growing, and the batch is run again. Changes to the properties file itself
+ * also trigger a run.
+ *
+ * A new release gets the separator, encoding and columns of the newest release in the
+ * properties file, which is what BfArM usually keeps from one release to the next. If it
+ * does not, the row has to be corrected by hand, which triggers another run.
+ *
+ * Runs should use a {@link ResultStore}, so that only the new release is analysed.
+ * @author Ralph Schäfermeier
+ */
+public class ReleaseWatcher {
+  
+  private static final String PROPERTY_FILE_NAME = "properties.csv";
+  private static final long QUIET_PERIOD_SECONDS = 5;
+  private static final int MAX_DEPTH = 4;
+  private static final Pattern yearPattern = Pattern.compile("(\\d{4})");
+  
+  private final File sourceDirectory;
+  private final BatchOptions options;
+  private final Path propertiesFile;
+  
+  // new folders whose content is still being copied, with their size when they were last checked
+  private final Map<Path, Long> pending = new LinkedHashMap<>();
+  private long propertiesModified;
+  
+  public ReleaseWatcher(File sourceDirectory, BatchOptions options) {
+    this.sourceDirectory = sourceDirectory;
+    this.options = options;
+    this.propertiesFile = new File(sourceDirectory, PROPERTY_FILE_NAME).toPath();
+  }
+  
+  /**
+   * Runs until the thread is interrupted.
+   */
+  public void run() throws Exception {
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      Path root = sourceDirectory.toPath();
+      root.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      runBatch();
+      
+      while (!Thread.currentThread().isInterrupted()) {
+        boolean changed = false;
+        WatchKey key = pending.isEmpty() ? watcher.take() : watcher.poll(QUIET_PERIOD_SECONDS, TimeUnit.SECONDS);
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              changed = true;
+              continue;
+            }
+            Path path = root.resolve((Path) event.context());
+            if (Files.isDirectory(path) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+              System.out.printf("Waiting for new folder %s to be complete%n", path);
+              pending.put(path, -1L);
+            } else if (path.equals(propertiesFile) && Files.getLastModifiedTime(path).toMillis() != propertiesModified) {
+              changed = true;
+            }
+          }
+          key.reset();
+        }
+        changed |= addCompleteReleases();
+        if (changed) {
+          runBatch();
+        }
+      }
+    }
+  }
+  
+  private void runBatch() throws Exception {
+    try {
+      new AnalysisBatchRunner(sourceDirectory, options);
+    } catch (Exception e) {
+      // keep watching, the next change may fix it
+      System.err.printf("The batch run failed: %s%n", e.getMessage());
+      e.printStackTrace();
+    }
+    propertiesModified = Files.getLastModifiedTime(propertiesFile).toMillis();
+  }
+  
+  /**
+   * A pending folder is complete if it contains a release and its size has not changed
+   * since it was last checked.
+   * @return whether a release has been added to the properties file
+   */
+  private boolean addCompleteReleases() throws BatchRunnerException, IOException {
+    boolean added = false;
+    for (var iterator = pending.entrySet().iterator(); iterator.hasNext(); ) {
+      var folder = iterator.next();
+      if (!Files.isDirectory(folder.getKey())) {
+        iterator.remove();
+        continue;
+      }
+      long size = size(folder.getKey());
+      if (size != folder.getValue()) {
+        folder.setValue(size);
+        continue;
+      }
+      Path release = findRelease(folder.getKey());
+      if (release != null) {
+        iterator.remove();
+        added |= addRelease(release);
+      }
+    }
+    return added;
+  }
+  
+  private static long size(Path folder) throws IOException {
+    try (Stream<Path> files = Files.walk(folder)) {
+      return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+    }
+  }
+  
+  /**
+   * @return the first folder that contains the input files of a release or null
+   */
+  static Path findRelease(Path folder) throws IOException {
+    try (Stream<Path> folders = Files.walk(folder, MAX_DEPTH)) {
+      for (Path candidate : (Iterable<Path>) folders.filter(Files::isDirectory).sorted()::iterator) {
+        try {
+          ReleaseFiles.detect(candidate);
+          return candidate;
+        } catch (VersionInfoFileNotFoundException e) {
+          // not this one
+        }
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Appends a row for the release to the properties file, based on the row of the newest
+   * release.
+   * @return false if the release is in the properties file already or has no year in its path
+   */
+  boolean addRelease(Path release) throws BatchRunnerException, IOException {
+    String path = "/" + sourceDirectory.toPath().relativize(release).toString().replace(File.separatorChar, '/');
+    int year = year(path);
+    if (year < 0) {
+      System.err.printf("Cannot add %s, as there is no release year in its path%n", path);
+      return false;
+    }
+    
+    String[] header;
+    List<Map<String, String>> rows = new ArrayList<>();
+    try (var reader = Files.newBufferedReader(propertiesFile)) {
+      header = new CSVParserBuilder().build().parseLine(reader.readLine());
+    }
+    try (var csvReader = new CSVReaderHeaderAware(new FileReader(propertiesFile.toFile()))) {
+      Map<String, String> row;
+      while ((row = csvReader.readMap()) != null) {
+        if (row.get("path").equals(path)) {
+          return false;
+        }
+        rows.add(row);
+      }
+    } catch (CsvValidationException e) {
+      throw new BatchRunnerException(String.format("Could not read %s: %s", propertiesFile, e.getMessage()), e);
+    }
+    
+    var newest = rows.stream().max(Comparator.comparingInt(row -> year(row.get("path")))).orElse(null);
+    if (newest == null) {
+      System.err.printf("Cannot add %s, as there is no release in %s to take the file format from%n", path, propertiesFile);
+      return false;
+    }
+    var row = new LinkedHashMap<>(newest);
+    row.put("path", path);
+    if (row.containsKey("year")) {
+      row.put("year", Integer.toString(year));
+    }
+    
+    String[] line = new String[header.length];
+    for (int i = 0; i < header.length; i++) {
+      line[i] = row.getOrDefault(header[i], "");
+    }
+    byte[] content = Files.readAllBytes(propertiesFile);
+    if (content.length > 0 && content[content.length - 1] != '\n') {
+      Files.write(propertiesFile, new byte[] {'\n'}, StandardOpenOption.APPEND);
+    }
+    try (var writer = new CSVWriter(new OutputStreamWriter(new FileOutputStream(propertiesFile.toFile(), true), StandardCharsets.UTF_8))) {
+      writer.writeNext(line);
+    }
+    System.out.printf("Added %s to %s with the file format of %s%n", path, propertiesFile, newest.get("path"));
+    return true;
+  }
+  
+  private static int year(String path) {
+    Matcher matcher = yearPattern.matcher(path);
+    return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+  }
+}
@@ -0,0 +1,148 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Persists the results of the releases of a batch, so a later run only has to analyse the
+ * releases that are new or have changed.
+ *
+ * An entry is keyed by the path of its release in the properties file and is valid as long
+ * as the properties row, the analyser and the input files of the release are the same.
+ * Only the entries that have been used or added in a run are written back, so releases that
+ * have been removed from the properties file are dropped.
+ * @author Ralph Schäfermeier
+ */
+public class ResultStore {
+  
+  private static final int MAGIC = 0x54565253; // "TVRS"
+  private static final int FORMAT_VERSION = 1;
+  
+  /**
+   * The result of one release. The counts are kept by the names of the change types, so
+   * stored results stay readable when change types are added. An entry that lacks one of
+   * the current change types is out of date, though.
+   */
+  public record Entry(String parameters, List<FileFingerprint> inputs, int year, Map<String, Integer> counts) {
+    
+    public static Entry of(String parameters, List<FileFingerprint> inputs, int year, ChangeSummary summary) {
+      var counts = new LinkedHashMap<String, Integer>();
+      for (var type : CodeChanges.SemanticChange.values()) {
+        counts.put(type.name(), summary.count(type));
+      }
+      for (var type : CodeChanges.LexicalChange.values()) {
+        counts.put(type.name(), summary.count(type));
+      }
+      for (var severity : CodeChanges.RelabelingSeverity.values()) {
+        counts.put(severity.name(), summary.count(severity));
+      }
+      return new Entry(parameters, inputs, year, counts);
+    }
+    
+    public int count(Enum<?> type) {
+      return counts.getOrDefault(type.name(), 0);
+    }
+    
+    boolean isComplete() {
+      return Stream.of(CodeChanges.SemanticChange.values(), CodeChanges.LexicalChange.values(), CodeChanges.RelabelingSeverity.values())
+              .flatMap(Arrays::stream)
+              .allMatch(type -> counts.containsKey(type.name()));
+    }
+  }
+  
+  private final Path file;
+  private final Map<String, Entry> stored = new HashMap<>();
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+  
+  private ResultStore(Path file) {
+    this.file = file;
+  }
+  
+  /**
+   * Loads the store from the file. A missing, corrupt or incompatible file results in an
+   * empty store, which replaces the file when it is written.
+   */
+  public static ResultStore open(Path file) throws IOException {
+    var store = new ResultStore(file);
+    if (!Files.isRegularFile(file)) {
+      return store;
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        System.err.printf("Ignoring result store %s, which has been written by an incompatible version%n", file);
+        return store;
+      }
+      for (int n = in.readInt(); n > 0; n--) {
+        String key = ReleaseSnapshotCache.readString(in);
+        String parameters = ReleaseSnapshotCache.readString(in);
+        var inputs = new ArrayList<FileFingerprint>();
+        for (int i = in.readInt(); i > 0; i--) {
+          inputs.add(FileFingerprint.read(in));
+        }
+        int year = in.readInt();
+        var counts = new LinkedHashMap<String, Integer>();
+        for (int i = in.readInt(); i > 0; i--) {
+          counts.put(ReleaseSnapshotCache.readString(in), in.readInt());
+        }
+        store.stored.put(key, new Entry(parameters, inputs, year, counts));
+      }
+    } catch (EOFException e) {
+      System.err.printf("Ignoring truncated result store %s%n", file);
+      store.stored.clear();
+    }
+    return store;
+  }
+  
+  /**
+   * @return the stored entry or null if there is none or it is out of date
+   */
+  public Entry get(String key, String parameters, List<FileFingerprint> inputs) {
+    Entry entry = stored.get(key);
+    if (entry == null || !entry.parameters().equals(parameters) || !entry.inputs().equals(inputs) || !entry.isComplete()) {
+      return null;
+    }
+    current.put(key, entry);
+    return entry;
+  }
+  
+  public void put(String key, Entry entry) {
+    current.put(key, entry);
+  }
+  
+  /**
+   * Replaces the file with the entries that have been used or added since it was opened.
+   */
+  public void write() throws IOException {
+    Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(current.size());
+        for (var stored : new TreeMap<>(current).entrySet()) {
+          Entry entry = stored.getValue();
+          ReleaseSnapshotCache.writeString(out, stored.getKey());
+          ReleaseSnapshotCache.writeString(out, entry.parameters());
+          out.writeInt(entry.inputs().size());
+          for (FileFingerprint input : entry.inputs()) {
+            input.write(out);
+          }
+          out.writeInt(entry.year());
+          out.writeInt(entry.counts().size());
+          for (var count : entry.counts().entrySet()) {
+            ReleaseSnapshotCache.writeString(out, count.getKey());
+            out.writeInt(count.getValue());
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+}
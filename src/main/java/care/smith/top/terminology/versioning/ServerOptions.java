@@ -0,0 +1,64 @@
+package care.smith.top.terminology.versioning;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+import com.beust.jcommander.converters.FileConverter;
+
+import java.io.File;
+
+/**
+ * Options of the query server.
+ * @author Ralph Schäfermeier
+ */
+@Parameters(commandDescription = "Analyses all releases once and answers queries about them over HTTP until it is stopped.")
+public class ServerOptions {
+  
+  @Parameter(
+          description = "The root folder of the releases, the same as for a batch run.",
+          converter = FileConverter.class,
+          validateWith = Main.SourceDirectoryValidator.class,
+          required = true)
+  private File sourceDirectory;
+  
+  @Parameter(names = {"--host"}, description = "The address to listen on.")
+  private String host = "localhost";
+  
+  @Parameter(names = {"--port"}, description = "The port to listen on. 0 picks a free port.")
+  private int port = 8080;
+  
+  @ParametersDelegate
+  private BatchOptions batchOptions = new BatchOptions();
+  
+  public File getSourceDirectory() {
+    return sourceDirectory;
+  }
+  
+  public void setSourceDirectory(File sourceDirectory) {
+    this.sourceDirectory = sourceDirectory;
+  }
+  
+  public String getHost() {
+    return host;
+  }
+  
+  public void setHost(String host) {
+    this.host = host;
+  }
+  
+  public int getPort() {
+    return port;
+  }
+  
+  public void setPort(int port) {
+    this.port = port;
+  }
+  
+  public BatchOptions getBatchOptions() {
+    return batchOptions;
+  }
+  
+  public void setBatchOptions(BatchOptions batchOptions) {
+    this.batchOptions = batchOptions;
+  }
+}
@@ -0,0 +1,19 @@
+package care.smith.top.terminology.versioning;
+
+/**
+ * How the change sets of a release are built from its transition file.
+ * @author Ralph Schäfermeier
+ */
+public enum TransitionEngine {
+  /**
+   * Processes the rows in file order. The result may depend on the order of the rows, and
+   * mappings between several old and several new codes are reported as weird and skipped.
+   */
+  legacy,
+  /**
+   * Treats the transitions as a graph of old and new codes. Each connected component is
+   * one change set, regardless of the order of the rows, and components with several old
+   * and several new codes are classified as complex.
+   */
+  components
+}
@@ -0,0 +1,120 @@
+package care.smith.top.terminology.versioning;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the code columns of a transition file on another thread and hands the rows over
+ * as pairs of code ids, so the file can be parsed while the label files are still being
+ * read. The rows are passed on in batches through a bounded queue, so the parser waits
+ * when it gets too far ahead.
+ * @author Ralph Schäfermeier
+ */
+public class TransitionQueue {
+  
+  static final int BATCH_ROWS = 4096;
+  static final int CAPACITY = 16;
+  
+  private static final int[] END = new int[0];
+  
+  /**
+   * Receives the old and the new code id of a transition row.
+   */
+  @FunctionalInterface
+  public interface TransitionHandler {
+    void handle(int oldCode, int newCode) throws IOException;
+  }
+  
+  // old and new code id of each row, alternating; a batch of length 0 ends the file
+  private final BlockingQueue<int[]> batches = new ArrayBlockingQueue<>(CAPACITY);
+  private final Future<Long> parser;
+  
+  /**
+   * Starts parsing the file.
+   */
+  public TransitionQueue(Path file, Properties properties, ReleaseMetrics metrics, ExecutorService executor) {
+    var codes = properties.getContext().getCodes();
+    parser = executor.submit(() -> {
+      boolean ended = false;
+      try (var phase = metrics.start("transition parse")) {
+        phase.addBytes(Files.size(file));
+        int[][] batch = {new int[BATCH_ROWS * 2]};
+        int[] size = {0};
+        long rows = DelimitedFileReader.forTransitions(properties).read(file, cells -> {
+          batch[0][size[0]++] = codes.getId(cells[0]);
+          batch[0][size[0]++] = codes.getId(cells[1]);
+          if (size[0] == batch[0].length) {
+            put(batch[0]);
+            batch[0] = new int[BATCH_ROWS * 2];
+            size[0] = 0;
+          }
+        });
+        if (size[0] > 0) {
+          put(Arrays.copyOf(batch[0], size[0]));
+        }
+        put(END);
+        ended = true;
+        phase.setRows(rows);
+        return rows;
+      } finally {
+        if (!ended) {
+          // make room for the end, the rows are of no use anymore
+          batches.clear();
+          batches.offer(END);
+        }
+      }
+    });
+  }
+  
+  /**
+   * Passes all rows to the handler, waiting for the parser where it has not got that far.
+   * @return the number of rows
+   */
+  public long forEach(TransitionHandler handler) throws IOException {
+    try {
+      int[] batch;
+      while ((batch = batches.take()) != END) {
+        for (int i = 0; i < batch.length; i += 2) {
+          handler.handle(batch[i], batch[i + 1]);
+        }
+      }
+      return parser.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for transition rows");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+  
+  /**
+   * Stops the parser if it is still running, e.g. because reading the labels failed.
+   */
+  public void cancel() {
+    parser.cancel(true);
+    batches.clear();
+  }
+  
+  private void put(int[] batch) throws IOException {
+    try {
+      batches.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing transition rows");
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.LongSorter;
+
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The rows of a transition file, split into runs on disk that can be analysed one at a
+ * time, so the change sets of a release do not all have to be on the heap at once.
+ *
+ * Rows that share an old or a new code end up in the same change set, so a change set is a
+ * connected component of the graph the rows span, with the same nodes as in the components
+ * engine. The rows are assigned to runs by the hash of the smallest node of their component
+ * and keep the order of the file within a run. Each run thus holds complete change sets,
+ * and both engines build the same change sets from the runs as from the file. A single
+ * component that is larger than a run should be cannot be split.
+ *
+ * The components are found with external sorts, so the heap they take follows from the
+ * heap budget rather than from the size of the release.
+ *
+ * A run is a file of the old and new code ids of its rows. The files are deleted when the
+ * runs are closed or no longer used, or when the JVM exits.
+ * @author Ralph Schäfermeier
+ */
+public class TransitionRuns implements Closeable {
+  
+  private static final Cleaner cleaner = Cleaner.create();
+  private static final int BUFFER_SIZE = 1 << 13;
+  private static final int MIN_CHUNK_SIZE = 1 << 12;
+  private static final int MAX_CHUNK_SIZE = 1 << 24;
+  // a node is a code id shifted by one bit, which has to stay below Integer.MAX_VALUE
+  private static final int MAX_CODES = (1 << 30) - 1;
+  
+  private final Path[] files;
+  private final long[] rows;
+  private final Cleaner.Cleanable cleanable;
+  
+  private TransitionRuns(Path directory, Path[] files, long[] rows) {
+    this.files = files;
+    this.rows = rows;
+    cleanable = cleaner.register(this, () -> delete(directory, files));
+  }
+  
+  /**
+   * Reads the transition file once, finds the components with external sorts and writes
+   * the rows to their runs.
+   * @param undefinedCode the id of the code that stands for "no code" or -1
+   */
+  public static TransitionRuns write(Path file, Properties properties, int undefinedCode, int count) throws IOException {
+    Path directory = Files.createTempDirectory("transition-runs");
+    // in case the JVM ends before the runs are cleaned, the files are deleted before the directory
+    directory.toFile().deleteOnExit();
+    var files = new Path[count];
+    var rows = new long[count];
+    var outputs = new DataOutputStream[count];
+    Path rowFile = directory.resolve("rows.bin");
+    Path labelFile = directory.resolve("row_labels.bin");
+    try {
+      try {
+        findComponents(file, properties, undefinedCode, directory, rowFile, labelFile);
+        for (int run = 0; run < count; run++) {
+          files[run] = directory.resolve(String.format("run_%d.bin", run));
+          files[run].toFile().deleteOnExit();
+          outputs[run] = output(files[run]);
+        }
+        try (var rowsIn = input(rowFile); var labelsIn = input(labelFile)) {
+          for (long row = Files.size(rowFile) / (2 * Integer.BYTES); row > 0; row--) {
+            int oldCode = rowsIn.readInt();
+            int newCode = rowsIn.readInt();
+            int run = Math.floorMod(mix((int) labelsIn.readLong()), count);
+            outputs[run].writeInt(oldCode);
+            outputs[run].writeInt(newCode);
+            rows[run]++;
+          }
+        }
+      } finally {
+        Files.deleteIfExists(rowFile);
+        Files.deleteIfExists(labelFile);
+      }
+    } catch (IOException | RuntimeException e) {
+      try {
+        closeAll(outputs);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      delete(directory, files);
+      throw e;
+    }
+    closeAll(outputs);
+    return new TransitionRuns(directory, files, rows);
+  }
+  
+  /**
+   * Labels every row with the smallest node of its component. The nodes are the old codes
+   * (code id << 1) and the new codes (code id << 1 | 1), and the rows that map an old code to
+   * a new one are the edges between them. Each node starts with itself as its label and
+   * takes the smallest label of its neighbours until no label changes any more, which takes
+   * as many rounds as the longest path in a component, a handful for real releases. Every
+   * round is a merge of the sorted edges with the sorted labels, so only the chunks of the
+   * sorts are on the heap.
+   * @param rowFile receives the old and new code of every row, in the order of the file
+   * @param labelFile receives the label of every row (row << 32 | label), in the same order
+   */
+  private static void findComponents(Path file, Properties properties, int undefinedCode, Path directory, Path rowFile, Path labelFile) throws IOException {
+    var codes = properties.getContext().getCodes();
+    int chunkSize = getChunkSize(properties.getContext().getHeapBudget());
+    Path edgeFile = directory.resolve("edges.bin");
+    Path rowNodeFile = directory.resolve("row_nodes.bin");
+    Path nodeLabelFile = directory.resolve("node_labels.bin");
+    Path candidateFile = directory.resolve("candidates.bin");
+    try {
+      // the edges in both directions (node << 32 | neighbour) and the node of each row (node << 32 | row)
+      try (var rowsOut = output(rowFile); var edges = new LongSorter(directory, chunkSize); var rowNodes = new LongSorter(directory, chunkSize)) {
+        int[] row = {0};
+        DelimitedFileReader.forTransitions(properties).read(file, cells -> {
+          int oldCode = codes.getId(cells[0]);
+          int newCode = codes.getId(cells[1]);
+          if (oldCode >= MAX_CODES || newCode >= MAX_CODES) {
+            throw new IllegalStateException("Too many codes to split the transitions into runs");
+          }
+          rowsOut.writeInt(oldCode);
+          rowsOut.writeInt(newCode);
+          rowNodes.add(pack(oldCode == undefinedCode ? newCode << 1 | 1 : oldCode << 1, row[0]++));
+          if (oldCode != undefinedCode && newCode != undefinedCode) {
+            edges.add(pack(oldCode << 1, newCode << 1 | 1));
+            edges.add(pack(newCode << 1 | 1, oldCode << 1));
+          }
+        });
+        edges.sortTo(edgeFile);
+        rowNodes.sortTo(rowNodeFile);
+      }
+      
+      // the label of every node with an edge (node << 32 | label), sorted by node
+      try (var edgesIn = input(edgeFile); var labelsOut = output(nodeLabelFile)) {
+        int previous = -1;
+        for (long edge = Files.size(edgeFile) / Long.BYTES; edge > 0; edge--) {
+          int node = (int) (edgesIn.readLong() >>> 32);
+          if (node != previous) {
+            labelsOut.writeLong(pack(node, node));
+            previous = node;
+          }
+        }
+      }
+      
+      boolean changed = true;
+      while (changed) {
+        try (var candidates = new LongSorter(directory, chunkSize)) {
+          // every node keeps its label and offers it to its neighbours
+          try (var labelsIn = input(nodeLabelFile); var edgesIn = input(edgeFile)) {
+            long edges = Files.size(edgeFile) / Long.BYTES;
+            long edge = edges-- > 0 ? edgesIn.readLong() : -1;
+            for (long node = Files.size(nodeLabelFile) / Long.BYTES; node > 0; node--) {
+              long label = labelsIn.readLong();
+              candidates.add(label);
+              while (edge >= 0 && edge >>> 32 == label >>> 32) {
+                candidates.add(pack((int) edge, (int) label));
+                edge = edges-- > 0 ? edgesIn.readLong() : -1;
+              }
+            }
+          }
+          candidates.sortTo(candidateFile);
+        }
+        changed = takeSmallestLabels(candidateFile, nodeLabelFile);
+      }
+      
+      // nodes without edges are components of their own
+      try (var rowLabels = new LongSorter(directory, chunkSize)) {
+        try (var rowNodesIn = input(rowNodeFile); var labelsIn = input(nodeLabelFile)) {
+          long labels = Files.size(nodeLabelFile) / Long.BYTES;
+          long label = labels-- > 0 ? labelsIn.readLong() : Long.MAX_VALUE;
+          for (long row = Files.size(rowNodeFile) / Long.BYTES; row > 0; row--) {
+            long rowNode = rowNodesIn.readLong();
+            int node = (int) (rowNode >>> 32);
+            while (label >>> 32 < node) {
+              label = labels-- > 0 ? labelsIn.readLong() : Long.MAX_VALUE;
+            }
+            rowLabels.add(pack((int) rowNode, label >>> 32 == node ? (int) label : node));
+          }
+        }
+        rowLabels.sortTo(labelFile);
+      }
+    } finally {
+      Files.deleteIfExists(edgeFile);
+      Files.deleteIfExists(rowNodeFile);
+      Files.deleteIfExists(nodeLabelFile);
+      Files.deleteIfExists(candidateFile);
+    }
+  }
+  
+  /**
+   * Replaces the label of each node with the smallest of its candidates, which come first
+   * as the candidates are sorted by node and label.
+   * @return whether a label has changed
+   */
+  private static boolean takeSmallestLabels(Path candidateFile, Path labelFile) throws IOException {
+    Path next = labelFile.resolveSibling("next_" + labelFile.getFileName());
+    boolean changed = false;
+    try (var candidatesIn = input(candidateFile); var labelsIn = input(labelFile); var labelsOut = output(next)) {
+      long previous = -1;
+      for (long candidate = Files.size(candidateFile) / Long.BYTES; candidate > 0; candidate--) {
+        long label = candidatesIn.readLong();
+        if (label >>> 32 != previous) {
+          changed |= label != labelsIn.readLong();
+          labelsOut.writeLong(label);
+          previous = label >>> 32;
+        }
+      }
+    }
+    Files.move(next, labelFile, StandardCopyOption.REPLACE_EXISTING);
+    return changed;
+  }
+  
+  /**
+   * @return the number of longs each sort keeps on the heap, so the two sorts that run at
+   *         the same time take a quarter of the heap budget
+   */
+  private static int getChunkSize(long heapBudget) {
+    return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, heapBudget / 8 / Long.BYTES));
+  }
+  
+  private static long pack(int high, int low) {
+    return (long) high << 32 | (low & 0xFFFFFFFFL);
+  }
+  
+  private static DataInputStream input(Path file) throws IOException {
+    return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+  }
+  
+  private static DataOutputStream output(Path file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+  }
+  
+  /**
+   * @return the number of runs
+   */
+  public int size() {
+    return files.length;
+  }
+  
+  /**
+   * @return the number of rows in all runs
+   */
+  public long getRows() {
+    long sum = 0;
+    for (long count : rows) {
+      sum += count;
+    }
+    return sum;
+  }
+  
+  /**
+   * Passes the rows of a run to the handler in the order of the file.
+   * @return the number of rows
+   */
+  public long forEach(int run, TransitionQueue.TransitionHandler handler) throws IOException {
+    try (var in = input(files[run])) {
+      for (long row = 0; row < rows[run]; row++) {
+        handler.handle(in.readInt(), in.readInt());
+      }
+    }
+    return rows[run];
+  }
+  
+  @Override
+  public void close() {
+    cleanable.clean();
+  }
+  
+  private static void closeAll(DataOutputStream[] outputs) throws IOException {
+    IOException failure = null;
+    for (var out : outputs) {
+      try {
+        if (out != null) {
+          out.close();
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+  
+  private static void delete(Path directory, Path[] files) {
+    try {
+      for (Path file : files) {
+        if (file != null) {
+          Files.deleteIfExists(file);
+        }
+      }
+      Files.deleteIfExists(directory);
+    } catch (IOException e) {
+      System.err.printf("Could not delete the transition runs in %s: %s%n", directory, e.getMessage());
+    }
+  }
+  
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
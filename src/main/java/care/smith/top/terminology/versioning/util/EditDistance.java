@@ -0,0 +1,105 @@
+package care.smith.top.terminology.versioning.util;
+
+import java.util.Arrays;
+
+/**
+ * Levenshtein distance computed with Myers' bit-parallel algorithm. The columns of the
+ * dynamic programming matrix are kept as bit vectors of vertical deltas, 64 rows per word,
+ * so a pair of strings takes O(n * ceil(m / 64)) word operations instead of O(n * m).
+ *
+ * The shorter string is the pattern, i.e. the rows of the matrix. Strings are compared
+ * char by char (UTF-16 code units). Thread safe.
+ * @author Ralph Schäfermeier
+ */
+public class EditDistance {
+  
+  // the index of each char in the pattern's list of distinct chars, -1 if it is not in the pattern
+  private static final ThreadLocal<int[]> charIndexes = ThreadLocal.withInitial(() -> {
+    int[] indexes = new int[Character.MAX_VALUE + 1];
+    Arrays.fill(indexes, -1);
+    return indexes;
+  });
+  
+  private EditDistance() {
+  }
+  
+  public static int distance(CharSequence a, CharSequence b) {
+    CharSequence pattern = a.length() <= b.length() ? a : b;
+    CharSequence text = pattern == a ? b : a;
+    int m = pattern.length();
+    if (m == 0) {
+      return text.length();
+    }
+    int words = (m + 63) >>> 6;
+    
+    // the match vectors: bit i of block w of char c is set if pattern[64 * w + i] == c
+    int[] indexes = charIndexes.get();
+    char[] distinct = new char[m];
+    int distinctCount = 0;
+    long[] matches = new long[m * words];
+    for (int i = 0; i < m; i++) {
+      char c = pattern.charAt(i);
+      int index = indexes[c];
+      if (index < 0) {
+        index = indexes[c] = distinctCount;
+        distinct[distinctCount++] = c;
+      }
+      matches[index * words + (i >>> 6)] |= 1L << i;
+    }
+    
+    try {
+      long[] positive = new long[words];
+      long[] negative = new long[words];
+      Arrays.fill(positive, -1L);
+      long lastBit = 1L << (m - 1);
+      int score = m;
+      
+      for (int j = 0; j < text.length(); j++) {
+        int index = indexes[text.charAt(j)];
+        // the first row grows by one per column
+        int carry = 1;
+        for (int w = 0; w < words; w++) {
+          long eq = index < 0 ? 0 : matches[index * words + w];
+          long pv = positive[w];
+          long mv = negative[w];
+          long xv = eq | mv;
+          if (carry < 0) {
+            eq |= 1;
+          }
+          long xh = (((eq & pv) + pv) ^ pv) | eq;
+          long ph = mv | ~(xh | pv);
+          long mh = pv & xh;
+          
+          long outBit = w == words - 1 ? lastBit : Long.MIN_VALUE;
+          int out = (ph & outBit) != 0 ? 1 : (mh & outBit) != 0 ? -1 : 0;
+          
+          ph <<= 1;
+          mh <<= 1;
+          if (carry < 0) {
+            mh |= 1;
+          } else if (carry > 0) {
+            ph |= 1;
+          }
+          positive[w] = mh | ~(xv | ph);
+          negative[w] = ph & xv;
+          carry = out;
+        }
+        score += carry;
+      }
+      return score;
+    } finally {
+      for (int i = 0; i < distinctCount; i++) {
+        indexes[distinct[i]] = -1;
+      }
+    }
+  }
+  
+  /**
+   * @return 1 - distance / length of the longer string, i.e. 1 for equal strings and 0 for
+   *         strings that have nothing in common
+   */
+  public static double similarity(CharSequence a, CharSequence b) {
+    int length = Math.max(a.length(), b.length());
+    return length == 0 ? 1 : 1 - (double) distance(a, b) / length;
+  }
+}
@@ -0,0 +1,267 @@
+package care.smith.top.terminology.versioning.util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * An open addressing hash map from non-negative ints to objects, which avoids boxing the
+ * keys and allocating one entry object per mapping.
+ * @author Ralph Schäfermeier
+ */
+public class IntObjectMap<V> {
+  private static final int FREE = -1;
+  private static final float LOAD_FACTOR = 0.6f;
+  
+  private int[] keys;
+  private Object[] values;
+  private int size;
+  private int threshold;
+  
+  public IntObjectMap() {
+    this(16);
+  }
+  
+  public IntObjectMap(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+  
+  public V get(int key) {
+    int index = indexOf(key);
+    return index < 0 ? null : value(index);
+  }
+  
+  public boolean containsKey(int key) {
+    return indexOf(key) >= 0;
+  }
+  
+  /**
+   * @return the previous value or null
+   */
+  public V put(int key, V value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Keys must not be negative: " + key);
+    }
+    int mask = keys.length - 1;
+    int index = mix(key) & mask;
+    while (keys[index] != FREE) {
+      if (keys[index] == key) {
+        V previous = value(index);
+        values[index] = value;
+        return previous;
+      }
+      index = (index + 1) & mask;
+    }
+    keys[index] = key;
+    values[index] = value;
+    if (++size > threshold) {
+      rehash(keys.length * 2);
+    }
+    return null;
+  }
+  
+  /**
+   * @return the removed value or null
+   */
+  public V remove(int key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return null;
+    }
+    V previous = value(index);
+    
+    // shift the following entries of the probe sequence back, so lookups do not stop early
+    int mask = keys.length - 1;
+    int free = index;
+    int next = (free + 1) & mask;
+    while (keys[next] != FREE) {
+      int home = mix(keys[next]) & mask;
+      if (((next - home) & mask) >= ((next - free) & mask)) {
+        keys[free] = keys[next];
+        values[free] = values[next];
+        free = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[free] = FREE;
+    values[free] = null;
+    size--;
+    return previous;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  @FunctionalInterface
+  public interface EntryConsumer<V, E extends Exception> {
+    void accept(int key, V value) throws E;
+  }
+  
+  public <E extends Exception> void forEach(EntryConsumer<? super V, E> action) throws E {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != FREE) {
+        action.accept(keys[i], value(i));
+      }
+    }
+  }
+  
+  /**
+   * @return a live view of the values of this map
+   */
+  public Collection<V> values() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<V> iterator() {
+        return new Iterator<>() {
+          private int index = advance(0);
+          
+          private int advance(int from) {
+            while (from < keys.length && keys[from] == FREE) {
+              from++;
+            }
+            return from;
+          }
+          
+          @Override
+          public boolean hasNext() {
+            return index < keys.length;
+          }
+          
+          @Override
+          public V next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            V value = value(index);
+            index = advance(index + 1);
+            return value;
+          }
+        };
+      }
+      
+      @Override
+      public int size() {
+        return size;
+      }
+      
+      @Override
+      public Spliterator<V> spliterator() {
+        return new ValueSpliterator(0, keys.length, size);
+      }
+    };
+  }
+  
+  /**
+   * Iterates over a range of the table and splits it in halves, so the values can be
+   * streamed in parallel.
+   */
+  private final class ValueSpliterator implements Spliterator<V> {
+    private static final int MIN_SPLIT = 1024;
+    
+    private int index;
+    private final int end;
+    private long estimate;
+    
+    ValueSpliterator(int index, int end, long estimate) {
+      this.index = index;
+      this.end = end;
+      this.estimate = estimate;
+    }
+    
+    @Override
+    public boolean tryAdvance(Consumer<? super V> action) {
+      while (index < end) {
+        int i = index++;
+        if (keys[i] != FREE) {
+          action.accept(value(i));
+          return true;
+        }
+      }
+      return false;
+    }
+    
+    @Override
+    public Spliterator<V> trySplit() {
+      if (end - index < MIN_SPLIT) {
+        return null;
+      }
+      int middle = (index + end) >>> 1;
+      var prefix = new ValueSpliterator(index, middle, estimate >>>= 1);
+      index = middle;
+      return prefix;
+    }
+    
+    @Override
+    public long estimateSize() {
+      return estimate;
+    }
+    
+    @Override
+    public int characteristics() {
+      return ORDERED;
+    }
+  }
+  
+  private int indexOf(int key) {
+    if (key < 0) {
+      return -1;
+    }
+    int mask = keys.length - 1;
+    int index = mix(key) & mask;
+    while (keys[index] != FREE) {
+      if (keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private V value(int index) {
+    return (V) values[index];
+  }
+  
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        int index = mix(oldKeys[i]) & mask;
+        while (keys[index] != FREE) {
+          index = (index + 1) & mask;
+        }
+        keys[index] = oldKeys[i];
+        values[index] = oldValues[i];
+      }
+    }
+  }
+  
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    Arrays.fill(keys, FREE);
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+  
+  private static int tableSizeFor(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+    return Math.max(capacity, 4);
+  }
+  
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,90 @@
+package care.smith.top.terminology.versioning.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A small set of ints, kept as a sorted array.
+ *
+ * Change sets almost always contain a single code, sometimes a handful, so the array
+ * starts with room for one element and grows on demand. An empty set does not allocate
+ * an array at all.
+ * @author Ralph Schäfermeier
+ */
+public class IntSet {
+  private static final int[] EMPTY = new int[0];
+  
+  private int[] elements = EMPTY;
+  private int size;
+  
+  /**
+   * @return true if the value was not contained before
+   */
+  public boolean add(int value) {
+    int index = Arrays.binarySearch(elements, 0, size, value);
+    if (index >= 0) {
+      return false;
+    }
+    index = -index - 1;
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(1, size * 2));
+    }
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = value;
+    size++;
+    return true;
+  }
+  
+  public boolean contains(int value) {
+    return Arrays.binarySearch(elements, 0, size, value) >= 0;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  /**
+   * @return the element at the given position in ascending order
+   */
+  public int get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return elements[index];
+  }
+  
+  public void forEach(IntConsumer action) {
+    for (int i = 0; i < size; i++) {
+      action.accept(elements[i]);
+    }
+  }
+  
+  public int[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof IntSet other)) return false;
+    return Arrays.equals(elements, 0, size, other.elements, 0, other.size);
+  }
+  
+  @Override
+  public int hashCode() {
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + elements[i];
+    }
+    return result;
+  }
+  
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
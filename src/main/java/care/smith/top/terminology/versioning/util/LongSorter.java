@@ -0,0 +1,123 @@
+package care.smith.top.terminology.versioning.util;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more longs than should be on the heap at once. The values are collected in a chunk
+ * of a fixed size, which is sorted and written to a file of its own whenever it is full.
+ * The files are then merged into one sorted file. Only the chunk and a read buffer per file
+ * are on the heap.
+ * @author Ralph Schäfermeier
+ */
+public class LongSorter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private final Path directory;
+  private final long[] chunk;
+  private int count;
+  private final List<Path> files = new ArrayList<>();
+
+  /**
+   * @param directory the directory for the sorted chunks
+   * @param chunkSize the number of values that are sorted on the heap
+   */
+  public LongSorter(Path directory, int chunkSize) {
+    this.directory = directory;
+    this.chunk = new long[Math.max(2, chunkSize)];
+  }
+
+  public void add(long value) throws IOException {
+    if (count == chunk.length) {
+      files.add(writeChunk());
+    }
+    chunk[count++] = value;
+  }
+
+  /**
+   * Writes the values in ascending order to the file, as written by
+   * {@link DataOutputStream#writeLong(long)}, and empties the sorter.
+   * @return the number of values
+   */
+  public long sortTo(Path file) throws IOException {
+    if (files.isEmpty()) {
+      Arrays.sort(chunk, 0, count);
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+        for (int i = 0; i < count; i++) {
+          out.writeLong(chunk[i]);
+        }
+      }
+      long written = count;
+      count = 0;
+      return written;
+    }
+
+    if (count > 0) {
+      files.add(writeChunk());
+    }
+    var inputs = new DataInputStream[files.size()];
+    var remaining = new long[files.size()];
+    var heads = new long[files.size()];
+    // the inputs by their next value
+    var queue = new PriorityQueue<Integer>(Math.max(1, files.size()), (a, b) -> Long.compare(heads[a], heads[b]));
+    long written = 0;
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+      for (int i = 0; i < inputs.length; i++) {
+        inputs[i] = new DataInputStream(new BufferedInputStream(Files.newInputStream(files.get(i)), BUFFER_SIZE));
+        remaining[i] = Files.size(files.get(i)) / Long.BYTES - 1;
+        heads[i] = inputs[i].readLong();
+        queue.add(i);
+      }
+      while (!queue.isEmpty()) {
+        int input = queue.poll();
+        out.writeLong(heads[input]);
+        written++;
+        if (remaining[input]-- > 0) {
+          heads[input] = inputs[input].readLong();
+          queue.add(input);
+        }
+      }
+    } finally {
+      for (var in : inputs) {
+        if (in != null) {
+          in.close();
+        }
+      }
+      close();
+    }
+    return written;
+  }
+
+  /**
+   * Deletes the sorted chunks that have not been merged yet.
+   */
+  @Override
+  public void close() throws IOException {
+    for (Path file : files) {
+      Files.deleteIfExists(file);
+    }
+    files.clear();
+    count = 0;
+  }
+
+  private Path writeChunk() throws IOException {
+    Arrays.sort(chunk, 0, count);
+    Path file = Files.createTempFile(directory, "chunk", ".bin");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+      for (int i = 0; i < count; i++) {
+        out.writeLong(chunk[i]);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+    count = 0;
+    return file;
+  }
+}
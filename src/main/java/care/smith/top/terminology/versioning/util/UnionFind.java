@@ -0,0 +1,136 @@
+package care.smith.top.terminology.versioning.util;
+
+import java.util.Arrays;
+
+/**
+ * A union-find (disjoint set) structure over nodes that are identified by non-negative int
+ * keys. Nodes are created on first use and numbered densely in that order.
+ *
+ * Sets are merged by size and paths are halved on every lookup, so a sequence of unions
+ * and finds takes practically linear time.
+ * @author Ralph Schäfermeier
+ */
+public class UnionFind {
+  private static final int FREE = -1;
+  private static final float LOAD_FACTOR = 0.6f;
+  
+  // key -> node, open addressing
+  private int[] tableKeys;
+  private int[] tableNodes;
+  private int threshold;
+  
+  private int[] keys;
+  private int[] parents;
+  private int[] sizes;
+  private int count;
+  
+  public UnionFind(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+    allocateTable(Math.max(capacity, 4));
+    int nodes = Math.max(expectedSize, 16);
+    keys = new int[nodes];
+    parents = new int[nodes];
+    sizes = new int[nodes];
+  }
+  
+  /**
+   * @return the node of the key, which is created as a set of its own if it does not exist yet
+   */
+  public int node(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Keys must not be negative: " + key);
+    }
+    int mask = tableKeys.length - 1;
+    int index = mix(key) & mask;
+    while (tableKeys[index] != FREE) {
+      if (tableKeys[index] == key) {
+        return tableNodes[index];
+      }
+      index = (index + 1) & mask;
+    }
+    
+    if (count == keys.length) {
+      int capacity = keys.length * 2;
+      keys = Arrays.copyOf(keys, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+    }
+    int node = count++;
+    keys[node] = key;
+    parents[node] = node;
+    sizes[node] = 1;
+    
+    tableKeys[index] = key;
+    tableNodes[index] = node;
+    if (count > threshold) {
+      rehash(tableKeys.length * 2);
+    }
+    return node;
+  }
+  
+  /**
+   * @return the representative of the set of the node
+   */
+  public int find(int node) {
+    while (parents[node] != node) {
+      parents[node] = parents[parents[node]];
+      node = parents[node];
+    }
+    return node;
+  }
+  
+  public void union(int a, int b) {
+    a = find(a);
+    b = find(b);
+    if (a == b) {
+      return;
+    }
+    if (sizes[a] < sizes[b]) {
+      int swap = a;
+      a = b;
+      b = swap;
+    }
+    parents[b] = a;
+    sizes[a] += sizes[b];
+  }
+  
+  public int key(int node) {
+    return keys[node];
+  }
+  
+  /**
+   * @return the number of nodes
+   */
+  public int size() {
+    return count;
+  }
+  
+  private void rehash(int capacity) {
+    int[] oldKeys = tableKeys;
+    int[] oldNodes = tableNodes;
+    allocateTable(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        int index = mix(oldKeys[i]) & mask;
+        while (tableKeys[index] != FREE) {
+          index = (index + 1) & mask;
+        }
+        tableKeys[index] = oldKeys[i];
+        tableNodes[index] = oldNodes[i];
+      }
+    }
+  }
+  
+  private void allocateTable(int capacity) {
+    tableKeys = new int[capacity];
+    Arrays.fill(tableKeys, FREE);
+    tableNodes = new int[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+  
+  private static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
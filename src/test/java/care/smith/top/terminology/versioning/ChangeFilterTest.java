@@ -0,0 +1,163 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Streams the change sets of a synthetic release through
+ * {@link AbstractTerminologyVersionTransitionAnalyser#changes(ChangeFilter)} and compares
+ * them with the lists of the getters, for releases analysed at once and spilled into runs.
+ * @author Ralph Schäfermeier
+ */
+class ChangeFilterTest {
+  
+  private static final long HEAP_BUDGET = 256 * 1024;
+  
+  private static final Map<CodeChanges.SemanticChange, Function<AbstractTerminologyVersionTransitionAnalyser, List<CodeChanges>>> SEMANTIC_GETTERS = Map.of(
+          CodeChanges.SemanticChange.addition, AbstractTerminologyVersionTransitionAnalyser::getAdditions,
+          CodeChanges.SemanticChange.deletion, AbstractTerminologyVersionTransitionAnalyser::getDeletions,
+          CodeChanges.SemanticChange.merge, AbstractTerminologyVersionTransitionAnalyser::getMerges,
+          CodeChanges.SemanticChange.split, AbstractTerminologyVersionTransitionAnalyser::getSplits,
+          CodeChanges.SemanticChange.replacement, AbstractTerminologyVersionTransitionAnalyser::getReplacements);
+  
+  private static final Map<CodeChanges.LexicalChange, Function<AbstractTerminologyVersionTransitionAnalyser, List<CodeChanges>>> LEXICAL_GETTERS = Map.of(
+          CodeChanges.LexicalChange.labelAddition, AbstractTerminologyVersionTransitionAnalyser::getLabelAdditions,
+          CodeChanges.LexicalChange.labelDeletion, AbstractTerminologyVersionTransitionAnalyser::getLabelDeletions,
+          CodeChanges.LexicalChange.labelReplacement, AbstractTerminologyVersionTransitionAnalyser::getRelabelings);
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void filtersByCodePrefix() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var analyser : analysers(release)) {
+      var all = describe(analyser.changes(new ChangeFilter()));
+      var filter = new ChangeFilter();
+      filter.setCodePrefix("5-00");
+      var filtered = describe(analyser.changes(filter));
+      
+      // a change set matches by one of its old or new codes
+      var expected = analyser.changes(new ChangeFilter())
+              .filter(changes -> Stream.concat(changes.getOldCodes().stream(), changes.getNewCodes().stream()).anyMatch(code -> code.startsWith("5-00")))
+              .map(TestRelease::describe)
+              .toList();
+      assertEquals(expected, filtered);
+      assertFalse(filtered.isEmpty());
+      assertTrue(filtered.size() < all.size());
+      
+      filter.setCodePrefix(null);
+      assertEquals(all, describe(analyser.changes(filter)));
+    }
+  }
+  
+  @Test
+  void filtersBySemanticAndLexicalChange() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var analyser : analysers(release)) {
+      var summary = analyser.getSummary();
+      for (var type : CodeChanges.SemanticChange.values()) {
+        assertEquals(summary.count(type), analyser.changes(new ChangeFilter(type)).count(), type.name());
+      }
+      for (var type : CodeChanges.LexicalChange.values()) {
+        assertEquals(summary.count(type), analyser.changes(new ChangeFilter(type)).count(), type.name());
+      }
+      
+      // both criteria have to match, each by one of its types
+      var filter = new ChangeFilter();
+      filter.setSemanticChanges(EnumSet.of(CodeChanges.SemanticChange.merge, CodeChanges.SemanticChange.split));
+      filter.setLexicalChanges(Set.of(CodeChanges.LexicalChange.labelReplacement));
+      var expected = analyser.changes(new ChangeFilter(CodeChanges.LexicalChange.labelReplacement))
+              .filter(changes -> filter.getSemanticChanges().contains(changes.getSemanticChange()))
+              .map(TestRelease::describe)
+              .toList();
+      assertFalse(expected.isEmpty());
+      assertEquals(expected, describe(analyser.changes(filter)));
+    }
+  }
+  
+  @Test
+  void streamsInTheOrderOfTheGetters() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var analyser : analysers(release)) {
+      for (var getter : SEMANTIC_GETTERS.entrySet()) {
+        assertEquals(describe(getter.getValue().apply(analyser).stream()), describe(analyser.changes(new ChangeFilter(getter.getKey()))), getter.getKey().name());
+      }
+      for (var getter : LEXICAL_GETTERS.entrySet()) {
+        assertEquals(describe(getter.getValue().apply(analyser).stream()), describe(analyser.changes(new ChangeFilter(getter.getKey()))), getter.getKey().name());
+      }
+    }
+  }
+  
+  @Test
+  void collectsTheListsOfSpilledReleasesOnce() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var engine : TransitionEngine.values()) {
+      var analyser = release.analyse(engine);
+      var spilled = analyse(release, engine);
+      assertFalse(spilled.getSummary().hasChangeSets(), engine.name());
+      
+      // the runs give the change sets in another order than the release analysed at once
+      var getters = new ArrayList<Function<AbstractTerminologyVersionTransitionAnalyser, List<CodeChanges>>>(SEMANTIC_GETTERS.values());
+      getters.addAll(LEXICAL_GETTERS.values());
+      getters.add(AbstractTerminologyVersionTransitionAnalyser::getMinorRelabelings);
+      getters.add(AbstractTerminologyVersionTransitionAnalyser::getMajorRelabelings);
+      for (var getter : getters) {
+        var list = getter.apply(spilled);
+        assertSame(list, getter.apply(spilled), engine.name());
+        assertEquals(new TreeSet<>(describe(getter.apply(analyser).stream())), new TreeSet<>(describe(list.stream())), engine.name());
+      }
+    }
+  }
+  
+  @Test
+  void parallelStreamsMatchSequentialOnes() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    var filter = new ChangeFilter();
+    filter.setLexicalChanges(Set.of(CodeChanges.LexicalChange.labelReplacement, CodeChanges.LexicalChange.labelAddition));
+    for (var analyser : analysers(release)) {
+      for (var changeFilter : List.of(new ChangeFilter(), filter)) {
+        var sequential = analyser.changes(changeFilter).map(TestRelease::describe).collect(Collectors.toCollection(TreeSet::new));
+        var parallel = analyser.changes(changeFilter).parallel().map(TestRelease::describe).collect(Collectors.toCollection(TreeSet::new));
+        assertEquals(sequential, parallel);
+        assertEquals(sequential.size(), analyser.changes(changeFilter).parallel().count());
+      }
+    }
+  }
+  
+  /**
+   * @return the release analysed by each engine, at once and spilled into runs
+   */
+  private List<OPSVersionTransitionAnalyser> analysers(TestRelease release) throws Exception {
+    var analysers = new ArrayList<OPSVersionTransitionAnalyser>();
+    for (var engine : TransitionEngine.values()) {
+      analysers.add(release.analyse(engine));
+      analysers.add(analyse(release, engine));
+    }
+    return analysers;
+  }
+  
+  private static OPSVersionTransitionAnalyser analyse(TestRelease release, TransitionEngine engine) throws Exception {
+    var context = new AnalysisContext();
+    context.setEngine(engine);
+    context.setHeapBudget(HEAP_BUDGET);
+    return new OPSVersionTransitionAnalyser(release.getProperties(context));
+  }
+  
+  private static List<String> describe(Stream<CodeChanges> changeSets) {
+    return changeSets.map(TestRelease::describe).toList();
+  }
+}
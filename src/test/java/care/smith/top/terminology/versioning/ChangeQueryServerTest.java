@@ -0,0 +1,151 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts a {@link ChangeQueryServer} on a free port over a synthetic release and compares its
+ * answers with the change sets of the analyser.
+ * @author Ralph Schäfermeier
+ */
+class ChangeQueryServerTest {
+  
+  private static final Pattern CHANGES = Pattern.compile("\\{\"year\":2024,\"changes\":\\[(.*)],\"total\":(\\d+)}");
+  private static final Pattern CODES = Pattern.compile(".*\"codes\":\\[(.*)]}");
+  
+  @TempDir
+  Path directory;
+  
+  private TestRelease release;
+  private ChangeQueryServer server;
+  private URI uri;
+  private final HttpClient client = HttpClient.newHttpClient();
+  
+  @BeforeEach
+  void start() throws Exception {
+    release = new TestRelease(directory.resolve("ops"), 2000, 7);
+    server = new ChangeQueryServer(directory.resolve("ops").toFile(), new BatchOptions());
+    var address = server.start("localhost", 0);
+    uri = URI.create("http://localhost:" + address.getPort());
+  }
+  
+  @AfterEach
+  void stop() {
+    server.stop();
+  }
+  
+  @Test
+  void listsReleases() throws Exception {
+    var analyser = release.analyse(TransitionEngine.legacy);
+    
+    var releases = get("/releases");
+    assertEquals(200, releases.statusCode());
+    assertTrue(releases.body().startsWith("[{\"year\":2024,"), releases.body());
+    assertTrue(releases.body().contains("\"split\":" + analyser.getSplits().size() + ","), releases.body());
+    assertEquals("[" + get("/releases/2024").body() + "]", releases.body());
+  }
+  
+  @Test
+  void filtersAndPagesChanges() throws Exception {
+    var analyser = release.analyse(TransitionEngine.legacy);
+    int splits = analyser.getSplits().size();
+    assertTrue(splits > 10, "enough splits for several pages");
+    
+    var all = changes("/releases/2024/changes?semantic=split&limit=10000", splits);
+    assertEquals(splits, count(all));
+    // the pages of 7 changes add up to all of them
+    var pages = new ArrayList<String>();
+    for (int offset = 0; offset < splits; offset += 7) {
+      var page = changes("/releases/2024/changes?semantic=split&offset=" + offset + "&limit=7", splits);
+      assertEquals(Math.min(7, splits - offset), count(page));
+      pages.add(page);
+    }
+    assertEquals(all, String.join(",", pages));
+    assertEquals("", changes("/releases/2024/changes?semantic=split&offset=" + splits, splits));
+    
+    // the code prefix matches old and new codes, unchanged codes are not reported
+    String prefix = analyser.getSplits().get(0).getCode().substring(0, 4);
+    var filter = new ChangeFilter();
+    filter.setCodePrefix(prefix);
+    int matches = (int) analyser.changes(filter)
+            .filter(changes -> changes.getSemanticChange() != CodeChanges.SemanticChange.none || changes.getLexicalChange() != CodeChanges.LexicalChange.none)
+            .count();
+    assertTrue(matches > 0);
+    changes("/releases/2024/changes?code=" + prefix + "&limit=10000", matches);
+  }
+  
+  @Test
+  void followsCodesAcrossSplits() throws Exception {
+    var split = release.analyse(TransitionEngine.legacy).getSplits().get(0);
+    String code = split.getCode();
+    
+    assertEquals(new TreeSet<>(split.getNewCodes()), codes("/codes/" + code + "?from=2023&to=2024"));
+    assertEquals(codes("/codes/" + code + "?from=2023&to=2024"), codes("/codes/" + code));
+    // no release after 2024
+    assertEquals(Set.of(code), codes("/codes/" + code + "?from=2024&to=2030"));
+  }
+  
+  @Test
+  void answersErrors() throws Exception {
+    assertEquals(404, get("/releases/1999").statusCode());
+    assertEquals(404, get("/releases/2024/other").statusCode());
+    assertEquals(404, get("/codes/unknown").statusCode());
+    assertEquals(404, get("/labels?q=operation").statusCode());
+    assertEquals(400, get("/releases/next").statusCode());
+    assertEquals(400, get("/releases/2024/changes?semantic=unknown").statusCode());
+    assertEquals(400, get("/releases/2024/changes?limit=-1").statusCode());
+    assertEquals(400, get("/releases/2024/changes?offset=-1").statusCode());
+    
+    var post = client.send(HttpRequest.newBuilder(uri.resolve("/releases")).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+    assertEquals(405, post.statusCode());
+    assertEquals("{\"error\":\"Only GET is supported\"}", post.body());
+  }
+  
+  private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+    return client.send(HttpRequest.newBuilder(uri.resolve(path)).build(), HttpResponse.BodyHandlers.ofString());
+  }
+  
+  /**
+   * @return the changes of the response, which must report the total
+   */
+  private String changes(String path, int total) throws IOException, InterruptedException {
+    var response = get(path);
+    assertEquals(200, response.statusCode(), path);
+    Matcher matcher = CHANGES.matcher(response.body());
+    assertTrue(matcher.matches(), response.body());
+    assertEquals(total, Integer.parseInt(matcher.group(2)), path);
+    return matcher.group(1);
+  }
+  
+  private Set<String> codes(String path) throws IOException, InterruptedException {
+    var response = get(path);
+    assertEquals(200, response.statusCode(), path);
+    Matcher matcher = CODES.matcher(response.body());
+    assertTrue(matcher.matches(), response.body());
+    var codes = new TreeSet<String>();
+    for (String code : matcher.group(1).split(",")) {
+      codes.add(code.substring(1, code.length() - 1));
+    }
+    return codes;
+  }
+  
+  private static int count(String changes) {
+    return changes.isEmpty() ? 0 : changes.split("\\{\"year\":", -1).length - 1;
+  }
+}
@@ -0,0 +1,190 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntSet;
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes the change sets of a release with the {@link ChangeSetWriter} and reads them back.
+ * @author Ralph Schäfermeier
+ */
+class ChangeSetWriterTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void readsChangeSetsAcrossBlocks() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 5000, 11);
+    var context = new AnalysisContext();
+    var analyser = new OPSVersionTransitionAnalyser(release.getProperties(context));
+    
+    var expected = new ArrayList<ChangeSetReader.ChangeSet>();
+    Path file;
+    try (var writer = ChangeSetWriter.open(directory, 2024, ChangeSetWriter.Format.binary, context.getCodes(), analyser.getOldLabels(), analyser.getNewLabels())) {
+      file = writer.getFile();
+      for (var changes : getChangeSets(analyser)) {
+        writer.write(changes, changes.getSemanticChange(), changes.getLexicalChange(), getLabelSimilarity(changes));
+        expected.add(describe(analyser, changes));
+      }
+      assertEquals(expected.size(), writer.getCount());
+    }
+    // the dictionary of the second block only holds the codes and labels new to it
+    assertTrue(expected.size() > 4096, "more than one block");
+    
+    var actual = new ArrayList<ChangeSetReader.ChangeSet>();
+    assertEquals(2024, ChangeSetReader.read(file, actual::add));
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), actual.get(i));
+    }
+  }
+  
+  @Test
+  void writesTheSameRecordsInBothFormats() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 500, 3);
+    var context = new AnalysisContext();
+    var analyser = new OPSVersionTransitionAnalyser(release.getProperties(context));
+    
+    var files = new EnumMap<ChangeSetWriter.Format, Path>(ChangeSetWriter.Format.class);
+    for (var format : ChangeSetWriter.Format.values()) {
+      try (var writer = ChangeSetWriter.open(directory, 2024, format, context.getCodes(), analyser.getOldLabels(), analyser.getNewLabels())) {
+        files.put(format, writer.getFile());
+        for (var changes : getChangeSets(analyser)) {
+          writer.write(changes, changes.getSemanticChange(), changes.getLexicalChange(), getLabelSimilarity(changes));
+        }
+      }
+    }
+    
+    var changeSets = new ArrayList<ChangeSetReader.ChangeSet>();
+    ChangeSetReader.read(files.get(ChangeSetWriter.Format.binary), changeSets::add);
+    try (var reader = new CSVReader(Files.newBufferedReader(files.get(ChangeSetWriter.Format.csv), StandardCharsets.UTF_8))) {
+      var rows = reader.readAll();
+      assertEquals(changeSets.size() + 1, rows.size());
+      for (int i = 0; i < changeSets.size(); i++) {
+        var changeSet = changeSets.get(i);
+        assertEquals(List.of(
+                "2024",
+                changeSet.semanticChange().name(),
+                changeSet.lexicalChange().name(),
+                changeSet.code(),
+                String.join("|", changeSet.oldCodes()),
+                String.join("|", changeSet.newCodes()),
+                String.join("|", changeSet.oldLabels()),
+                String.join("|", changeSet.newLabels()),
+                Double.isNaN(changeSet.labelSimilarity()) ? "" : String.format(Locale.ROOT, "%.3f", changeSet.labelSimilarity())), List.of(rows.get(i + 1)));
+      }
+    }
+  }
+  
+  @Test
+  void movesTheFileIntoPlaceWhenClosed() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 100, 3);
+    var context = new AnalysisContext();
+    var analyser = new OPSVersionTransitionAnalyser(release.getProperties(context));
+    Path exports = directory.resolve("exports");
+    Path file;
+    
+    try (var writer = ChangeSetWriter.open(exports, 2024, ChangeSetWriter.Format.binary, context.getCodes(), analyser.getOldLabels(), analyser.getNewLabels())) {
+      file = writer.getFile();
+      for (var changes : getChangeSets(analyser)) {
+        writer.write(changes, changes.getSemanticChange(), changes.getLexicalChange(), Double.NaN);
+      }
+      assertFalse(Files.exists(file));
+    }
+    
+    try (var files = Files.list(exports)) {
+      assertEquals(List.of(file), files.toList());
+    }
+  }
+  
+  @Test
+  void rejectsOtherFormatVersions() throws IOException {
+    Path file = directory.resolve("changes_2024.tvcs");
+    try (var out = new DataOutputStream(Files.newOutputStream(file))) {
+      out.writeInt(ChangeSetWriter.MAGIC);
+      out.writeInt(ChangeSetWriter.FORMAT_VERSION - 1);
+      out.writeInt(2024);
+      out.writeInt(0);
+    }
+    
+    assertThrows(IOException.class, () -> ChangeSetReader.read(file, changeSet -> fail("read " + changeSet)));
+  }
+  
+  @Test
+  void writesEachLabelWithItsCode() throws Exception {
+    Path release = Files.createDirectories(directory.resolve("ops2024"));
+    Files.writeString(release.resolve("ops2023syst_kodes.txt"), "A;Alpha\nB;Beta\n");
+    Files.writeString(release.resolve("ops2024syst_kodes.txt"), "B;Beta\nC;Gamma\nD;Gamma\n");
+    // C and D share their label, which the change set of A only keeps once
+    Files.writeString(release.resolve("ops2024syst_umsteiger_2023_2024.txt"), "A;N;D;N;A;A\nA;N;C;N;A;A\nB;N;B;N;A;A\n");
+    var context = new AnalysisContext();
+    context.setEngine(TransitionEngine.legacy);
+    var analyser = new OPSVersionTransitionAnalyser(new Properties(release, ';', StandardCharsets.UTF_8, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2), context));
+    
+    for (var format : ChangeSetWriter.Format.values()) {
+      try (var writer = ChangeSetWriter.open(directory, 2024, format, context.getCodes(), analyser.getOldLabels(), analyser.getNewLabels())) {
+        for (var changes : analyser.getSplits()) {
+          writer.write(changes, changes.getSemanticChange(), changes.getLexicalChange(), Double.NaN);
+        }
+      }
+    }
+    
+    var changeSets = new ArrayList<ChangeSetReader.ChangeSet>();
+    ChangeSetReader.read(ChangeSetWriter.getFile(directory, 2024, ChangeSetWriter.Format.binary), changeSets::add);
+    assertEquals(1, changeSets.size());
+    var split = changeSets.get(0);
+    assertEquals(List.of("A"), split.oldCodes());
+    assertEquals(List.of("Alpha"), split.oldLabels());
+    assertEquals(2, split.newCodes().size());
+    assertEquals(List.of("Gamma", "Gamma"), split.newLabels());
+    
+    try (var reader = new CSVReader(Files.newBufferedReader(ChangeSetWriter.getFile(directory, 2024, ChangeSetWriter.Format.csv), StandardCharsets.UTF_8))) {
+      var rows = reader.readAll();
+      assertEquals(2, rows.size());
+      assertEquals(List.of("year", "semantic change", "lexical change", "code", "old codes", "new codes", "old labels", "new labels", "label similarity"), List.of(rows.get(0)));
+      assertEquals(List.of("2024", "split", split.lexicalChange().name(), split.code(), "A", String.join("|", split.newCodes()), "Alpha", String.join("|", split.newLabels()), ""), List.of(rows.get(1)));
+    }
+  }
+  
+  private static List<CodeChanges> getChangeSets(AbstractTerminologyVersionTransitionAnalyser analyser) {
+    var summary = analyser.getSummary();
+    var changeSets = new ArrayList<CodeChanges>();
+    for (var type : CodeChanges.SemanticChange.values()) {
+      changeSets.addAll(summary.get(type));
+    }
+    return changeSets;
+  }
+  
+  private static double getLabelSimilarity(CodeChanges changes) {
+    return changes.getLexicalChange() == CodeChanges.LexicalChange.labelReplacement ? changes.getLabelSimilarity() : Double.NaN;
+  }
+  
+  private static ChangeSetReader.ChangeSet describe(AbstractTerminologyVersionTransitionAnalyser analyser, CodeChanges changes) {
+    return new ChangeSetReader.ChangeSet(2024, changes.getSemanticChange(), changes.getLexicalChange(), changes.getCode(),
+            List.copyOf(changes.getOldCodes()), List.copyOf(changes.getNewCodes()),
+            labels(changes.getOldCodeIds(), analyser.getOldLabels()), labels(changes.getNewCodeIds(), analyser.getNewLabels()),
+            // the export keeps it as a float
+            (float) getLabelSimilarity(changes));
+  }
+  
+  private static List<String> labels(IntSet codes, LabelMap labels) {
+    var list = new ArrayList<String>(codes.size());
+    codes.forEach(code -> list.add(labels.get(code)));
+    return list;
+  }
+}
@@ -0,0 +1,154 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ralph Schäfermeier
+ */
+class CodeLifetimeIndexTest {
+  
+  private static final List<String> CODES = List.of("A", "B", "C", "D");
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void keepsTheIntervalsOfEachCode() {
+    var index = createIndex();
+    
+    assertEquals(2018, index.getFirstYear());
+    assertEquals(2022, index.getLastYear());
+    assertEquals(3, index.size());
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2018, 2019), new CodeLifetimeIndex.Interval(2022, 2022)), index.getIntervals("A"));
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2018, 2021)), index.getIntervals("B"));
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2019, 2022)), index.getIntervals("C"));
+    assertEquals(List.of(), index.getIntervals("D"));
+    assertEquals(List.of(), index.getIntervals("unknown"));
+    
+    assertEquals(2018, index.getIntroduced("A"));
+    assertEquals(-1, index.getRetired("A"));
+    assertEquals(2022, index.getRetired("B"));
+    assertEquals(2019, index.getIntroduced("C"));
+    assertEquals(-1, index.getIntroduced("D"));
+    assertEquals(-1, index.getRetired("D"));
+  }
+  
+  @Test
+  void answersQueriesByYear() {
+    var index = createIndex();
+    
+    assertTrue(index.isValid("A", 2019));
+    assertFalse(index.isValid("A", 2020));
+    assertFalse(index.isValid("A", 2017));
+    assertTrue(index.isValid("B", 2021));
+    assertFalse(index.isValid("B", 2022));
+    assertFalse(index.isValid("D", 2020));
+    assertFalse(index.isValid("unknown", 2020));
+    
+    assertTrue(index.isValidThroughout("C", 2019, 2022));
+    assertFalse(index.isValidThroughout("A", 2018, 2022));
+    assertTrue(index.isValidWithin("A", 2020, 2022));
+    assertFalse(index.isValidWithin("A", 2020, 2021));
+    
+    var codes = index.getCodes();
+    int[] ids = {codes.findId("A"), codes.findId("B"), codes.findId("C"), codes.findId("D")};
+    var valid = index.isValidAll(ids, 2020);
+    assertEquals(List.of(false, true, true, false), List.of(valid[0], valid[1], valid[2], valid[3]));
+  }
+  
+  @Test
+  void mergesVersionsReportedByTwoReleases() {
+    var codes = new CodeDictionary();
+    var codesByVersion = new TreeMap<Integer, int[]>();
+    // 2019 to 2020: B is replaced by C
+    List<CodeChanges> release2020 = List.of(changes(codes, "A", "A"), changes(codes, "B", "C"));
+    // 2020 to 2021: C is deleted, D is only in the files of this release
+    List<CodeChanges> release2021 = List.of(changes(codes, "A", "A"), changes(codes, "C", ""), changes(codes, "D", "D"));
+    for (var release : List.of(Map.entry(2020, release2020), Map.entry(2021, release2021))) {
+      int year = release.getKey();
+      codesByVersion.merge(year - 1, CodeLifetimeIndex.getOldCodes(release.getValue()), CodeLifetimeIndex::union);
+      codesByVersion.merge(year, CodeLifetimeIndex.getNewCodes(release.getValue()), CodeLifetimeIndex::union);
+    }
+    
+    assertArrayEquals(ids(codes, "A", "C", "D"), codesByVersion.get(2020));
+    var index = new CodeLifetimeIndex(codes, codesByVersion);
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2019, 2021)), index.getIntervals("A"));
+    assertEquals(2020, index.getRetired("B"));
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2020, 2020)), index.getIntervals("C"));
+    assertEquals(List.of(new CodeLifetimeIndex.Interval(2020, 2021)), index.getIntervals("D"));
+  }
+  
+  @Test
+  void knowsNoCodesWithoutVersions() {
+    var codes = new CodeDictionary();
+    codes.getId("A");
+    var index = new CodeLifetimeIndex(codes, new TreeMap<>());
+    
+    assertEquals(0, index.size());
+    assertTrue(index.getLastYear() < index.getFirstYear());
+    assertFalse(index.isValid("A", 0));
+    assertFalse(index.isValidWithin("A", Integer.MIN_VALUE, Integer.MAX_VALUE));
+    assertEquals(-1, index.getIntroduced("A"));
+  }
+  
+  @Test
+  void writesOnlyCodesThatHaveBeenValid() throws IOException {
+    var index = createIndex();
+    // known to the dictionary after the index has been built
+    index.getCodes().getId("E");
+    assertFalse(index.isValid("E", 2020));
+    Path file = directory.resolve("ops.tvlt");
+    index.write(file);
+    var read = CodeLifetimeIndex.read(file);
+    
+    assertNotSame(index.getCodes(), read.getCodes());
+    assertEquals(3, read.getCodes().size());
+    assertEquals(-1, read.getCodes().findId("D"));
+    assertEquals(index.getFirstYear(), read.getFirstYear());
+    assertEquals(index.getLastYear(), read.getLastYear());
+    for (String code : CODES) {
+      assertEquals(index.getIntervals(code), read.getIntervals(code), code);
+      assertEquals(index.getRetired(code), read.getRetired(code), code);
+      for (int year = 2016; year <= 2024; year++) {
+        assertEquals(index.isValid(code, year), read.isValid(code, year), code + " " + year);
+      }
+    }
+  }
+  
+  /**
+   * The versions of 2018 (A, B), 2019 (A, B, C), 2020 (B, C) and 2022 (A, C), so B is
+   * valid until 2021 and A is re-introduced in 2022. D is in the dictionary only.
+   */
+  private static CodeLifetimeIndex createIndex() {
+    var codes = new CodeDictionary();
+    CODES.forEach(codes::getId);
+    var codesByVersion = new TreeMap<Integer, int[]>();
+    codesByVersion.put(2018, ids(codes, "A", "B"));
+    codesByVersion.put(2019, ids(codes, "A", "B", "C"));
+    codesByVersion.put(2020, ids(codes, "B", "C"));
+    codesByVersion.put(2022, ids(codes, "A", "C"));
+    return new CodeLifetimeIndex(codes, codesByVersion);
+  }
+  
+  private static CodeChanges changes(CodeDictionary codes, String oldCode, String newCode) {
+    var changes = new CodeChanges(codes, codes.getId(oldCode));
+    changes.addOldCode(codes.getId(oldCode));
+    if (!newCode.isEmpty()) {
+      changes.addNewCode(codes.getId(newCode));
+    }
+    return changes;
+  }
+  
+  private static int[] ids(CodeDictionary codes, String... code) {
+    return List.of(code).stream().mapToInt(codes::getId).sorted().toArray();
+  }
+}
@@ -0,0 +1,157 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ralph Schäfermeier
+ */
+class CodeMappingIndexTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void followsCodesThroughAllReleases() {
+    var codes = new CodeDictionary();
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(
+            // A is replaced by B, C is split into D and E, F is deleted
+            2020, release(codes, "A", "B", "C", "D|E", "F", ""),
+            // B is replaced by G, E by H
+            2021, release(codes, "B", "G", "E", "H"))));
+    
+    assertEquals(2021, index.getTargetYear());
+    assertEquals(5, index.size());
+    assertEquals(Set.of("G"), index.map("A", 2019));
+    assertEquals(Set.of("G"), index.map("B", 2020));
+    assertEquals(Set.of("D", "H"), index.map("C", 2019));
+    assertEquals(Set.of("H"), index.map("E", 2020));
+    assertEquals(Set.of(), index.map("F", 2019));
+    assertEquals(Set.of("G"), index.map("G", 2021));
+  }
+  
+  @Test
+  void startsAfterTheSourceYear() {
+    var codes = new CodeDictionary();
+    // A is replaced by B, and B by A again a year later
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(2020, release(codes, "A", "B"), 2021, release(codes, "B", "A"))));
+    
+    assertEquals(Set.of("A"), index.map("A", 2019));
+    assertEquals(Set.of("A"), index.map("B", 2020));
+    // recorded after its last change, or in the latest version
+    assertEquals(Set.of("B"), index.map("B", 2021));
+    assertEquals(Set.of("A"), index.map("A", 2021));
+    assertEquals(Set.of("A"), index.map("A", 2024));
+  }
+  
+  @Test
+  void doesNotChainTransitionsWithinOneRelease() {
+    var codes = new CodeDictionary();
+    // A takes the code of B, which is renamed to C in the same release
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(2020, release(codes, "A", "B", "B", "C"))));
+    
+    assertEquals(Set.of("B"), index.map("A", 2019));
+    assertEquals(Set.of("C"), index.map("B", 2019));
+  }
+  
+  @Test
+  void dropsDeletedTargets() {
+    var codes = new CodeDictionary();
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(
+            // C is split into D and E, A and B are merged into M
+            2020, release(codes, "C", "D|E", "A", "M", "B", "M"),
+            // E and M are deleted
+            2022, release(codes, "E", "", "M", ""))));
+    
+    assertEquals(Set.of("D"), index.map("C", 2019));
+    assertEquals(Set.of(), index.map("A", 2019));
+    assertEquals(Set.of(), index.map("M", 2021));
+    assertEquals(Set.of("D"), index.map("D", 2020));
+  }
+  
+  @Test
+  void mapsUnknownCodesToNothing() {
+    var codes = new CodeDictionary();
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(2020, release(codes, "A", "B"))));
+    codes.getId("K");
+    
+    assertEquals(Set.of(), index.map("unknown", 2019));
+    // known to the dictionary, but never changed
+    assertEquals(Set.of("K"), index.map("K", 2019));
+    assertArrayEquals(new int[0], index.map(-1, 2019));
+    assertEquals(List.of(Set.of("B"), Set.of(), Set.of("K")), index.mapAll(List.of("A", "unknown", "K"), 2019));
+  }
+  
+  @Test
+  void extractsTheTransitionsOfChangeSets() {
+    var codes = new CodeDictionary();
+    var unchanged = changes(codes, "A", "A");
+    var split = changes(codes, "B", "C|D");
+    var merge = changes(codes, "E|F", "G");
+    var deletion = changes(codes, "H", "");
+    
+    var transitions = CodeMappingIndex.getTransitions(List.of(unchanged, split, merge, deletion));
+    
+    assertEquals(4, transitions.size());
+    assertNull(transitions.get(codes.getId("A")));
+    assertArrayEquals(ids(codes, "C|D"), transitions.get(codes.getId("B")));
+    assertArrayEquals(ids(codes, "G"), transitions.get(codes.getId("E")));
+    assertArrayEquals(ids(codes, "G"), transitions.get(codes.getId("F")));
+    assertArrayEquals(new int[0], transitions.get(codes.getId("H")));
+  }
+  
+  @Test
+  void keepsAllCodesWhenRead() throws IOException {
+    var codes = new CodeDictionary();
+    codes.getId("K");
+    var index = new CodeMappingIndex(codes, new TreeMap<>(Map.of(2020, release(codes, "A", "B|C"), 2021, release(codes, "C", "D"))));
+    Path file = directory.resolve("ops.tvmi");
+    index.write(file);
+    
+    var read = CodeMappingIndex.read(file);
+    
+    assertEquals(2021, read.getTargetYear());
+    assertEquals(index.size(), read.size());
+    assertEquals(Set.of("B", "D"), read.map("A", 2019));
+    assertEquals(Set.of("C"), read.map("C", 2021));
+    // never changed, but still known after loading
+    assertEquals(Set.of("K"), read.map("K", 2019));
+  }
+  
+  /**
+   * @param transitions pairs of an old code and its new codes, separated by "|"
+   */
+  private static IntObjectMap<int[]> release(CodeDictionary codes, String... transitions) {
+    var release = new IntObjectMap<int[]>();
+    for (int i = 0; i < transitions.length; i += 2) {
+      release.put(codes.getId(transitions[i]), ids(codes, transitions[i + 1]));
+    }
+    return release;
+  }
+  
+  private static CodeChanges changes(CodeDictionary codes, String oldCodes, String newCodes) {
+    int[] oldIds = ids(codes, oldCodes);
+    var changes = new CodeChanges(codes, oldIds[0]);
+    for (int id : oldIds) {
+      changes.addOldCode(id);
+    }
+    for (int id : ids(codes, newCodes)) {
+      changes.addNewCode(id);
+    }
+    return changes;
+  }
+  
+  private static int[] ids(CodeDictionary codes, String list) {
+    return list.isEmpty() ? new int[0] : List.of(list.split("\\|")).stream().mapToInt(codes::getId).sorted().toArray();
+  }
+}
@@ -0,0 +1,167 @@
+package care.smith.top.terminology.versioning;
+
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the rows of the {@link DelimitedFileReader} with the ones opencsv reads from the
+ * same files.
+ * @author Ralph Schäfermeier
+ */
+class DelimitedFileReaderTest {
+  
+  private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+  
+  private static final String QUOTED = """
+          A;"Label; with separator";x
+          B;"Label ""quoted"" twice";y
+          "C";plain;"z"
+          D;"Label with
+          line break";w
+          E;;
+          """;
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void matchesOpenCsvOnQuotedCells() throws Exception {
+    Path file = write("quoted.txt", QUOTED, StandardCharsets.UTF_8);
+    
+    var rows = read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1), file);
+    assertEquals(List.of("A", "Label; with separator"), rows.get(0));
+    assertEquals(List.of("B", "Label \"quoted\" twice"), rows.get(1));
+    assertEquals(List.of("E", ""), rows.get(4));
+    assertEquals(readWithOpenCsv(file, StandardCharsets.UTF_8, 0, 1), rows);
+    // the cells come in the order the columns were requested
+    assertEquals(readWithOpenCsv(file, StandardCharsets.UTF_8, 2, 0), read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 2, 0), file));
+  }
+  
+  @Test
+  void matchesOpenCsvOnCrlf() throws Exception {
+    // the last row has no line break
+    Path file = write("crlf.txt", "A;\"Label; with separator\";x\r\nB;\"Label \"\"quoted\"\"\"\r\nC;plain\r\nD;\r\nE;last", StandardCharsets.UTF_8);
+    
+    var rows = read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1), file);
+    assertEquals(List.of("B", "Label \"quoted\""), rows.get(1));
+    assertEquals(List.of("D", ""), rows.get(3));
+    assertEquals(List.of("E", "last"), rows.get(4));
+    assertEquals(readWithOpenCsv(file, StandardCharsets.UTF_8, 0, 1), rows);
+  }
+  
+  @Test
+  void skipsTheByteOrderMark() throws Exception {
+    String content = "A;Schädel\r\nB;Größe\r\n";
+    Path file = write("bom.txt", "\uFEFF" + content, StandardCharsets.UTF_8);
+    
+    var rows = read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1), file);
+    assertEquals(List.of("A", "Schädel"), rows.get(0));
+    // opencsv keeps the mark as part of the first cell
+    assertEquals(readWithOpenCsv(write("plain.txt", content, StandardCharsets.UTF_8), StandardCharsets.UTF_8, 0, 1), rows);
+  }
+  
+  @Test
+  void skipsBlankLinesAndRejectsShortOnes() throws Exception {
+    Path blank = write("blank.txt", "\nA;a\n\n\r\nB;b\n\n", StandardCharsets.UTF_8);
+    Path shortLine = write("short.txt", "A;a\nB\nC;c\n", StandardCharsets.UTF_8);
+    Path shortUtf16 = write("short16.txt", "A;a\nB\nC;c\n", StandardCharsets.UTF_16);
+    
+    var rows = read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1), blank);
+    assertEquals(List.of(List.of("A", "a"), List.of("B", "b")), rows);
+    assertEquals(readWithOpenCsv(blank, StandardCharsets.UTF_8, 0, 1), rows);
+    // the mapped reader and the opencsv fallback for encodings that are not ASCII compatible
+    assertThrows(IOException.class, () -> read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1), shortLine));
+    assertThrows(IOException.class, () -> read(new DelimitedFileReader(';', StandardCharsets.UTF_16, 0, 1), shortUtf16));
+    // the rows only need the requested columns
+    assertEquals(List.of(List.of("A"), List.of("B"), List.of("C")), read(new DelimitedFileReader(';', StandardCharsets.UTF_8, 0), shortLine));
+  }
+  
+  @Test
+  void readsRowsAcrossWindowBoundaries() throws Exception {
+    var random = new Random(3);
+    var content = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      String label = "Label " + "x".repeat(random.nextInt(40));
+      content.append("5-").append(i).append(';')
+              .append(random.nextBoolean() ? "\"" + label + "; \"\"quoted\"\"\"" : label)
+              .append(random.nextBoolean() ? "\r\n" : "\n");
+      if (i == 250) {
+        // longer than the smaller windows
+        content.append("5-long;").append("y".repeat(300)).append('\n');
+      }
+    }
+    Path file = write("windows.txt", content.toString(), StandardCharsets.UTF_8);
+    var expected = readWithOpenCsv(file, StandardCharsets.UTF_8, 0, 1);
+    assertEquals(501, expected.size());
+    
+    Path zip = directory.resolve("windows.zip");
+    try (var zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zip.toUri()), Map.of("create", "true"))) {
+      Path entry = zipFileSystem.getPath("windows.txt");
+      Files.copy(file, entry);
+      for (int windowSize : new int[] {16, 61, 64, 100, 4096}) {
+        var reader = new DelimitedFileReader(';', StandardCharsets.UTF_8, 0, 1);
+        reader.setMaxWindowSize(windowSize);
+        assertEquals(expected, read(reader, file), "mapped, window size " + windowSize);
+        assertEquals(expected, read(reader, entry), "streamed, window size " + windowSize);
+      }
+    }
+  }
+  
+  @Test
+  void decodesWindows1252() throws Exception {
+    String content = "A;Größe in €\nB;\"Naht; „Zitat“ – Ende\"\n";
+    Path file = write("windows-1252.txt", content, WINDOWS_1252);
+    
+    var rows = read(new DelimitedFileReader(';', WINDOWS_1252, 0, 1), file);
+    assertEquals(List.of(List.of("A", "Größe in €"), List.of("B", "Naht; „Zitat“ – Ende")), rows);
+    assertEquals(readWithOpenCsv(file, WINDOWS_1252, 0, 1), rows);
+    // the opencsv fallback gives the same rows
+    assertEquals(rows, read(new DelimitedFileReader(';', StandardCharsets.UTF_16, 0, 1), write("utf-16.txt", content, StandardCharsets.UTF_16)));
+  }
+  
+  private Path write(String name, String content, Charset encoding) throws IOException {
+    return Files.writeString(directory.resolve(name), content, encoding);
+  }
+  
+  private static List<List<String>> read(DelimitedFileReader reader, Path file) throws IOException {
+    var rows = new ArrayList<List<String>>();
+    long count = reader.read(file, cells -> rows.add(List.of(cells)));
+    assertEquals(rows.size(), count);
+    return rows;
+  }
+  
+  private static List<List<String>> readWithOpenCsv(Path file, Charset encoding, int... columns) throws Exception {
+    var rows = new ArrayList<List<String>>();
+    try (var reader = new CSVReaderBuilder(Files.newBufferedReader(file, encoding))
+            .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
+            .build()) {
+      for (String[] cells : reader.readAll()) {
+        if (cells.length == 1 && cells[0].isEmpty()) {
+          continue;
+        }
+        var row = new ArrayList<String>();
+        for (int column : columns) {
+          row.add(cells[column]);
+        }
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+}
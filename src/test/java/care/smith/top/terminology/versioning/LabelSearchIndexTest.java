@@ -0,0 +1,88 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writes a {@link LabelSearchIndex} with the {@link LabelSearchIndexWriter} and searches it.
+ * @author Ralph Schäfermeier
+ */
+class LabelSearchIndexTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void findsWords() throws IOException {
+    var index = createIndex();
+    
+    assertEquals(8, index.getWordCount());
+    assertEquals(List.of(posting("5-01", 2019, 2020), posting("5-01", 2022, 2022), posting("5-02", 2019, 2019)), index.find("operation"));
+    assertEquals(index.find("operation"), index.find("OPERATION"));
+    assertEquals(List.of(posting("5-02", 2019, 2020)), index.find("herzen"));
+    assertEquals(List.of(), index.find("schä"));
+    assertEquals(List.of(), index.find("unknown"));
+  }
+  
+  @Test
+  void findsPrefixes() throws IOException {
+    var index = createIndex();
+    
+    assertEquals(List.of(posting("5-01", 2019, 2020), posting("5-01", 2022, 2022), posting("5-03", 2022, 2022)), index.findPrefix("schäd"));
+    // words are ordered by their UTF-8 bytes
+    assertEquals(List.of(posting("5-03", 2022, 2022)), index.findPrefix("öff"));
+    assertEquals(List.of(), index.findPrefix("x"));
+  }
+  
+  @Test
+  void searchesAllWords() throws IOException {
+    var index = createIndex();
+    
+    assertEquals(List.of(posting("5-01", 2019, 2020), posting("5-01", 2022, 2022)), index.search("Operation am Schä"));
+    assertEquals(List.of(posting("5-02", 2020, 2020)), index.search("eingriff herz"));
+    assertEquals(List.of(), index.search("eingriff schädel"));
+    assertEquals(List.of(), index.search(" - "));
+  }
+  
+  @Test
+  void splitsLabelsIntoWords() {
+    assertEquals(List.of("öffnung", "des", "schädels", "z", "b", "5", "01"), LabelSearchIndex.tokenize("Öffnung des Schädels, z.B. (5-01)"));
+    assertEquals(List.of(), LabelSearchIndex.tokenize(" - "));
+  }
+  
+  /**
+   * The versions of 2019, 2020 and 2022, so the postings of 2022 do not continue the ones
+   * of 2020.
+   */
+  private LabelSearchIndex createIndex() throws IOException {
+    var codes = new CodeDictionary();
+    var arena = new LabelArena();
+    var writer = new LabelSearchIndexWriter();
+    writer.addVersion(2019, labels(codes, arena, Map.of("5-01", "Operation am Schädel", "5-02", "Operation am Herzen")));
+    writer.addVersion(2020, labels(codes, arena, Map.of("5-01", "Operation am Schädel", "5-02", "Eingriff am Herzen")));
+    writer.addVersion(2022, labels(codes, arena, Map.of("5-01", "Operation am Schädel", "5-03", "Öffnung des Schädels")));
+    // a version is only added once
+    writer.addVersion(2022, labels(codes, arena, Map.of("5-04", "Herzen")));
+    
+    Path file = directory.resolve("labels.tvli");
+    assertEquals(8, writer.write(file, codes));
+    return LabelSearchIndex.open(file);
+  }
+  
+  private static LabelMap labels(CodeDictionary codes, LabelArena arena, Map<String, String> labels) {
+    var map = new LabelMap(arena, 8);
+    labels.forEach((code, label) -> map.put(codes.getId(code), label));
+    return map;
+  }
+  
+  private static LabelSearchIndex.Posting posting(String code, int firstYear, int lastYear) {
+    return new LabelSearchIndex.Posting(code, firstYear, lastYear);
+  }
+}
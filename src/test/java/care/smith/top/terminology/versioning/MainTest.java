@@ -0,0 +1,135 @@
+package care.smith.top.terminology.versioning;
+
+import com.beust.jcommander.ParameterException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Parses the command line the way {@link Main#main(String[])} does.
+ * @author Ralph Schäfermeier
+ */
+class MainTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void parsesSourceDirectory() throws IOException {
+    var root = createRoot("a");
+    var main = new Main();
+    
+    assertNull(main.parse(root.toString()));
+    assertEquals(List.of(root.toFile()), main.getInputDirectories());
+    assertFalse(main.isWatch());
+  }
+  
+  @Test
+  void parsesOptionsBeforeSourceDirectory() throws IOException {
+    var root = createRoot("a");
+    var main = new Main();
+    
+    assertNull(main.parse("--engine", "components", "-p", "2", root.toString()));
+    assertEquals(List.of(root.toFile()), main.getInputDirectories());
+    assertEquals(TransitionEngine.components, main.getOptions().getEngine());
+    assertEquals(2, main.getOptions().getParallelism());
+  }
+  
+  @Test
+  void parsesWatch() throws IOException {
+    var root = createRoot("a");
+    var main = new Main();
+    
+    assertNull(main.parse("--watch", root.toString()));
+    assertEquals(List.of(root.toFile()), main.getInputDirectories());
+    assertTrue(main.isWatch());
+  }
+  
+  @Test
+  void parsesSeveralSourceDirectories() throws IOException {
+    var first = createRoot("a");
+    var second = createRoot("b");
+    var main = new Main();
+    
+    assertNull(main.parse(first.toString(), second.toString()));
+    assertEquals(List.of(first.toFile(), second.toFile()), main.getInputDirectories());
+  }
+  
+  @Test
+  void rejectsWatchingSeveralSourceDirectories() throws IOException {
+    var first = createRoot("a");
+    var second = createRoot("b");
+    
+    assertThrows(ParameterException.class, () -> new Main().parse("--watch", first.toString(), second.toString()));
+  }
+  
+  @Test
+  void requiresSourceDirectory() {
+    assertThrows(ParameterException.class, () -> new Main().parse());
+    assertThrows(ParameterException.class, () -> new Main().parse("--engine", "legacy"));
+  }
+  
+  @Test
+  void rejectsSourceDirectoryWithoutProperties() throws IOException {
+    var root = Files.createDirectories(directory.resolve("a").resolve("ops"));
+    
+    assertThrows(ParameterException.class, () -> new Main().parse(root.toString()));
+  }
+  
+  @Test
+  void parsesCommands() throws IOException {
+    var root = createRoot("a");
+    
+    assertEquals("generate", new Main().parse("generate", directory.resolve("b").resolve("ops").toString(), "--releases", "2"));
+    assertEquals("migrate", new Main().parse("migrate", "in.csv", "-o", "out.csv", "--index", "ops.tvmi", "-c", "code", "--year", "2020"));
+    assertEquals("serve", new Main().parse("serve", root.toString(), "--port", "0"));
+  }
+  
+  @Test
+  void generatesAndAnalysesReleases() throws IOException {
+    var root = directory.resolve("ops");
+    var generate = new Main();
+    generate.run(generate.parse("generate", root.toString(), "--releases", "2", "--codes", "300"));
+    
+    var analyse = new Main();
+    analyse.run(analyse.parse(root.toString()));
+    
+    var lines = Files.readAllLines(root.resolve("eval_ops.csv"));
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(0).startsWith("year, additions, deletions"));
+  }
+  
+  @Test
+  void countsComplexChangesOfTheComponentsEngine() throws IOException {
+    var root = Files.createDirectories(directory.resolve("ops"));
+    Path release = Files.createDirectories(root.resolve("ops2024"));
+    Files.writeString(release.resolve("ops2023syst_kodes.txt"), "A;Alpha\nB;Beta\nE;Epsilon\n");
+    Files.writeString(release.resolve("ops2024syst_kodes.txt"), "C;Gamma\nD;Delta\nE;Epsilon\n");
+    // A and B are mapped to C and D
+    Files.writeString(release.resolve("ops2024syst_umsteiger_2023_2024.txt"), "B;N;C;N;A;A\nE;N;E;N;A;A\nA;N;D;N;A;A\nA;N;C;N;A;A\n");
+    Files.writeString(root.resolve("properties.csv"), "\"path\",\"separator\",\"columns\",\"encoding\"\n\"/ops2024\",\";\",\"code_old;N;code_new;N;A;A\",\"UTF-8\"\n");
+    
+    for (var engine : TransitionEngine.values()) {
+      var main = new Main();
+      main.run(main.parse("--engine", engine.name(), root.toString()));
+      
+      var lines = Files.readAllLines(root.resolve("eval_ops.csv"));
+      assertEquals(2, lines.size(), engine.name());
+      assertTrue(lines.get(0).endsWith(", complex changes"), engine.name());
+      // the legacy engine does not classify N:M mappings
+      assertTrue(lines.get(1).endsWith(engine == TransitionEngine.components ? ", 1" : ", 0"), engine.name() + ": " + lines.get(1));
+    }
+  }
+  
+  private Path createRoot(String parent) throws IOException {
+    var root = Files.createDirectories(directory.resolve(parent).resolve("ops"));
+    Files.writeString(root.resolve("properties.csv"), "\"path\",\"separator\",\"columns\",\"encoding\"\n");
+    return root;
+  }
+}
@@ -0,0 +1,160 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Reads releases from ZIP archives through {@link ReleaseArchives} and compares the results
+ * with the same releases read from extracted folders.
+ * @author Ralph Schäfermeier
+ */
+class ReleaseArchivesTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void readsReleasesFromArchives() throws Exception {
+    var release = new TestRelease(directory.resolve("extracted"), 2000, 5);
+    var expected = TestRelease.describe(release.analyse(TransitionEngine.legacy));
+    zip(directory.resolve("ops2024.zip"), Map.of("Klassifikationsdateien", release.getDirectory()));
+    // an archive in an archive
+    Path inner = zip(directory.resolve("inner").resolve("ops2024syst.zip"), Map.of("Klassifikationsdateien", release.getDirectory()));
+    zip(directory.resolve("ops2006.zip"), Map.of("ops2024syst.zip", inner));
+    
+    var context = new AnalysisContext();
+    try (var archives = context.getArchives()) {
+      Path path = archives.resolve(directory, "/ops2024.zip/Klassifikationsdateien");
+      assertNotSame(FileSystems.getDefault(), path.getFileSystem());
+      assertTrue(ReleaseArchives.describe(path).startsWith("jar:file:"), ReleaseArchives.describe(path));
+      assertEquals(expected, TestRelease.describe(analyse(path, context)));
+      
+      Path nested = archives.resolve(directory, "/ops2006.zip/ops2024syst.zip/Klassifikationsdateien");
+      assertEquals(expected, TestRelease.describe(analyse(nested, context)));
+      assertEquals(nested, archives.resolve(directory, "ops2006.zip\\ops2024syst.zip\\Klassifikationsdateien"));
+    }
+  }
+  
+  @Test
+  void sharesArchivesBetweenReleases() throws Exception {
+    var first = new TestRelease(directory.resolve("first"), 1000, 5);
+    var second = new TestRelease(directory.resolve("second"), 1000, 6);
+    Path zip = zip(directory.resolve("ops.zip"), Map.of("first", first.getDirectory(), "second", second.getDirectory()));
+    
+    var context = new AnalysisContext();
+    var archives = context.getArchives();
+    Path firstPath = archives.resolve(directory, "/ops.zip/first");
+    Path secondPath = archives.resolve(directory, "/ops.zip/second");
+    assertSame(firstPath.getFileSystem(), secondPath.getFileSystem());
+    assertEquals(1, countOpenDescriptors(zip));
+    assertEquals(TestRelease.describe(first.analyse(TransitionEngine.legacy)), TestRelease.describe(analyse(firstPath, context)));
+    assertEquals(TestRelease.describe(second.analyse(TransitionEngine.legacy)), TestRelease.describe(analyse(secondPath, context)));
+    
+    archives.close();
+    assertFalse(firstPath.getFileSystem().isOpen());
+    assertEquals(0, countOpenDescriptors(zip));
+  }
+  
+  @Test
+  void closesArchivesAfterBatches() throws Exception {
+    Path extracted = generate(directory.resolve("extracted").resolve("ops"));
+    new AnalysisBatchRunner(extracted.toFile());
+    Path zipped = zipRoot(extracted, directory.resolve("zipped").resolve("ops"));
+    new AnalysisBatchRunner(zipped.toFile());
+    
+    assertEquals(Files.readAllLines(extracted.resolve("eval_ops.csv")), Files.readAllLines(zipped.resolve("eval_ops.csv")));
+    assertEquals(0, countOpenDescriptors(zipped.resolve("releases.zip")));
+    
+    // the second release fails after the archive has been opened for the first one
+    Path transitions = ReleaseFiles.detect(extracted.resolve("ops2025").resolve("Klassifikationsdateien")).fileTransitions();
+    Files.writeString(transitions, "5-999\n", StandardOpenOption.APPEND);
+    Path failing = zipRoot(extracted, directory.resolve("failing").resolve("ops"));
+    assertThrows(IOException.class, () -> new AnalysisBatchRunner(failing.toFile()));
+    assertEquals(0, countOpenDescriptors(failing.resolve("releases.zip")));
+  }
+  
+  private static OPSVersionTransitionAnalyser analyse(Path directory, AnalysisContext context) throws Exception {
+    return new OPSVersionTransitionAnalyser(new Properties(directory, ';', StandardCharsets.UTF_8, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2), context));
+  }
+  
+  /**
+   * Generates the releases of 2024 and 2025 with a properties file.
+   */
+  private static Path generate(Path root) throws IOException {
+    var options = new ReleaseGeneratorOptions();
+    options.setOutputDirectory(root.toFile());
+    options.setCodes(1000);
+    options.setReleases(2);
+    options.setFirstYear(2023);
+    options.setEncodings(List.of(StandardCharsets.UTF_8.name()));
+    options.setSeed(5);
+    new ReleaseGenerator(options).generate();
+    return root;
+  }
+  
+  /**
+   * Puts the releases of a root into one archive, releases.zip, and points the properties
+   * file of the new root at it.
+   */
+  private static Path zipRoot(Path root, Path zippedRoot) throws IOException {
+    Files.createDirectories(zippedRoot);
+    zip(zippedRoot.resolve("releases.zip"), Map.of("ops2024", root.resolve("ops2024"), "ops2025", root.resolve("ops2025")));
+    String properties = Files.readString(root.resolve("properties.csv"));
+    Files.writeString(zippedRoot.resolve("properties.csv"), properties.replace("\"/ops20", "\"/releases.zip/ops20"));
+    return zippedRoot;
+  }
+  
+  /**
+   * Writes an archive with the files and folders, each under the name it is mapped from.
+   */
+  private static Path zip(Path zip, Map<String, Path> entries) throws IOException {
+    Files.createDirectories(zip.getParent());
+    try (var zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zip.toUri()), Map.of("create", "true"))) {
+      for (var entry : entries.entrySet()) {
+        try (var files = Files.walk(entry.getValue())) {
+          for (Path file : files.toList()) {
+            Path target = zipFileSystem.getPath(entry.getKey(), entry.getValue().relativize(file).toString());
+            if (Files.isDirectory(file)) {
+              Files.createDirectories(target);
+            } else {
+              Files.copy(file, target);
+            }
+          }
+        }
+      }
+    }
+    return zip;
+  }
+  
+  /**
+   * @return the number of file descriptors of this JVM that are open on the file
+   */
+  private static long countOpenDescriptors(Path file) throws IOException {
+    Path descriptors = Path.of("/proc/self/fd");
+    assumeTrue(Files.isDirectory(descriptors), "open files can only be listed on Linux");
+    Path target = file.toRealPath();
+    try (var links = Files.list(descriptors)) {
+      return links.filter(link -> {
+        try {
+          return Files.readSymbolicLink(link).equals(target);
+        } catch (IOException e) {
+          // closed while listing
+          return false;
+        }
+      }).count();
+    }
+  }
+}
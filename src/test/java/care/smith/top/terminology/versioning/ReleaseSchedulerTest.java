@@ -0,0 +1,137 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Admits releases to a {@link ReleaseScheduler} whose executor only runs them when the test
+ * says so, so the order of admission does not depend on timing.
+ * @author Ralph Schäfermeier
+ */
+class ReleaseSchedulerTest {
+  
+  private final ManualExecutor executor = new ManualExecutor();
+  private final ReleaseScheduler scheduler = new ReleaseScheduler(executor, 100);
+  private final Map<String, Future<String>> releases = new LinkedHashMap<>();
+  
+  @Test
+  void fillsTheGapsBetweenLargeReleases() {
+    submit("large 1", 60);
+    submit("large 2", 60);
+    submit("small 1", 20);
+    submit("small 2", 20);
+    submit("small 3", 20);
+    
+    // the second large release does not fit next to the first one, two small ones do
+    assertEquals(3, executor.tasks.size());
+    assertEquals("small 1", run(1));
+    // the freed heap goes to the next small release, the large one still does not fit
+    assertEquals(4, executor.tasks.size());
+    assertEquals("small 3", run(3));
+    assertEquals("small 2", run(2));
+    assertEquals(4, executor.tasks.size());
+    assertEquals("large 1", run(0));
+    assertEquals(5, executor.tasks.size());
+    assertEquals("large 2", run(4));
+  }
+  
+  @Test
+  void runsReleasesLargerThanTheCapacityAlone() {
+    submit("small 1", 20);
+    submit("huge", 500);
+    submit("small 2", 20);
+    
+    assertEquals(2, executor.tasks.size());
+    assertEquals("small 2", run(1));
+    assertEquals("small 1", run(0));
+    assertEquals(3, executor.tasks.size());
+    // nothing else is admitted while it runs
+    submit("small 3", 20);
+    assertEquals(3, executor.tasks.size());
+    assertEquals("huge", run(2));
+    assertEquals("small 3", run(3));
+  }
+  
+  @Test
+  void dropsPendingReleasesWhenCancelled() {
+    var failing = scheduler.<String>submit(60, () -> {
+      throw new IOException("failed");
+    });
+    submit("large 1", 60);
+    submit("large 2", 60);
+    
+    executor.tasks.get(0).run();
+    var e = assertThrows(ExecutionException.class, failing::get);
+    assertInstanceOf(IOException.class, e.getCause());
+    // the next release has been admitted when the failed one finished, the others are dropped
+    assertEquals(2, executor.tasks.size());
+    scheduler.cancel();
+    assertTrue(releases.get("large 2").isCancelled());
+    assertEquals("large 1", run(1));
+    assertEquals(2, executor.tasks.size());
+  }
+  
+  private void submit(String name, long heap) {
+    releases.put(name, scheduler.submit(heap, () -> name));
+  }
+  
+  /**
+   * Runs a release the executor has been given.
+   * @return the name of the release that has been run
+   */
+  private String run(int task) {
+    var running = releases.entrySet().stream().filter(release -> !release.getValue().isDone()).map(Map.Entry::getKey).toList();
+    executor.tasks.get(task).run();
+    var finished = running.stream().filter(name -> releases.get(name).isDone()).toList();
+    assertEquals(1, finished.size(), finished.toString());
+    return finished.get(0);
+  }
+  
+  /**
+   * Keeps the tasks instead of running them.
+   */
+  private static class ManualExecutor extends AbstractExecutorService {
+    
+    final List<Runnable> tasks = new ArrayList<>();
+    
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+    
+    @Override
+    public void shutdown() {
+    }
+    
+    @Override
+    public List<Runnable> shutdownNow() {
+      return List.of();
+    }
+    
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+    
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+    
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
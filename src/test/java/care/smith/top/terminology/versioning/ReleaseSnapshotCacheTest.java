@@ -0,0 +1,153 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Analyses a synthetic release with a {@link ReleaseSnapshotCache} and compares the results
+ * with a fresh parse.
+ * @author Ralph Schäfermeier
+ */
+class ReleaseSnapshotCacheTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void hitsGiveTheSameChangeSets() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 3000, 5);
+    for (var engine : TransitionEngine.values()) {
+      var cache = new ReleaseSnapshotCache(directory.resolve("cache-" + engine));
+      var fresh = release.analyse(engine);
+      
+      var stored = analyse(release, engine, cache);
+      assertFalse(isHit(stored), engine.name());
+      var loaded = analyse(release, engine, cache);
+      assertTrue(isHit(loaded), engine.name());
+      
+      assertEquals(TestRelease.describe(fresh), TestRelease.describe(loaded), engine.name());
+      assertEquals(fresh.getOldLabels().size(), loaded.getOldLabels().size(), engine.name());
+      assertEquals(fresh.getNewLabels().size(), loaded.getNewLabels().size(), engine.name());
+      assertEquals(fresh.getSummary().count(CodeChanges.RelabelingSeverity.minor), loaded.getSummary().count(CodeChanges.RelabelingSeverity.minor), engine.name());
+    }
+  }
+  
+  @Test
+  void changedInputsInvalidateTheSnapshot() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 1000, 5);
+    var cache = new ReleaseSnapshotCache(directory.resolve("cache"));
+    analyse(release, TransitionEngine.legacy, cache);
+    
+    // the first row is dropped and the file is padded with blank lines, so only the
+    // content tells the versions apart
+    Path file = release.getTransitionFile();
+    FileTime lastModified = Files.getLastModifiedTime(file);
+    var before = FileFingerprint.of(file);
+    var rows = Files.readAllLines(file, StandardCharsets.UTF_8);
+    Files.write(file, rows.subList(1, rows.size()), StandardCharsets.UTF_8);
+    Files.writeString(file, "\n".repeat((int) (before.size() - Files.size(file))), StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(file, lastModified);
+    
+    var after = FileFingerprint.of(file);
+    assertEquals(before.size(), after.size());
+    assertEquals(before.lastModified(), after.lastModified());
+    assertNotEquals(before.hash(), after.hash());
+    
+    var analyser = analyse(release, TransitionEngine.legacy, cache);
+    assertFalse(isHit(analyser));
+    assertEquals(TestRelease.describe(release.analyse(TransitionEngine.legacy)), TestRelease.describe(analyser));
+    // the entry of the release has been replaced
+    try (var entries = Files.list(directory.resolve("cache"))) {
+      assertEquals(1, entries.count());
+    }
+    assertTrue(isHit(analyse(release, TransitionEngine.legacy, cache)));
+  }
+  
+  @Test
+  void changedParametersInvalidateTheSnapshot() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 1000, 5);
+    var cache = new ReleaseSnapshotCache(directory.resolve("cache"));
+    analyse(release, TransitionEngine.legacy, cache);
+    
+    var components = analyse(release, TransitionEngine.components, cache);
+    assertFalse(isHit(components));
+    assertEquals(TestRelease.describe(release.analyse(TransitionEngine.components)), TestRelease.describe(components));
+    // both engines share the entry of the release, the components snapshot replaced the other one
+    assertFalse(isHit(analyse(release, TransitionEngine.legacy, cache)));
+    
+    var context = new AnalysisContext();
+    context.setSnapshotCache(cache);
+    var properties = new Properties(release.getDirectory(), ';', StandardCharsets.ISO_8859_1, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2), context);
+    // another encoding
+    assertFalse(isHit(new OPSVersionTransitionAnalyser(properties)));
+  }
+  
+  @Test
+  void treatsCorruptSnapshotsAsMissing() throws Exception {
+    var release = new TestRelease(directory.resolve("release"), 1000, 5);
+    var cache = new ReleaseSnapshotCache(directory.resolve("cache"));
+    analyse(release, TransitionEngine.legacy, cache);
+    
+    Path entry;
+    try (var entries = Files.list(directory.resolve("cache"))) {
+      entry = entries.findFirst().orElseThrow();
+    }
+    Files.write(entry, List.of("corrupt"));
+    
+    var analyser = analyse(release, TransitionEngine.legacy, cache);
+    assertFalse(isHit(analyser));
+    assertEquals(TestRelease.describe(release.analyse(TransitionEngine.legacy)), TestRelease.describe(analyser));
+  }
+  
+  @Test
+  void fingerprintsIdentifyTheContent() throws Exception {
+    Path file = Files.writeString(directory.resolve("labels.txt"), "A;Alpha\n");
+    var fingerprint = FileFingerprint.of(file);
+    
+    assertEquals(fingerprint, FileFingerprint.of(directory.resolve(".").resolve("labels.txt")));
+    assertEquals(file.toAbsolutePath().toString(), fingerprint.path());
+    Files.setLastModifiedTime(file, FileTime.fromMillis(fingerprint.lastModified() + 1000));
+    assertNotEquals(fingerprint, FileFingerprint.of(file));
+    
+    // an entry of an archive has the same size and checksum as the file
+    Path zip = directory.resolve("release.zip");
+    try (var zipFileSystem = FileSystems.newFileSystem(URI.create("jar:" + zip.toUri()), Map.of("create", "true"))) {
+      Files.copy(file, zipFileSystem.getPath("labels.txt"));
+    }
+    try (var zipFileSystem = FileSystems.newFileSystem(zip)) {
+      var entry = FileFingerprint.of(zipFileSystem.getPath("labels.txt"));
+      assertEquals(fingerprint.size(), entry.size());
+      assertEquals(fingerprint.hash(), entry.hash());
+      assertNotEquals(fingerprint.path(), entry.path());
+    }
+  }
+  
+  private static OPSVersionTransitionAnalyser analyse(TestRelease release, TransitionEngine engine, ReleaseSnapshotCache cache) throws Exception {
+    var context = new AnalysisContext();
+    context.setEngine(engine);
+    context.setSnapshotCache(cache);
+    return new OPSVersionTransitionAnalyser(release.getProperties(context));
+  }
+  
+  /**
+   * @return whether the analyser has loaded its release from the cache, without parsing
+   *         and storing it
+   */
+  private static boolean isHit(AbstractTerminologyVersionTransitionAnalyser analyser) {
+    var phases = analyser.getMetrics().getPhases().stream().map(ReleaseMetrics.PhaseMetrics::phase).toList();
+    assertTrue(phases.contains("snapshot load"), phases.toString());
+    return !phases.contains("snapshot store");
+  }
+}
@@ -0,0 +1,59 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Ralph Schäfermeier
+ */
+class ReleaseWatcherTest {
+  
+  private static final List<String> PROPERTIES = List.of(
+          "\"path\",\"separator\",\"columns\",\"encoding\"",
+          "\"/ops2023/Klassifikationsdateien\",\";\",\"code_old;N;code_new;N;A;A\",\"UTF-8\"",
+          "\"/ops2022/Klassifikationsdateien\",\";\",\"code_old;code_new;N;A;A\",\"windows-1252\"");
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void addsReleasesWithTheFormatOfTheNewest() throws Exception {
+    var watcher = createWatcher();
+    
+    assertTrue(watcher.addRelease(directory.resolve("ops2024").resolve("Klassifikationsdateien")));
+    assertFalse(watcher.addRelease(directory.resolve("ops2024").resolve("Klassifikationsdateien")));
+    
+    var lines = Files.readAllLines(directory.resolve("properties.csv"), StandardCharsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertEquals("\"/ops2024/Klassifikationsdateien\",\";\",\"code_old;N;code_new;N;A;A\",\"UTF-8\"", lines.get(3));
+  }
+  
+  @Test
+  void skipsFoldersWithoutYear() throws Exception {
+    var watcher = createWatcher();
+    
+    assertFalse(watcher.addRelease(directory.resolve("neu").resolve("Klassifikationsdateien")));
+    assertEquals(PROPERTIES, Files.readAllLines(directory.resolve("properties.csv"), StandardCharsets.UTF_8));
+  }
+  
+  @Test
+  void findsTheReleaseInANewFolder() throws Exception {
+    var release = new TestRelease(directory, 100, 1);
+    
+    assertEquals(release.getDirectory(), ReleaseWatcher.findRelease(directory.resolve("ops2024")));
+    assertNull(ReleaseWatcher.findRelease(Files.createDirectories(directory.resolve("ops2025").resolve("Klassifikationsdateien"))));
+  }
+  
+  private ReleaseWatcher createWatcher() throws IOException {
+    Files.write(directory.resolve("properties.csv"), PROPERTIES, StandardCharsets.UTF_8);
+    return new ReleaseWatcher(directory.toFile(), new BatchOptions());
+  }
+}
@@ -0,0 +1,76 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.VersionInfoFileNotFoundException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * A synthetic release written by the {@link ReleaseGenerator}, for the tests that need input
+ * files. The content only depends on the code count and the seed.
+ * @author Ralph Schäfermeier
+ */
+class TestRelease {
+  
+  private final Path directory;
+  
+  TestRelease(Path root, int codeCount, long seed) throws IOException {
+    var options = new ReleaseGeneratorOptions();
+    options.setOutputDirectory(root.toFile());
+    options.setCodes(codeCount);
+    options.setReleases(1);
+    options.setFirstYear(2023);
+    options.setEncodings(List.of(StandardCharsets.UTF_8.name()));
+    options.setSeed(seed);
+    new ReleaseGenerator(options).generate();
+    this.directory = root.resolve("ops2024").resolve("Klassifikationsdateien");
+  }
+  
+  Properties getProperties(AnalysisContext context) {
+    return new Properties(directory, ';', StandardCharsets.UTF_8, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2), context);
+  }
+  
+  OPSVersionTransitionAnalyser analyse(TransitionEngine engine) throws Exception {
+    var context = new AnalysisContext();
+    context.setEngine(engine);
+    return new OPSVersionTransitionAnalyser(getProperties(context));
+  }
+  
+  Path getDirectory() {
+    return directory;
+  }
+  
+  Path getTransitionFile() throws VersionInfoFileNotFoundException {
+    return ReleaseFiles.detect(directory).fileTransitions();
+  }
+  
+  /**
+   * @return the change sets of an analyser by their semantic and lexical change, each as
+   *         its old and new codes, which can be compared across dictionaries
+   */
+  static Map<String, Set<String>> describe(AbstractTerminologyVersionTransitionAnalyser analyser) {
+    return analyser.changes(new ChangeFilter()).collect(Collectors.groupingBy(
+            changes -> changes.getSemanticChange() + " " + changes.getLexicalChange(),
+            TreeMap::new,
+            Collectors.mapping(TestRelease::describe, Collectors.toCollection(TreeSet::new))));
+  }
+  
+  static String describe(CodeChanges changes) {
+    return codes(changes, changes.getOldCodeIds().toArray()) + " > " + codes(changes, changes.getNewCodeIds().toArray());
+  }
+  
+  private static String codes(CodeChanges changes, int[] ids) {
+    var codes = new TreeSet<String>();
+    for (int id : ids) {
+      codes.add(changes.getDictionary().getCode(id));
+    }
+    return String.join("|", codes);
+  }
+}
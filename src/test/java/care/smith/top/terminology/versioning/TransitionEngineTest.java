@@ -0,0 +1,64 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the change sets of the two {@link TransitionEngine}s.
+ * @author Ralph Schäfermeier
+ */
+class TransitionEngineTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void componentsMatchLegacy() throws Exception {
+    var release = new TestRelease(directory, 5000, 7);
+    var legacy = TestRelease.describe(release.analyse(TransitionEngine.legacy));
+    
+    assertTrue(legacy.keySet().stream().anyMatch(type -> type.startsWith("split")));
+    assertTrue(legacy.keySet().stream().anyMatch(type -> type.startsWith("merge")));
+    assertEquals(legacy, TestRelease.describe(release.analyse(TransitionEngine.components)));
+  }
+  
+  @Test
+  void componentsDoNotDependOnRowOrder() throws Exception {
+    var release = new TestRelease(directory, 5000, 7);
+    var expected = TestRelease.describe(release.analyse(TransitionEngine.components));
+    
+    Path file = release.getTransitionFile();
+    var rows = new ArrayList<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+    for (long seed = 1; seed <= 3; seed++) {
+      Collections.shuffle(rows, new Random(seed));
+      Files.write(file, rows, StandardCharsets.UTF_8);
+      assertEquals(expected, TestRelease.describe(release.analyse(TransitionEngine.components)), "rows shuffled with seed " + seed);
+    }
+  }
+  
+  @Test
+  void componentsClassifyManyToManyMappingsAsComplex() throws Exception {
+    Path release = Files.createDirectories(directory.resolve("ops2024"));
+    Files.writeString(release.resolve("ops2023syst_kodes.txt"), "A;Alpha\nB;Beta\nE;Epsilon\n");
+    Files.writeString(release.resolve("ops2024syst_kodes.txt"), "C;Gamma\nD;Delta\nE;Epsilon\n");
+    Files.writeString(release.resolve("ops2024syst_umsteiger_2023_2024.txt"), "B;N;C;N;A;A\nE;N;E;N;A;A\nA;N;D;N;A;A\nA;N;C;N;A;A\n");
+    var context = new AnalysisContext();
+    context.setEngine(TransitionEngine.components);
+    var properties = new Properties(release, ';', StandardCharsets.UTF_8, Map.of(Column.CODE_OLD, 0, Column.CODE_NEW, 2), context);
+    
+    var changeSets = TestRelease.describe(new OPSVersionTransitionAnalyser(properties));
+    
+    assertEquals(Map.of("complex labelReplacement", Set.of("A|B > C|D"), "none none", Set.of("E > E")), changeSets);
+  }
+}
@@ -0,0 +1,70 @@
+package care.smith.top.terminology.versioning;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares releases that are read through a {@link TransitionQueue} with the same releases
+ * read one file after the other.
+ * @author Ralph Schäfermeier
+ */
+class TransitionQueueTest {
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void pipelinedChangeSetsMatch() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var engine : TransitionEngine.values()) {
+      var analyser = release.analyse(engine);
+      var pipelined = analyse(release, engine);
+      
+      assertTrue(pipelined.getMetrics().getPhases().stream().anyMatch(phase -> phase.phase().equals("transition parse")), engine.name());
+      assertEquals(TestRelease.describe(analyser), TestRelease.describe(pipelined), engine.name());
+      assertEquals(analyser.getOldLabels().size(), pipelined.getOldLabels().size(), engine.name());
+      assertEquals(analyser.getNewLabels().size(), pipelined.getNewLabels().size(), engine.name());
+    }
+  }
+  
+  @Test
+  void labelFailuresStopTheParser() throws Exception {
+    // more rows than the queue holds, so the parser waits for them to be taken
+    var release = new TestRelease(directory, 2 * TransitionQueue.CAPACITY * TransitionQueue.BATCH_ROWS, 5);
+    assertTrue(Files.readAllLines(release.getTransitionFile()).size() > TransitionQueue.CAPACITY * TransitionQueue.BATCH_ROWS);
+    Path labels;
+    try (var files = Files.list(release.getDirectory())) {
+      labels = files.filter(file -> file.getFileName().toString().matches("ops2023.*kodes.*")).findFirst().orElseThrow();
+    }
+    // a row without a label at the end
+    Files.writeString(labels, "5-999\n", StandardOpenOption.APPEND);
+    
+    // the analyser waits for the parser to end before it throws, a parser that is left
+    // waiting for the queue lets the analysis time out
+    var executor = Executors.newSingleThreadExecutor();
+    try {
+      var analysis = executor.submit(() -> analyse(release, TransitionEngine.legacy));
+      var e = assertThrows(ExecutionException.class, () -> analysis.get(60, TimeUnit.SECONDS));
+      assertInstanceOf(IOException.class, e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  private static OPSVersionTransitionAnalyser analyse(TestRelease release, TransitionEngine engine) throws Exception {
+    var context = new AnalysisContext();
+    context.setEngine(engine);
+    context.setPipelinedReading(true);
+    return new OPSVersionTransitionAnalyser(release.getProperties(context));
+  }
+}
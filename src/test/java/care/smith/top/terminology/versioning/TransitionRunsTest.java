@@ -0,0 +1,114 @@
+package care.smith.top.terminology.versioning;
+
+import care.smith.top.terminology.versioning.util.IntObjectMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares releases that are split into {@link TransitionRuns} with the same releases
+ * analysed at once.
+ * @author Ralph Schäfermeier
+ */
+class TransitionRunsTest {
+  
+  private static final long HEAP_BUDGET = 256 * 1024;
+  
+  @TempDir
+  Path directory;
+  
+  @Test
+  void spilledSummariesMatch() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    for (var engine : TransitionEngine.values()) {
+      var analyser = release.analyse(engine);
+      var spilled = analyse(release, engine);
+      
+      assertTrue(spilled.getMetrics().getPhases().stream().anyMatch(phase -> phase.phase().equals("transition spill")), engine.name());
+      assertFalse(spilled.getSummary().hasChangeSets(), engine.name());
+      assertEquals(count(analyser.getSummary()), count(spilled.getSummary()), engine.name());
+      assertEquals(TestRelease.describe(analyser), TestRelease.describe(spilled), engine.name());
+    }
+  }
+  
+  @Test
+  void spilledReleasesAreBuiltOncePerPass() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    var analyser = analyse(release, TransitionEngine.components);
+    
+    var changeSets = new ArrayList<CodeChanges>();
+    var summary = analyser.getSummary(changeSets::add);
+    assertEquals(summary.size(), changeSets.size());
+    var builds = count(analyser, "transition build");
+    
+    var splits = analyser.getSplits();
+    assertEquals(summary.count(CodeChanges.SemanticChange.split), splits.size());
+    assertSame(splits, analyser.getSplits());
+    assertEquals(summary.count(CodeChanges.RelabelingSeverity.minor), analyser.getMinorRelabelings().size());
+    assertSame(analyser.getMinorRelabelings(), analyser.getMinorRelabelings());
+    // one more pass for each of the two lists
+    assertEquals(3 * builds, count(analyser, "transition build"));
+  }
+  
+  @Test
+  void runsHoldCompleteComponents() throws Exception {
+    var release = new TestRelease(directory, 5000, 5);
+    var context = new AnalysisContext();
+    context.setHeapBudget(HEAP_BUDGET);
+    var file = release.getTransitionFile();
+    
+    try (var runs = TransitionRuns.write(file, release.getProperties(context), -1, 8)) {
+      assertEquals(8, runs.size());
+      assertEquals(Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(line -> !line.isBlank()).count(), runs.getRows());
+      // the run of every old code (id << 1) and new code (id << 1 | 1)
+      var runsByNode = new IntObjectMap<Integer>();
+      for (int run = 0; run < runs.size(); run++) {
+        int current = run;
+        runs.forEach(run, (oldCode, newCode) -> {
+          for (int node : new int[] {oldCode << 1, newCode << 1 | 1}) {
+            Integer previous = runsByNode.get(node);
+            assertTrue(previous == null || previous == current, "node " + node + " is in runs " + previous + " and " + current);
+            runsByNode.put(node, current);
+          }
+        });
+      }
+    }
+  }
+  
+  private OPSVersionTransitionAnalyser analyse(TestRelease release, TransitionEngine engine) throws Exception {
+    var context = new AnalysisContext();
+    context.setEngine(engine);
+    context.setHeapBudget(HEAP_BUDGET);
+    return new OPSVersionTransitionAnalyser(release.getProperties(context));
+  }
+  
+  private static Map<String, Integer> count(ChangeSummary summary) {
+    var counts = new TreeMap<String, Integer>();
+    for (var type : CodeChanges.SemanticChange.values()) {
+      counts.put(type.name(), summary.count(type));
+    }
+    for (var type : CodeChanges.LexicalChange.values()) {
+      counts.put(type.name(), summary.count(type));
+    }
+    for (var severity : CodeChanges.RelabelingSeverity.values()) {
+      counts.put(severity.name(), summary.count(severity));
+    }
+    counts.put("mappedToUndefined", summary.countMappedToUndefined());
+    counts.put("size", summary.size());
+    return counts;
+  }
+  
+  private static long count(AbstractTerminologyVersionTransitionAnalyser analyser, String phase) {
+    List<ReleaseMetrics.PhaseMetrics> phases = analyser.getMetrics().getPhases();
+    return phases.stream().filter(metrics -> metrics.phase().equals(phase)).count();
+  }
+}
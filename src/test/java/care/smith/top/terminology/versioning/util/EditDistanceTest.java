@@ -0,0 +1,95 @@
+package care.smith.top.terminology.versioning.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares {@link EditDistance} with the plain dynamic programming Levenshtein distance.
+ * @author Ralph Schäfermeier
+ */
+class EditDistanceTest {
+  
+  @Test
+  void matchesKnownDistances() {
+    assertEquals(0, EditDistance.distance("", ""));
+    assertEquals(3, EditDistance.distance("", "abc"));
+    assertEquals(3, EditDistance.distance("abc", ""));
+    assertEquals(3, EditDistance.distance("kitten", "sitting"));
+    assertEquals(3, EditDistance.distance("sitting", "kitten"));
+    assertEquals(1, EditDistance.distance("Schädel", "Schadel"));
+    assertEquals(1.0, EditDistance.similarity("", ""), 0);
+    assertEquals(0.0, EditDistance.similarity("abc", "xyz"), 0);
+  }
+  
+  @Test
+  void matchesDynamicProgramming() {
+    var random = new Random(42);
+    for (int n = 0; n < 2000; n++) {
+      String a = randomString(random, random.nextInt(80), 4);
+      String b = randomString(random, random.nextInt(80), 4);
+      assertEquals(levenshtein(a, b), EditDistance.distance(a, b), a + " / " + b);
+    }
+  }
+  
+  @Test
+  void matchesDynamicProgrammingForPatternsOfSeveralWords() {
+    var random = new Random(7);
+    for (int n = 0; n < 500; n++) {
+      // at least 64 chars in the pattern, so it takes several words, and small alphabets for long runs of equal chars
+      String a = randomString(random, 64 + random.nextInt(200), 1 + random.nextInt(6));
+      String b = random.nextBoolean() ? mutate(random, a) : randomString(random, 64 + random.nextInt(200), 1 + random.nextInt(6));
+      assertEquals(levenshtein(a, b), EditDistance.distance(a, b), a + " / " + b);
+    }
+    for (int m : new int[] {63, 64, 65, 127, 128, 129, 192}) {
+      String a = "a".repeat(m);
+      assertEquals(0, EditDistance.distance(a, a));
+      assertEquals(1, EditDistance.distance(a, a + "b"));
+      assertEquals(m, EditDistance.distance(a, "b".repeat(m)));
+      assertEquals(levenshtein(a, "b" + a.substring(1) + "a"), EditDistance.distance(a, "b" + a.substring(1) + "a"));
+    }
+  }
+  
+  private static String randomString(Random random, int length, int alphabet) {
+    var chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      // includes chars beyond Latin-1
+      chars[i] = random.nextInt(10) == 0 ? (char) ('Ā' + random.nextInt(alphabet)) : (char) ('a' + random.nextInt(alphabet));
+    }
+    return new String(chars);
+  }
+  
+  private static String mutate(Random random, String string) {
+    var mutated = new StringBuilder(string);
+    for (int n = random.nextInt(10); n > 0 && !mutated.isEmpty(); n--) {
+      int i = random.nextInt(mutated.length());
+      switch (random.nextInt(3)) {
+        case 0 -> mutated.deleteCharAt(i);
+        case 1 -> mutated.insert(i, 'x');
+        default -> mutated.setCharAt(i, 'y');
+      }
+    }
+    return mutated.toString();
+  }
+  
+  private static int levenshtein(String a, String b) {
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+        current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[b.length()];
+  }
+}